@@ -6,103 +6,344 @@ import org.kingdari.MiniBase.Config.WAL_LEVEL;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 public class BaseLog implements MLog {
 
 	private static final Logger LOG = Logger.getLogger(BaseLog.class);
 
+	/**
+	 * With a codec, each flushed buffer is written as a frame:
+	 * marker(4) codec(1) rawLen(4) compressedLen(4) compressed records.
+	 * -1 is neither a kv (rawKeyLen > 0) nor a batch (-count <= -2).
+	 */
+	private static final int FRAME_MARKER = -1;
+	private static final int FRAME_HEADER_SIZE = 13;
+	/**
+	 * Each record is followed by the CRC32 of the segment id and the record. A recycled
+	 * segment keeps the records of its old id after the tail, which then do not match.
+	 */
+	private static final int RECORD_CRC_SIZE = 4;
+	private static final Pattern LOG_FILE_REGEX = Pattern.compile("wal\\.([0-9]+)");
+	private static final Pattern RECYCLED_FILE_REGEX = Pattern.compile("wal\\.recycled\\.([0-9]+)");
+	private static final int ZERO_FILL_CHUNK_SIZE = 1024 * 1024;
+
+	/**
+	 * One WAL file. The writer appends to it until maxLogSegmentSize, then seals it and
+	 * rolls to the next id. Once everything up to maxSeqId is flushed, it can be deleted.
+	 */
+	private static class LogSegment {
+		private final long id;
+		private final String fileName;
+		// bytes visible to ReadQueueProducer, guarded by syncLock for waiting.
+		private volatile long syncedSize;
+		private volatile long maxSeqId;
+		private volatile boolean sealed;
+		// next segment of the same stream, set before sealing.
+		private volatile LogSegment next;
+
+		LogSegment(long id, String fileName) {
+			this.id = id;
+			this.fileName = fileName;
+			this.syncedSize = 0;
+			this.maxSeqId = 0;
+			this.sealed = false;
+		}
+	}
+
+	/**
+	 * An independent write path: its own queue, writer thread and segments, and a reader
+	 * following them for SYNC/FSYNC. Sequence ids and segment ids are shared by all streams.
+	 */
+	private class LogStream implements Closeable {
+		private final int index;
+		private final RingBuffer<LogEntry> writeQueue;
+		private final Object syncLock;
+		private final WriteQueueConsumer writeQueueConsumer;
+		private ReadQueueProducer readQueueProducer;
+
+		LogStream(int index) throws IOException {
+			this.index = index;
+			this.writeQueue = new RingBuffer<>(conf.getLogRingBufferSize(), conf.getLogWaitStrategy());
+			this.syncLock = new Object();
+			this.writeQueueConsumer = new WriteQueueConsumer(this);
+			if (isSyncLevel(conf.getWalLevel())) {
+				this.readQueueProducer = new ReadQueueProducer(this, writeQueueConsumer.logWriter.getSegment());
+			}
+		}
+
+		void start() {
+			writeQueueConsumer.start();
+			if (readQueueProducer != null) {
+				readQueueProducer.start();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			writeQueueConsumer.close();
+			try {
+				writeQueueConsumer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (readQueueProducer != null) {
+				readQueueProducer.close();
+				try {
+					readQueueProducer.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Merge entries of all streams into readQueue in sequence order. Each stream offers its
+	 * own entries in order, a failed write leaves a hole to be skipped.
+	 */
+	private class LogSequencer {
+		// first seq -> ReadLogWal, or the last seq of a hole.
+		private final TreeMap<Long, Object> pending = new TreeMap<>();
+		private long nextSeq = 1L;
+
+		synchronized void reset(long nextSeq) {
+			this.nextSeq = nextSeq;
+			pending.clear();
+		}
+
+		synchronized void offer(ReadLogWal wal) {
+			add(wal.getKvs().get(0).getSequenceId(), wal);
+		}
+
+		synchronized void skip(long firstSeq, long lastSeq) {
+			add(firstSeq, lastSeq);
+		}
+
+		private void add(long firstSeq, Object entry) {
+			if (firstSeq < nextSeq) {
+				LOG.warn("Drop log entry before " + nextSeq + ": " + entry);
+				return;
+			}
+			pending.put(firstSeq, entry);
+			Map.Entry<Long, Object> first;
+			while ((first = pending.firstEntry()) != null && first.getKey() == nextSeq) {
+				pending.pollFirstEntry();
+				if (first.getValue() instanceof ReadLogWal) {
+					ReadLogWal wal = (ReadLogWal) first.getValue();
+					readQueue.put(wal);
+					nextSeq = wal.getSeq() + 1;
+				} else {
+					nextSeq = (Long) first.getValue() + 1;
+				}
+			}
+		}
+	}
+
 	private class ReadQueueProducer extends Thread implements Closeable {
 
+		private final LogStream stream;
+		private LogSegment segment;
 		private LogReader logReader;
 		private volatile boolean running;
-		private int readPos;
+		private long readPos;
 
-		public ReadQueueProducer() throws IOException {
-			super("BaseLogReadQueueProducer");
-			this.logReader = new LogReader(logFileName);
+		public ReadQueueProducer(LogStream stream, LogSegment segment) throws IOException {
+			super("BaseLogReadQueueProducer-" + stream.index);
+			this.stream = stream;
+			this.segment = segment;
+			this.logReader = new LogReader(segment, isMmapRead());
 			this.running = true;
 			this.readPos = 0;
 			this.setDaemon(true);
 		}
 
+		private void switchToNextSegment() throws IOException {
+			// writer links the next segment before sealing the current one.
+			assert segment.next != null;
+			logReader.close();
+			segment = segment.next;
+			logReader = new LogReader(segment, isMmapRead());
+			readPos = 0;
+		}
+
+		/**
+		 * Once closed, the writer is done: read what is synced, then exit.
+		 */
 		@Override
 		public void run() {
-			while (running) {
-				synchronized (logCurrPos) {
-					while (running && readPos == logCurrPos.get()) {
+			while (true) {
+				synchronized (stream.syncLock) {
+					while (running && readPos == segment.syncedSize && !segment.sealed) {
 						try {
-							logCurrPos.wait();
+							stream.syncLock.wait();
 						} catch (InterruptedException ignored) {
 						}
 					}
 				}
-				int newPos = logCurrPos.get();
+				// read sealed first: once sealed, syncedSize is final.
+				boolean sealed = segment.sealed;
+				long newPos = segment.syncedSize;
 				try {
-					final List<LogEntry> entries = logReader.read(readPos, newPos - readPos);
-					readQueue.addAll(entries);
-					readPos = newPos;
+					if (readPos < newPos) {
+						for (LogEntry entry : logReader.read(readPos, (int) (newPos - readPos))) {
+							publish((ReadLogWal) entry);
+						}
+						readPos = newPos;
+					} else if (sealed) {
+						switchToNextSegment();
+					} else if (!running) {
+						break;
+					}
 				} catch (IOException e) {
 					LOG.error("Read log failed", e);
+					if (!running) {
+						break;
+					}
 				}
 			}
+			try {
+				logReader.close();
+			} catch (IOException e) {
+				LOG.error("Close log reader failed", e);
+			}
 		}
 
 		@Override
 		public void close() throws IOException {
-			this.running = false;
+			synchronized (stream.syncLock) {
+				this.running = false;
+				stream.syncLock.notifyAll();
+			}
 		}
 	}
 
 	private class WriteQueueConsumer extends Thread implements Closeable {
 
+		private final RingBuffer<LogEntry> writeQueue;
 		private LogWriter logWriter;
-		private volatile boolean running;
 
-		public WriteQueueConsumer() throws IOException {
-			super("BaseLogWriteQueueConsumer");
-			this.logWriter = new LogWriter(logFileName, conf.getLogBufferSize(), conf.getWalLevel(), logCurrPos);
-			this.running = true;
+		public WriteQueueConsumer(LogStream stream) throws IOException {
+			super("BaseLogWriteQueueConsumer-" + stream.index);
+			this.writeQueue = stream.writeQueue;
+			this.logWriter = new LogWriter(stream.syncLock);
 			this.setDaemon(true);
 		}
 
+		/**
+		 * Take at least one entry, then everything already queued up to maxGroupCommitSize.
+		 * If some entry needs a sync, keep collecting until maxGroupCommitWaitMicros elapses.
+		 * Nothing once writeQueue is closed and drained.
+		 */
+		private void drainBatch(List<LogEntry> batch) throws InterruptedException {
+			int maxSize = conf.getMaxGroupCommitSize();
+			LogEntry first = writeQueue.take();
+			if (first == null) {
+				return;
+			}
+			batch.add(first);
+			writeQueue.drainTo(batch, maxSize - batch.size());
+
+			long waitNanos = TimeUnit.MICROSECONDS.toNanos(conf.getMaxGroupCommitWaitMicros());
+			if (waitNanos <= 0 || !needSync(batch)) {
+				return;
+			}
+			long deadline = System.nanoTime() + waitNanos;
+			while (batch.size() < maxSize) {
+				long remain = deadline - System.nanoTime();
+				if (remain <= 0) {
+					break;
+				}
+				LogEntry entry = writeQueue.poll(remain, TimeUnit.NANOSECONDS);
+				if (entry == null) {
+					break;
+				}
+				batch.add(entry);
+				writeQueue.drainTo(batch, maxSize - batch.size());
+			}
+		}
+
 		@Override
 		public void run() {
-			while (running || !writeQueue.isEmpty()) {
+			List<LogEntry> batch = new ArrayList<>();
+			while (!writeQueue.isClosed() || !writeQueue.isEmpty()) {
 				try {
-					LogEntry logEntry = writeQueue.take();
-					if (logEntry instanceof WriteLogWal) {
-						WriteLogWal entry = (WriteLogWal) logEntry;
-						long seq = sequenceId.incrementAndGet();
-						entry.setSeq(seq);
-						seqIdToEntry.put(seq, entry);
-
-						if (conf.getWalLevel() == WAL_LEVEL.SKIP) {
-							readQueue.add(entry.toReadLogWal());
-						} else if (conf.getWalLevel() == WAL_LEVEL.ASYNC) {
-							readQueue.add(entry.toReadLogWal());
-							logWriter.append(entry);
-						} else if (conf.getWalLevel() == WAL_LEVEL.SYNC || conf.getWalLevel() == WAL_LEVEL.FSYNC) {
-							logWriter.append(entry);
-							logWriter.sync();
-						}
+					batch.clear();
+					drainBatch(batch);
+					if (batch.isEmpty()) {
+						break;
+					}
+					boolean needSync = false;
+					boolean force = false;
+					for (LogEntry logEntry : batch) {
+						if (logEntry instanceof WriteLogWal) {
+							WriteLogWal entry = (WriteLogWal) logEntry;
+							long seq = sequenceId.addAndGet(entry.getCount());
+							entry.setSeq(seq);
+							seqIdToEntry.put(seq, entry);
 
-					} else if (logEntry instanceof LogSync) {
-						logWriter.sync();
+							WAL_LEVEL level = levelOf(entry);
+							if (level != WAL_LEVEL.SKIP) {
+								logWriter.append(entry, level == WAL_LEVEL.FSYNC);
+							}
+							needSync |= isSyncLevel(level);
+						} else if (logEntry instanceof LogSync) {
+							needSync = true;
+							force |= conf.getWalLevel() == WAL_LEVEL.FSYNC;
+						}
+					}
+					// One write, and one force if any entry asks for it, for the whole batch.
+					if (needSync) {
+						logWriter.sync(force);
 					}
-				} catch (InterruptedException | IOException e) {
+					if (!isReadBack()) {
+						// visible once as durable as asked, in sequence order.
+						for (LogEntry logEntry : batch) {
+							if (logEntry instanceof WriteLogWal) {
+								publish(((WriteLogWal) logEntry).toReadLogWal());
+							}
+						}
+					}
+				} catch (InterruptedException e) {
 					e.printStackTrace();
+				} catch (IOException e) {
+					LOG.error("Write log failed", e);
+					for (LogEntry logEntry : batch) {
+						if (logEntry instanceof WriteLogWal) {
+							WriteLogWal entry = (WriteLogWal) logEntry;
+							if (entry.getSeq() == 0) {
+								// not reached before the failure.
+								entry.logFail(e);
+								continue;
+							}
+							failLogEntry(entry.getSeq(), e);
+							if (sequencer != null) {
+								sequencer.skip(entry.getFirstSeq(), entry.getSeq());
+							}
+						}
+					}
 				}
 			}
 			try {
@@ -112,10 +353,31 @@ public class BaseLog implements MLog {
 			}
 		}
 
+		/**
+		 * Write what is queued, then exit. Writers must be done.
+		 */
 		@Override
 		public void close() throws IOException {
-			this.running = false;
+			writeQueue.close();
+		}
+	}
+
+	/**
+	 * Size of the compressed frame at the position of buf without moving it,
+	 * 0 if it is not a frame, -1 if it is torn.
+	 */
+	private static int frameSize(ByteBuffer buf) {
+		if (buf.remaining() < 4 || ByteUtils.getInt(buf, buf.position()) != FRAME_MARKER) {
+			return 0;
+		}
+		if (buf.remaining() < FRAME_HEADER_SIZE) {
+			return -1;
+		}
+		int compressedLen = ByteUtils.getInt(buf, buf.position() + 9);
+		if (compressedLen < 0 || FRAME_HEADER_SIZE + compressedLen > buf.remaining()) {
+			return -1;
 		}
+		return FRAME_HEADER_SIZE + compressedLen;
 	}
 
 	/**
@@ -124,37 +386,192 @@ public class BaseLog implements MLog {
 	private static class LogReader implements Closeable {
 
 		private String logFileName;
+		private final byte[] segmentId;
+		private final CRC32 crc;
 		private FileChannel channel;
-		private int pos;
+		// reused by read(), grows to the largest read.
+		private ByteBuffer readBuffer;
+		private final boolean mmap;
+		private MappedByteBuffer mapped;
+		// reused by frame decoding.
+		private byte[] compressed;
+		private byte[] raw;
 
-		public LogReader(String logFileName) throws IOException {
-			this.logFileName = logFileName;
+		public LogReader(LogSegment segment, boolean mmap) throws IOException {
+			this.logFileName = segment.fileName;
+			this.segmentId = ByteUtils.toBytes(segment.id);
+			this.crc = new CRC32();
 			this.channel = new FileInputStream(logFileName).getChannel();
-			this.pos = 0;
+			this.mmap = mmap;
+			this.readBuffer = mmap ? null : ByteBuffer.allocateDirect(4096);
+		}
+
+		/**
+		 * Entries are parsed in place from the mapped segment, without read syscall or copy.
+		 */
+		private List<LogEntry> readMapped(long offset, int len) throws IOException {
+			long end = offset + len;
+			if (mapped == null || mapped.capacity() < end) {
+				// preallocated segments are mapped once. Remap only if the writer went past it.
+				long size = Math.max(channel.size(), end);
+				if (size > Integer.MAX_VALUE) {
+					throw new IOException("Log segment too large to map: " + logFileName);
+				}
+				mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			mapped.clear();
+			mapped.limit((int) end).position((int) offset);
+
+			List<LogEntry> entries = new ArrayList<>();
+			if (!parse(mapped, entries)) {
+				throw new IOException("Corrupted log " + logFileName + " at " + mapped.position());
+			}
+			return entries;
+		}
+
+		public List<LogEntry> read(long offset, int len) throws IOException {
+			if (mmap) {
+				return readMapped(offset, len);
+			}
+			if (readBuffer.capacity() < len) {
+				readBuffer = ByteBuffer.allocateDirect(Math.max(len, readBuffer.capacity() * 2));
+			}
+			readBuffer.clear().limit(len);
+			while (readBuffer.hasRemaining()) {
+				if (channel.read(readBuffer, offset + readBuffer.position()) < 0) {
+					throw new IOException("Unexpected end of log " + logFileName);
+				}
+			}
+			readBuffer.flip();
+
+			List<LogEntry> entries = new ArrayList<>();
+			if (!parse(readBuffer, entries)) {
+				throw new IOException("Corrupted log " + logFileName + " at " + (offset + readBuffer.position()));
+			}
+			return entries;
+		}
+
+		/**
+		 * Parse records and frames from the position of buf up to its limit.
+		 * @return false if stopped at a torn, stale or invalid one, buf is left at its start.
+		 */
+		private boolean parse(ByteBuffer buf, List<LogEntry> entries) throws IOException {
+			while (buf.hasRemaining()) {
+				int start = buf.position();
+				int parsed = entries.size();
+				try {
+					int frameSize = frameSize(buf);
+					if (frameSize > 0) {
+						parseFrame(buf, entries);
+					} else if (frameSize == 0 && checkRecord(buf)) {
+						entries.add(ReadLogWal.readFrom(buf));
+						buf.position(buf.position() + RECORD_CRC_SIZE);
+					} else {
+						return false;
+					}
+				} catch (IOException | RuntimeException e) {
+					// garbage passing the size checks, the end of the log.
+					LOG.warn("Invalid log entry in " + logFileName + " at " + start, e);
+					entries.subList(parsed, entries.size()).clear();
+					buf.position(start);
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Whether a complete record of this segment, with its CRC, is at the position of buf.
+		 * Does not move the position.
+		 */
+		private boolean checkRecord(ByteBuffer buf) {
+			int size = ReadLogWal.recordSize(buf);
+			if (size < 0 || buf.remaining() < size + RECORD_CRC_SIZE) {
+				return false;
+			}
+			int start = buf.position();
+			int limit = buf.limit();
+			crc.reset();
+			crc.update(segmentId);
+			buf.limit(start + size);
+			crc.update(buf);
+			buf.limit(limit).position(start);
+			return ByteUtils.getInt(buf, start + size) == (int) crc.getValue();
+		}
+
+		private void parseFrame(ByteBuffer buf, List<LogEntry> entries) throws IOException {
+			ByteUtils.getInt(buf);
+			Codec codec = Codec.forCode(buf.get());
+			int rawLen = ByteUtils.getInt(buf);
+			int compressedLen = ByteUtils.getInt(buf);
+			byte[] src;
+			int srcOff;
+			if (buf.hasArray()) {
+				src = buf.array();
+				srcOff = buf.arrayOffset() + buf.position();
+				buf.position(buf.position() + compressedLen);
+			} else {
+				if (compressed == null || compressed.length < compressedLen) {
+					compressed = new byte[compressedLen];
+				}
+				buf.get(compressed, 0, compressedLen);
+				src = compressed;
+				srcOff = 0;
+			}
+			if (raw == null || raw.length < rawLen) {
+				raw = new byte[rawLen];
+			}
+			codec.decompress(src, srcOff, compressedLen, raw, 0, rawLen);
+			ByteBuffer records = ByteBuffer.wrap(raw, 0, rawLen);
+			while (records.hasRemaining()) {
+				if (!checkRecord(records)) {
+					throw new IOException("Corrupted log frame in " + logFileName);
+				}
+				entries.add(ReadLogWal.readFrom(records));
+				records.position(records.position() + RECORD_CRC_SIZE);
+			}
 		}
 
-		public List<LogEntry> read(int offset, int len) throws IOException {
+		/**
+		 * Read all complete entries, up to the first one which is not. A torn entry at the tail,
+		 * left by a crash, is dropped, and so are the stale ones of a recycled segment.
+		 */
+		public List<LogEntry> readAll() throws IOException {
+			int len = (int) channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(len);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, buffer.position()) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+
 			List<LogEntry> entries = new ArrayList<>();
-			ByteBuffer buffer = ByteBuffer.allocateDirect(len);
-			int l = channel.read(buffer, offset);
-			assert l == len;
-			byte[] buf = new byte[len];
-			buffer.rewind();
-			buffer.get(buf);
-
-			int pos = 0;
-			while (pos != len) {
-				// TODO: factory class
-				LogEntry entry = ReadLogWal.parseFrom(buf, pos);
-				pos += entry.getSerializedSize();
-				entries.add(entry);
-				assert pos <= len;
+			parse(buffer, entries);
+			int pos = buffer.position();
+			if (pos != len) {
+				if (isZero(buffer)) {
+					LOG.info("Skip preallocated log tail of " + logFileName + ", " + (len - pos) + " bytes");
+				} else {
+					// or the old records of a recycled segment.
+					LOG.info("Drop torn log tail of " + logFileName + ", " + (len - pos) + " bytes");
+				}
 			}
 			return entries;
 		}
 
+		private static boolean isZero(ByteBuffer buffer) {
+			for (int i = buffer.position(); i < buffer.limit(); i++) {
+				if (buffer.get(i) != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
 		@Override
 		public void close() throws IOException {
+			mapped = null;
 			channel.close();
 		}
 	}
@@ -162,144 +579,589 @@ public class BaseLog implements MLog {
 	/**
 	 * Non-concurrent
 	 */
-	private static class LogWriter implements Closeable {
+	private class LogWriter implements Closeable {
 
-		private String logFileName;
-		private final AtomicInteger currPos;
+		private final Object syncLock;
+		private LogSegment segment;
 		private FileChannel channel;
 		private ByteBuffer buffer;
-		private WAL_LEVEL walLevel;
 		private int maxSize;
-		private int size;
-
-		public LogWriter(String logFileName, int bufferSize, WAL_LEVEL walLevel, AtomicInteger currPos) throws IOException {
-			this.logFileName = logFileName;
-			this.currPos = currPos;
-			File f = new File(logFileName);
-			f.delete();
-			f.createNewFile();
-			this.channel = new FileOutputStream(f, false).getChannel();
-			this.buffer = ByteBuffer.allocateDirect(bufferSize);
-			this.maxSize = bufferSize;
-			this.size = 0;
-			this.walLevel = walLevel;
-		}
-
-		public void append(WriteLogWal logWal) throws IOException {
-			if (!channel.isOpen()) {
-				return;
+		// bytes written to current segment, synced or not.
+		private long writtenSize;
+		private final Codec codec;
+		// reused compressed frame.
+		private byte[] frame;
+		// an FSYNC entry is written but not forced yet.
+		private boolean forcePending;
+		private final CRC32 crc;
+		private byte[] segmentId;
+
+		public LogWriter(Object syncLock) throws IOException {
+			this.syncLock = syncLock;
+			this.codec = conf.getLogCodec();
+			// codecs work on arrays.
+			this.buffer = codec == Codec.NONE ? ByteBuffer.allocateDirect(conf.getLogBufferSize()) :
+					ByteBuffer.allocate(conf.getLogBufferSize());
+			this.maxSize = conf.getLogBufferSize();
+			this.crc = new CRC32();
+			openSegment(nextSegmentId.getAndIncrement());
+		}
+
+		private void openSegment(long id) throws IOException {
+			LogSegment seg = new LogSegment(id, getSegmentFileName(id));
+			RandomAccessFile f;
+			if (conf.isLogPreallocate()) {
+				f = openPreallocated(seg.fileName);
+			} else {
+				f = new RandomAccessFile(seg.fileName, "rw");
+				f.setLength(0);
+				if (isMmapRead()) {
+					// so ReadQueueProducer can map the whole segment once.
+					f.setLength(conf.getMaxLogSegmentSize());
+				}
+			}
+			this.channel = f.getChannel();
+			this.writtenSize = 0;
+			this.segment = seg;
+			this.segmentId = ByteUtils.toBytes(id);
+			segments.put(id, seg);
+		}
+
+		/**
+		 * Reuse a recycled segment, or create one filled with zeros up to maxLogSegmentSize.
+		 */
+		private RandomAccessFile openPreallocated(String fileName) throws IOException {
+			File recycled = recycledFiles.poll();
+			if (recycled != null) {
+				if (recycled.renameTo(new File(fileName))) {
+					LOG.info("Reuse log segment " + recycled.getName() + " as " + fileName);
+					return new RandomAccessFile(fileName, "rw");
+				}
+				LOG.warn("Reuse log segment failed: " + recycled.getPath());
 			}
-			if (size + logWal.getSerializedSize() > maxSize) {
-				sync();
+			RandomAccessFile f = new RandomAccessFile(fileName, "rw");
+			f.setLength(0);
+			// setLength only makes a sparse file, writing allocates the blocks.
+			ByteBuffer zeros = ByteBuffer.allocateDirect(ZERO_FILL_CHUNK_SIZE);
+			long size = conf.getMaxLogSegmentSize();
+			for (long pos = 0; pos < size; ) {
+				zeros.clear();
+				zeros.limit((int) Math.min(zeros.capacity(), size - pos));
+				pos += f.getChannel().write(zeros, pos);
 			}
-			size += logWal.getSerializedSize();
-			buffer.put(logWal.toBytes());
+			f.getChannel().force(true);
+			return f;
 		}
 
-		public void sync() throws IOException {
+		/**
+		 * Cut the sparse tail left for mmap. Preallocated segments keep their size.
+		 */
+		private void truncate() throws IOException {
+			if (isMmapRead() && !conf.isLogPreallocate()) {
+				channel.truncate(writtenSize);
+			}
+		}
+
+		private void roll() throws IOException {
+			sync(false);
+			truncate();
+			channel.close();
+			LogSegment old = segment;
+			openSegment(nextSegmentId.getAndIncrement());
+			old.next = segment;
+			synchronized (syncLock) {
+				old.sealed = true;
+				syncLock.notifyAll();
+			}
+			LOG.info("Roll log segment " + old.fileName + ", size: " + old.syncedSize +
+					", maxSeqId: " + old.maxSeqId);
+		}
+
+		public LogSegment getSegment() {
+			return segment;
+		}
+
+		/**
+		 * @param force the entry has to be forced by the next sync.
+		 */
+		public void append(WriteLogWal logWal, boolean force) throws IOException {
 			if (!channel.isOpen()) {
 				return;
 			}
-			int pos = buffer.position();
+			int size = logWal.getSerializedSize() + RECORD_CRC_SIZE;
+			long segmentSize = writtenSize + buffer.position();
+			if (segmentSize > 0 && segmentSize + size > conf.getMaxLogSegmentSize()) {
+				roll();
+			}
+			if (buffer.position() + size > maxSize) {
+				flushBuffer();
+			}
+			if (size > maxSize) {
+				// large batch, bypass buffer.
+				ByteBuffer record = ByteBuffer.allocate(size);
+				writeRecord(logWal, record);
+				record.flip();
+				write(record);
+			} else {
+				writeRecord(logWal, buffer);
+			}
+			segment.maxSeqId = logWal.getSeq();
+			forcePending |= force;
+		}
+
+		/**
+		 * Encode logWal into buf in place, followed by its CRC.
+		 */
+		private void writeRecord(WriteLogWal logWal, ByteBuffer buf) {
+			int start = buf.position();
+			int limit = buf.limit();
+			logWal.writeTo(buf);
+			crc.reset();
+			crc.update(segmentId);
+			buf.limit(buf.position()).position(start);
+			crc.update(buf);
+			buf.limit(limit);
+			ByteUtils.putInt(buf, (int) crc.getValue());
+		}
+
+		/**
+		 * Write buffer to channel without forcing or publishing it.
+		 */
+		private void flushBuffer() throws IOException {
 			buffer.flip();
-			while (buffer.hasRemaining()) {
-				channel.write(buffer);
+			if (buffer.hasRemaining()) {
+				write(buffer);
 			}
-			if (walLevel == WAL_LEVEL.FSYNC) {
-				channel.force(true);
+			buffer.clear();
+		}
+
+		/**
+		 * Write whole records, compressed into one frame if a codec is set and it saves space.
+		 */
+		private void write(ByteBuffer records) throws IOException {
+			ByteBuffer out = records;
+			if (codec != Codec.NONE) {
+				int len = records.remaining();
+				int maxFrameSize = FRAME_HEADER_SIZE + codec.maxCompressedLength(len);
+				if (frame == null || frame.length < maxFrameSize) {
+					frame = new byte[maxFrameSize];
+				}
+				int compressedLen = codec.compress(records.array(), records.arrayOffset() + records.position(),
+						len, frame, FRAME_HEADER_SIZE);
+				if (FRAME_HEADER_SIZE + compressedLen < len) {
+					out = ByteBuffer.wrap(frame, 0, FRAME_HEADER_SIZE + compressedLen);
+					ByteUtils.putInt(out, FRAME_MARKER);
+					out.put(codec.getCode());
+					ByteUtils.putInt(out, len);
+					ByteUtils.putInt(out, compressedLen);
+					out.rewind();
+				}
+			}
+			writtenSize += out.remaining();
+			totalWrittenSize.addAndGet(out.remaining());
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+
+		/**
+		 * Write the buffer and publish it to ReadQueueProducer. Force it if asked
+		 * or if an FSYNC entry is pending.
+		 */
+		public void sync(boolean force) throws IOException {
+			if (!channel.isOpen()) {
+				return;
+			}
+			flushBuffer();
+			if (force || forcePending) {
+				// a preallocated segment only changes size for an entry past its end,
+				// which fdatasync covers as well.
+				channel.force(!conf.isLogPreallocate());
+				forcePending = false;
+				forceCount.incrementAndGet();
 			}
-			long newCurr;
-			synchronized (currPos) {
-				newCurr = currPos.addAndGet(pos);
-				currPos.notifyAll();
+			synchronized (syncLock) {
+				segment.syncedSize = writtenSize;
+				syncLock.notifyAll();
 			}
-			buffer.rewind();
-			buffer.limit(maxSize);
 
-			LOG.debug("SYNC log to file. Size: " + pos + ", now: " + newCurr);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("SYNC log to file. Segment: " + segment.id + ", size: " + writtenSize);
+			}
 		}
 
 		@Override
 		public void close() throws IOException {
-			sync();
+			sync(conf.getWalLevel() == WAL_LEVEL.FSYNC);
+			truncate();
 			channel.close();
 		}
 	}
 
+	/**
+	 * With a SYNC/FSYNC default, entries reach LogConsumer by reading the log back.
+	 * Otherwise the writer hands them over itself.
+	 */
+	private boolean isReadBack() {
+		return isSyncLevel(conf.getWalLevel());
+	}
+
+	/**
+	 * The level an entry is written with. A read back entry has to be synced to be seen.
+	 */
+	private WAL_LEVEL levelOf(WriteLogWal entry) {
+		WAL_LEVEL level = entry.getWalLevel();
+		if (isReadBack() && !isSyncLevel(level)) {
+			return WAL_LEVEL.SYNC;
+		}
+		return level;
+	}
+
+	private boolean needSync(List<LogEntry> batch) {
+		for (LogEntry entry : batch) {
+			if (!(entry instanceof WriteLogWal) || isSyncLevel(levelOf((WriteLogWal) entry))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isMmapRead() {
+		return conf.isLogMmapRead() && isReadBack();
+	}
+
+	private static boolean isSyncLevel(WAL_LEVEL walLevel) {
+		return walLevel == WAL_LEVEL.SYNC || walLevel == WAL_LEVEL.FSYNC;
+	}
+
 	private Config conf;
 	private AtomicLong sequenceId;
-	private String logFileName;
-	private final AtomicInteger logCurrPos;
+	private final AtomicLong totalWrittenSize;
+	private final AtomicLong forceCount;
+
+	// segment id -> segment of all streams. Ids are unique across streams.
+	private final ConcurrentSkipListMap<Long, LogSegment> segments;
+	private final AtomicLong nextSegmentId;
+
+	// left by the last run, waiting for replay.
+	private final List<LogSegment> replaySegments;
+	// flushed segments waiting for reuse, with logPreallocate.
+	private final ConcurrentLinkedQueue<File> recycledFiles;
 
 	private Map<Long, LogEntry> seqIdToEntry;
 
-	private BlockingQueue<LogEntry> writeQueue;
-	private BlockingQueue<LogEntry> readQueue;
+	private RingBuffer<LogEntry> readQueue;
 
-	private WriteQueueConsumer writeQueueConsumer;
-	private ReadQueueProducer readQueueProducer;
+	private final LogStream[] streams;
+	// only with more than one stream.
+	private final LogSequencer sequencer;
+	// writers between checking closed and queueing.
+	private final InFlightCounter writers;
+	private volatile boolean closed;
 
 	public BaseLog(Config conf) throws IOException {
 		this.conf = conf;
 		this.sequenceId = new AtomicLong(0);
-		this.logCurrPos = new AtomicInteger(0);
-		this.logFileName = conf.getFullLogDir() + "/base.log";
+		this.totalWrittenSize = new AtomicLong(0);
+		this.forceCount = new AtomicLong(0);
+		this.segments = new ConcurrentSkipListMap<>();
+		this.replaySegments = new ArrayList<>();
+		this.recycledFiles = new ConcurrentLinkedQueue<>();
 
 		this.seqIdToEntry = new ConcurrentHashMap<>();
 
-		this.writeQueue = new LinkedBlockingQueue<>();
-		this.readQueue = new LinkedBlockingQueue<>();
+		this.readQueue = new RingBuffer<>(conf.getLogRingBufferSize(), conf.getLogWaitStrategy());
+		this.writers = new InFlightCounter();
+
+		this.nextSegmentId = new AtomicLong(loadSegments() + 1);
+		this.streams = new LogStream[conf.getLogStreams()];
+		this.sequencer = streams.length > 1 ? new LogSequencer() : null;
+		for (int i = 0; i < streams.length; i++) {
+			streams[i] = new LogStream(i);
+		}
+		for (LogStream stream : streams) {
+			stream.start();
+		}
+	}
+
+	/**
+	 * Hand an entry to LogConsumer, in sequence order across streams.
+	 */
+	private void publish(ReadLogWal wal) {
+		if (sequencer == null) {
+			readQueue.put(wal);
+		} else {
+			sequencer.offer(wal);
+		}
+	}
+
+	/**
+	 * Single writes of a key always go through the same stream, so they keep their order. A
+	 * WriteBatch goes with its first key: against single writes of its other keys, or batches
+	 * led by another key, it is only ordered once the earlier write completed.
+	 */
+	private LogStream streamOf(byte[] key) {
+		if (streams.length == 1) {
+			return streams[0];
+		}
+		return streams[(Arrays.hashCode(key) & Integer.MAX_VALUE) % streams.length];
+	}
+
+	private String getSegmentFileName(long id) {
+		return new File(conf.getFullLogDir(), String.format("wal.%020d", id)).getPath();
+	}
+
+	/**
+	 * Register segments left by the last run as sealed, and recycled ones for reuse.
+	 * Return the largest segment id.
+	 */
+	private long loadSegments() {
+		File[] files = new File(conf.getFullLogDir()).listFiles();
+		long maxId = 0L;
+		if (files == null) {
+			return maxId;
+		}
+		for (File f : files) {
+			Matcher recycled = RECYCLED_FILE_REGEX.matcher(f.getName());
+			if (recycled.matches()) {
+				maxId = Math.max(maxId, Long.parseLong(recycled.group(1)));
+				if (recycle(f)) {
+					recycledFiles.add(f);
+				} else {
+					deleteFile(f);
+				}
+				continue;
+			}
+			Matcher matcher = LOG_FILE_REGEX.matcher(f.getName());
+			if (!matcher.matches()) {
+				continue;
+			}
+			LogSegment segment = new LogSegment(Long.parseLong(matcher.group(1)), f.getPath());
+			segment.syncedSize = f.length();
+			// unknown until replayed, keep it from GC.
+			segment.maxSeqId = Long.MAX_VALUE;
+			segment.sealed = true;
+			segments.put(segment.id, segment);
+			replaySegments.add(segment);
+			maxId = Math.max(maxId, segment.id);
+		}
+		replaySegments.sort(Comparator.comparingLong(seg -> seg.id));
+		return maxId;
+	}
+
+	private static List<KeyValue> decodeSegment(LogSegment segment, long flushedSeqId) throws IOException {
+		List<KeyValue> kvs = new ArrayList<>();
+		long maxSeqId = 0L;
+		try (LogReader reader = new LogReader(segment, false)) {
+			for (LogEntry entry : reader.readAll()) {
+				for (KeyValue kv : ((ReadLogWal) entry).getKvs()) {
+					maxSeqId = Math.max(maxSeqId, kv.getSequenceId());
+					if (kv.getSequenceId() > flushedSeqId) {
+						kvs.add(kv);
+					}
+				}
+			}
+		}
+		segment.maxSeqId = maxSeqId;
+		return kvs;
+	}
 
-		this.writeQueueConsumer = new WriteQueueConsumer();
-		this.writeQueueConsumer.start();
+	/**
+	 * Segments are decoded in parallel on pool, then merged in sequence order.
+	 */
+	@Override
+	public List<KeyValue> replay(long flushedSeqId, ExecutorService pool) throws IOException {
+		List<Future<List<KeyValue>>> futures = new ArrayList<>(replaySegments.size());
+		for (LogSegment segment : replaySegments) {
+			futures.add(pool.submit(() -> decodeSegment(segment, flushedSeqId)));
+		}
+		List<KeyValue> kvs = new ArrayList<>();
+		for (Future<List<KeyValue>> future : futures) {
+			try {
+				kvs.addAll(future.get());
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IOException("Replay log failed", e);
+			}
+		}
+		// each stream is ordered, so this merges their runs.
+		kvs.sort(Comparator.comparingLong(KeyValue::getSequenceId));
 
-		if (conf.getWalLevel() != WAL_LEVEL.SKIP && conf.getWalLevel() != WAL_LEVEL.ASYNC) {
-			this.readQueueProducer = new ReadQueueProducer();
-			this.readQueueProducer.start();
+		long maxSeqId = flushedSeqId;
+		for (LogSegment segment : replaySegments) {
+			maxSeqId = Math.max(maxSeqId, segment.maxSeqId);
+		}
+		sequenceId.set(maxSeqId);
+		if (sequencer != null) {
+			sequencer.reset(maxSeqId + 1);
 		}
+		replaySegments.clear();
+		markFlushed(flushedSeqId);
+		return kvs;
+	}
+
+	/**
+	 * Delete sealed segments whose entries are all persisted in disk files.
+	 */
+	@Override
+	public synchronized void markFlushed(long flushedSeqId) {
+		for (LogSegment segment : segments.values()) {
+			if (!segment.sealed || segment.maxSeqId > flushedSeqId) {
+				// streams interleave ids, a later one may be done.
+				continue;
+			}
+			segments.remove(segment.id);
+			File f = new File(segment.fileName);
+			File target = new File(conf.getFullLogDir(), String.format("wal.recycled.%020d", segment.id));
+			if (recycle(f) && f.renameTo(target)) {
+				recycledFiles.add(target);
+				LOG.info("Recycle log segment " + segment.fileName + ", maxSeqId: " + segment.maxSeqId);
+			} else {
+				deleteFile(f);
+			}
+		}
+	}
+
+	/**
+	 * Whether f can be kept for reuse, only a full size one never grows.
+	 */
+	private boolean recycle(File f) {
+		return conf.isLogPreallocate() && f.length() == conf.getMaxLogSegmentSize() &&
+				recycledFiles.size() < conf.getMaxRecycledLogSegments();
+	}
+
+	private static void deleteFile(File f) {
+		if (f.delete()) {
+			LOG.info("Delete log segment " + f.getPath());
+		} else {
+			LOG.warn("Delete log segment failed: " + f.getPath());
+		}
+	}
+
+	public long getTotalWrittenSize() {
+		return totalWrittenSize.get();
+	}
+
+	public long getForceCount() {
+		return forceCount.get();
+	}
+
+	/**
+	 * Only for test.
+	 */
+	int getSegmentCount() {
+		return segments.size();
 	}
 
 	public void notifyLogEntry(long seqId) {
-		LogEntry entry = seqIdToEntry.get(seqId);
-		seqIdToEntry.remove(seqId);
-		entry.logNotify();
+		LogEntry entry = seqIdToEntry.remove(seqId);
+		if (entry != null) {
+			entry.logNotify();
+		}
+	}
+
+	public void failLogEntry(long seqId, Throwable t) {
+		LogEntry entry = seqIdToEntry.remove(seqId);
+		if (entry instanceof WriteLogWal) {
+			((WriteLogWal) entry).logFail(t);
+		}
 	}
 
 	/**
-	 * Concurrent
+	 * Concurrent. Only waits while writeQueue is full. Fails once the log is closed.
 	 */
-	private long write(WriteLogWal wal) {
-		writeQueue.add(wal);
-		wal.logJoin();
-		return wal.getSeq();
+	private CompletableFuture<Long> write(byte[] key, WriteLogWal wal) {
+		int stripe = writers.enter();
+		try {
+			if (closed || !streamOf(key).writeQueue.put(wal)) {
+				wal.logFail(new IOException("Log closed"));
+			}
+		} finally {
+			writers.exit(stripe);
+		}
+		return wal.getFuture();
 	}
 
 	@Override
-	public BlockingQueue<LogEntry> getReadQueue() {
+	public RingBuffer<LogEntry> getReadQueue() {
 		return this.readQueue;
 	}
 
 	@Override
-	public long put(byte[] key, byte[] value) {
-		return write(WriteLogWal.createPutWal(key, value));
+	public CompletableFuture<Long> putAsync(byte[] key, byte[] value) {
+		return putAsync(key, value, conf.getWalLevel());
+	}
+
+	@Override
+	public CompletableFuture<Long> deleteAsync(byte[] key) {
+		return deleteAsync(key, conf.getWalLevel());
 	}
 
 	@Override
-	public long delete(byte[] key) {
-		return write(WriteLogWal.createDeleteWal(key));
+	public CompletableFuture<Long> writeAsync(WriteBatch batch) {
+		return writeAsync(batch, conf.getWalLevel());
+	}
+
+	@Override
+	public CompletableFuture<Long> putAsync(byte[] key, byte[] value, WAL_LEVEL walLevel) {
+		return write(key, WriteLogWal.createPutWal(key, value, walLevel));
+	}
+
+	@Override
+	public CompletableFuture<Long> deleteAsync(byte[] key, WAL_LEVEL walLevel) {
+		return write(key, WriteLogWal.createDeleteWal(key, walLevel));
+	}
+
+	@Override
+	public CompletableFuture<Long> writeAsync(WriteBatch batch, WAL_LEVEL walLevel) {
+		if (batch.isEmpty()) {
+			throw new IllegalArgumentException("Empty WriteBatch");
+		}
+		// the whole batch goes to the stream of its first key.
+		return write(batch.getKvs().get(0).getKey(), WriteLogWal.createBatchWal(batch, walLevel));
 	}
 
 	@Override
 	public void sync() {
+		int stripe = writers.enter();
 		try {
-			writeQueue.put(new LogSync());
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			if (!closed) {
+				for (LogStream stream : streams) {
+					stream.writeQueue.put(new LogSync());
+				}
+			}
+		} finally {
+			writers.exit(stripe);
 		}
 	}
 
+	/**
+	 * Fail new writes, log the queued ones and hand them to the consumer of readQueue, then
+	 * close readQueue. The consumer has to keep taking until it is drained.
+	 */
 	@Override
 	public void close() throws IOException {
-		writeQueueConsumer.close();
+		closed = true;
+		// writers past the check finish queueing while the streams still take.
+		writers.awaitEmpty();
+		for (LogStream stream : streams) {
+			stream.close();
+		}
+		readQueue.close();
+	}
+
+	/**
+	 * Once readQueue is drained, settle the entries nobody applied. Logged ones are done, they
+	 * are replayed on next open; SKIP ones are lost and fail.
+	 */
+	public void settleUnapplied() {
+		IOException lost = new IOException("Log closed before unlogged entry was applied");
+		for (Long seqId : new ArrayList<>(seqIdToEntry.keySet())) {
+			LogEntry entry = seqIdToEntry.get(seqId);
+			if (entry instanceof WriteLogWal && levelOf((WriteLogWal) entry) == WAL_LEVEL.SKIP) {
+				failLogEntry(seqId, lost);
+			} else {
+				notifyLogEntry(seqId);
+			}
+		}
 	}
 }
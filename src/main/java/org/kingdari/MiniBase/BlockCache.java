@@ -3,26 +3,51 @@ package org.kingdari.MiniBase;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.ToLongFunction;
 
+/**
+ * LRU cache of data blocks, either parsed or as stored on disk. Blocks stored on disk are
+ * compressed, they take less of the capacity but are decompressed and parsed on every get.
+ * Index blocks are cached parsed apart from data blocks, so scans don't evict them.
+ */
 public class BlockCache {
 	private LinkedHashMap<BlockId, BlockReader> cache;
-	private long capacity;
+	private LinkedHashMap<BlockId, byte[]> blockCache;
+	private LinkedHashMap<BlockId, BlockIndexReader> indexCache;
+	private final boolean compressed;
 
 	public BlockCache(long capacity) {
-		this.capacity = capacity;
-		this.cache = new LinkedHashMap<BlockId, BlockReader>(64, 0.75F, true) {
+		this(capacity, false);
+	}
+
+	public BlockCache(long capacity, boolean compressed) {
+		this(capacity, compressed, capacity);
+	}
+
+	/**
+	 * @param indexCapacity bytes of index blocks, besides capacity bytes of data blocks.
+	 */
+	public BlockCache(long capacity, boolean compressed, long indexCapacity) {
+		this.compressed = compressed;
+		this.cache = createLRU(capacity, BlockReader::getMemorySizeSize);
+		this.blockCache = createLRU(capacity, block -> block.length);
+		this.indexCache = createLRU(indexCapacity, BlockIndexReader::getMemorySize);
+	}
+
+	private <V> LinkedHashMap<BlockId, V> createLRU(long capacity, ToLongFunction<V> sizeOf) {
+		return new LinkedHashMap<BlockId, V>(64, 0.75F, true) {
 			private long nowSize = 0;
 
 			@Override
-			public BlockReader put(BlockId key, BlockReader value) {
-				nowSize += value.getMemorySizeSize();
+			public V put(BlockId key, V value) {
+				nowSize += sizeOf.applyAsLong(value);
 				return super.put(key, value);
 			}
 
 			@Override
-			protected boolean removeEldestEntry(Map.Entry<BlockId, BlockReader> eldest) {
+			protected boolean removeEldestEntry(Map.Entry<BlockId, V> eldest) {
 				if (nowSize > capacity) {
-					nowSize -= eldest.getValue().getMemorySizeSize();
+					nowSize -= sizeOf.applyAsLong(eldest.getValue());
 					return true;
 				} else {
 					return false;
@@ -38,14 +63,81 @@ public class BlockCache {
 		return cache;
 	}
 
+	/**
+	 * Only for test.
+	 */
+	LinkedHashMap<BlockId, byte[]> getBlockCache() {
+		return blockCache;
+	}
+
+	/**
+	 * Only for test.
+	 */
+	LinkedHashMap<BlockId, BlockIndexReader> getIndexCache() {
+		return indexCache;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
 	// TODO: Concurrent level: map -> bucket
 	// TODO: RefCount: Ensure using block won't be evicted
-	public synchronized BlockReader get(BlockId bid) throws IOException {
-		BlockReader blockReader = cache.get(bid);
-		if (blockReader == null) {
-			blockReader = bid.getDiskFile().createReader(bid.getMeta());
+	public BlockReader get(BlockId bid) throws IOException {
+		if (compressed) {
+			return BlockReader.parseFrom(bid.getMeta(), getBlock(bid));
+		}
+		synchronized (this) {
+			BlockReader blockReader = cache.get(bid);
+			if (blockReader != null) {
+				return blockReader;
+			}
+		}
+		// read without the lock, so reads of other blocks and hits go on meanwhile.
+		BlockReader blockReader = bid.getDiskFile().createReader(bid.getMeta());
+		synchronized (this) {
+			BlockReader raced = cache.get(bid);
+			if (raced != null) {
+				return raced;
+			}
 			cache.put(bid, blockReader);
+			return blockReader;
+		}
+	}
+
+	private byte[] getBlock(BlockId bid) throws IOException {
+		synchronized (this) {
+			byte[] block = blockCache.get(bid);
+			if (block != null) {
+				return block;
+			}
+		}
+		byte[] block = bid.getDiskFile().readBlock(bid.getMeta());
+		synchronized (this) {
+			byte[] raced = blockCache.get(bid);
+			if (raced != null) {
+				return raced;
+			}
+			blockCache.put(bid, block);
+			return block;
+		}
+	}
+
+	public BlockIndexReader getIndex(BlockId bid) throws IOException {
+		synchronized (this) {
+			BlockIndexReader index = indexCache.get(bid);
+			if (index != null) {
+				return index;
+			}
+		}
+		BlockIndexReader index = bid.getDiskFile().createIndexReader(bid.getMeta());
+		synchronized (this) {
+			BlockIndexReader raced = indexCache.get(bid);
+			if (raced != null) {
+				return raced;
+			}
+			indexCache.put(bid, index);
+			return index;
 		}
-		return blockReader;
 	}
 }
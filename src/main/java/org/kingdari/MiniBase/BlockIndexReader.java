@@ -0,0 +1,74 @@
+package org.kingdari.MiniBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Part of a block index, the metas of consecutive blocks in order. A partitioned index has
+ * a top level of these, pointing to index blocks, each one of these.
+ */
+public class BlockIndexReader {
+
+	private final BlockMeta[] metas;
+	private final long memorySize;
+
+	public BlockIndexReader(BlockMeta[] metas, long memorySize) {
+		this.metas = metas;
+		this.memorySize = memorySize;
+	}
+
+	public static BlockIndexReader parseFrom(byte[] buffer, int offset, int length) throws IOException {
+		return parseFrom(buffer, offset, length, false);
+	}
+
+	/**
+	 * @param v1 metas are in the layout of BlockMeta.parseV1From.
+	 */
+	public static BlockIndexReader parseFrom(byte[] buffer, int offset, int length, boolean v1) throws IOException {
+		List<BlockMeta> metas = new ArrayList<>();
+		int pos = offset;
+		while (pos < offset + length) {
+			BlockMeta meta;
+			if (v1) {
+				meta = BlockMeta.parseV1From(buffer, pos);
+				pos += meta.getV1SerializeSize();
+			} else {
+				meta = BlockMeta.parseFrom(buffer, pos);
+				pos += meta.getSerializeSize();
+			}
+			metas.add(meta);
+		}
+		assert pos == offset + length;
+		return new BlockIndexReader(metas.toArray(new BlockMeta[0]), length);
+	}
+
+	public int size() {
+		return metas.length;
+	}
+
+	public BlockMeta get(int index) {
+		return metas[index];
+	}
+
+	/**
+	 * @return index of the first block whose last kv is greater than or equals to target,
+	 * size() if none is.
+	 */
+	public int lowerBound(KeyValue target) {
+		int lo = 0, hi = metas.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (metas[mid].getLastKv().compareTo(target) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	public long getMemorySize() {
+		return memorySize;
+	}
+}
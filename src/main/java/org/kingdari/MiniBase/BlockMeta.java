@@ -9,21 +9,31 @@ public class BlockMeta implements Comparable<BlockMeta> {
 
 	private static final int OFFSET_SIZE = 8;
 	private static final int SIZE_SIZE = 8;
+	private static final int CODEC_SIZE = 1;
+	private static final int RAW_SIZE_SIZE = 4;
 	private static final int BF_LEN_SIZE = 4;
 
-	static BlockMeta createSeekDummy(KeyValue lastKv) {
-		return new BlockMeta(lastKv, 0L, 0L, ByteUtils.EMPTY_BYTES);
-	}
-
 	private KeyValue lastKv;
 	private long blockOffset;
 	private long blockSize;
+	private byte codec;
+	private int rawSize;
 	private byte[] bfBytes;
 
 	public BlockMeta(KeyValue lastKv, long offset, long size, byte[] bfBytes) {
+		this(lastKv, offset, size, Codec.NONE_CODE, (int) size, bfBytes);
+	}
+
+	/**
+	 * @param size bytes of the block on disk, compressed with codec.
+	 * @param rawSize bytes of the block once decompressed.
+	 */
+	public BlockMeta(KeyValue lastKv, long offset, long size, byte codec, int rawSize, byte[] bfBytes) {
 		this.lastKv = lastKv;
 		this.blockOffset = offset;
 		this.blockSize = size;
+		this.codec = codec;
+		this.rawSize = rawSize;
 		this.bfBytes = bfBytes;
 	}
 
@@ -39,12 +49,20 @@ public class BlockMeta implements Comparable<BlockMeta> {
 		return blockSize;
 	}
 
+	public byte getCodec() {
+		return codec;
+	}
+
+	public int getRawSize() {
+		return rawSize;
+	}
+
 	public byte[] getBFBytes() {
 		return bfBytes;
 	}
 
 	public int getSerializeSize() {
-		return lastKv.getSerializedSize() + OFFSET_SIZE + SIZE_SIZE + BF_LEN_SIZE + bfBytes.length;
+		return lastKv.getSerializedSize() + OFFSET_SIZE + SIZE_SIZE + CODEC_SIZE + RAW_SIZE_SIZE + BF_LEN_SIZE + bfBytes.length;
 	}
 
 	public byte[] toBytes() throws IOException {
@@ -63,6 +81,13 @@ public class BlockMeta implements Comparable<BlockMeta> {
 		System.arraycopy(sizeBytes, 0, bytes, pos, sizeBytes.length);
 		pos += sizeBytes.length;
 
+		bytes[pos] = codec;
+		pos += CODEC_SIZE;
+
+		byte[] rawSizeBytes = ByteUtils.toBytes(rawSize);
+		System.arraycopy(rawSizeBytes, 0, bytes, pos, rawSizeBytes.length);
+		pos += rawSizeBytes.length;
+
 		byte[] bfLenBytes = ByteUtils.toBytes(bfBytes.length);
 		System.arraycopy(bfLenBytes, 0, bytes, pos, bfLenBytes.length);
 		pos += bfLenBytes.length;
@@ -74,7 +99,18 @@ public class BlockMeta implements Comparable<BlockMeta> {
 		return bytes;
 	}
 
-	public static BlockMeta parseFrom(byte[] buf, int offset) throws IOException {
+	/**
+	 * Bytes of this meta in the layout of parseV1From.
+	 */
+	public int getV1SerializeSize() {
+		return getSerializeSize() - CODEC_SIZE - RAW_SIZE_SIZE;
+	}
+
+	/**
+	 * Parse a meta of a DiskFile.V1_DISK_FILE_MAGIC file, written before blocks had a codec:
+	 * no codec and rawSize, the block is stored as is.
+	 */
+	public static BlockMeta parseV1From(byte[] buf, int offset) throws IOException {
 		int pos = offset;
 		KeyValue lastKv = KeyValue.parseFrom(buf, pos);
 		pos += lastKv.getSerializedSize();
@@ -91,6 +127,27 @@ public class BlockMeta implements Comparable<BlockMeta> {
 		return new BlockMeta(lastKv, blockOffset, blockSize, bloomFilter);
 	}
 
+	public static BlockMeta parseFrom(byte[] buf, int offset) throws IOException {
+		int pos = offset;
+		KeyValue lastKv = KeyValue.parseFrom(buf, pos);
+		pos += lastKv.getSerializedSize();
+		long blockOffset = ByteUtils.toLong(ByteUtils.slice(buf, pos, OFFSET_SIZE));
+		pos += OFFSET_SIZE;
+		long blockSize = ByteUtils.toLong(ByteUtils.slice(buf, pos, SIZE_SIZE));
+		pos += SIZE_SIZE;
+		byte codec = buf[pos];
+		pos += CODEC_SIZE;
+		int rawSize = ByteUtils.toInt(ByteUtils.slice(buf, pos, RAW_SIZE_SIZE));
+		pos += RAW_SIZE_SIZE;
+		int bloomFilterSize = ByteUtils.toInt(ByteUtils.slice(buf, pos, BF_LEN_SIZE));
+		pos += BF_LEN_SIZE;
+		byte[] bloomFilter = ByteUtils.slice(buf, pos, bloomFilterSize);
+		pos += bloomFilterSize;
+
+		assert pos <= buf.length;
+		return new BlockMeta(lastKv, blockOffset, blockSize, codec, rawSize, bloomFilter);
+	}
+
 	@Override
 	public int compareTo(BlockMeta o) {
 		return this.lastKv.compareTo(o.lastKv);
@@ -101,12 +158,12 @@ public class BlockMeta implements Comparable<BlockMeta> {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		BlockMeta blockMeta = (BlockMeta) o;
-		return blockOffset == blockMeta.blockOffset && blockSize == blockMeta.blockSize && Objects.equals(lastKv, blockMeta.lastKv) && Arrays.equals(bfBytes, blockMeta.bfBytes);
+		return blockOffset == blockMeta.blockOffset && blockSize == blockMeta.blockSize && codec == blockMeta.codec && rawSize == blockMeta.rawSize && Objects.equals(lastKv, blockMeta.lastKv) && Arrays.equals(bfBytes, blockMeta.bfBytes);
 	}
 
 	@Override
 	public int hashCode() {
-		int result = Objects.hash(lastKv, blockOffset, blockSize);
+		int result = Objects.hash(lastKv, blockOffset, blockSize, codec, rawSize);
 		result = 31 * result + Arrays.hashCode(bfBytes);
 		return result;
 	}
@@ -3,12 +3,14 @@ package org.kingdari.MiniBase;
 import org.kingdari.MiniBase.MStore.SeekIter;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.zip.CRC32;
-import java.util.zip.Checksum;
 
+/**
+ * The kvs of a data block. Blocks read from disk are parsed into a subclass by encoding,
+ * which keeps the block bytes and decodes kvs as they are read.
+ */
 public class BlockReader {
 
 	static class DataBlockIterator implements SeekIter<KeyValue> {
@@ -20,7 +22,7 @@ public class BlockReader {
 		public DataBlockIterator(BlockReader reader, KeyValueFilter filter) {
 			this.reader = reader;
 			this.filter = filter;
-			this.list = reader.getKeyValues();
+			this.list = reader.kvBuf;
 			this.pos = 0;
 		}
 
@@ -72,6 +74,9 @@ public class BlockReader {
 	private List<KeyValue> kvBuf;
 	private long memorySize;
 
+	/**
+	 * Kvs already in memory.
+	 */
 	BlockReader(List<KeyValue> kvBuf) {
 		this.kvBuf = kvBuf;
 		this.memorySize = 0L;
@@ -80,47 +85,71 @@ public class BlockReader {
 		}
 	}
 
-	public static BlockReader parseFrom(byte[] buffer, int offset, int size) throws IOException {
-		int pos = offset;
-		List<KeyValue> kvBuf = new ArrayList<>();
-		Checksum crc32 = new CRC32();
-
-		int kvSize = ByteUtils.toInt(ByteUtils.slice(buffer, pos, BlockWriter.KV_SIZE_LEN));
-		pos += BlockWriter.KV_SIZE_LEN;
-
-		for (int i = 0; i < kvSize; i++) {
-			KeyValue kv = KeyValue.parseFrom(buffer, pos);
-			kvBuf.add(kv);
-			crc32.update(buffer, pos, kv.getSerializedSize());
-			pos += kv.getSerializedSize();
-		}
+	/**
+	 * For encodings which don't keep a list of kvs.
+	 */
+	protected BlockReader(long memorySize) {
+		this.kvBuf = Collections.emptyList();
+		this.memorySize = memorySize;
+	}
 
-		int checksum = ByteUtils.toInt(ByteUtils.slice(buffer, pos, BlockWriter.CHECKSUM_LEN));
-		pos += BlockWriter.CHECKSUM_LEN;
+	/**
+	 * Parse the block as stored on disk, decompressing it first.
+	 */
+	public static BlockReader parseFrom(BlockMeta meta, byte[] block) throws IOException {
+		if (meta.getCodec() == Codec.NONE_CODE) {
+			return parseFrom(block, 0, block.length);
+		}
+		byte[] raw = new byte[meta.getRawSize()];
+		Codec.forCode(meta.getCodec()).decompress(block, 0, block.length, raw, 0, raw.length);
+		return parseFrom(raw, 0, raw.length);
+	}
 
-		assert checksum == (int) crc32.getValue();
-		assert pos == size : "pos: " + pos + ", size: " + size;
-		return new BlockReader(kvBuf);
+	/**
+	 * Parse a block of any encoding, see BlockWriter.
+	 */
+	public static BlockReader parseFrom(byte[] buffer, int offset, int size) throws IOException {
+		if (size > 0 && buffer[offset] == Config.BLOCK_ENCODING.PREFIX.getCode()) {
+			return PrefixBlockReader.parseFrom(buffer, offset, size);
+		} else if (size > 0 && buffer[offset] == Config.BLOCK_ENCODING.COLUMNAR.getCode()) {
+			return ColumnarBlockReader.parseFrom(buffer, offset, size);
+		}
+		return PlainBlockReader.parseFrom(buffer, offset, size);
 	}
 
 	public long getMemorySizeSize() {
 		return memorySize;
 	}
 
-	public List<KeyValue> getKeyValues() {
+	/**
+	 * All kvs of the block.
+	 */
+	public List<KeyValue> getKeyValues() throws IOException {
 		return kvBuf;
 	}
 
-	public DataBlockIterator iterator(KeyValueFilter filter) {
+	/**
+	 * @return the first kv not less than target, null if none.
+	 */
+	public KeyValue seek(KeyValue target) throws IOException {
+		int index = Collections.binarySearch(kvBuf, target);
+		index = index >= 0 ? index : -index - 1;
+		return index < kvBuf.size() ? kvBuf.get(index) : null;
+	}
+
+	public SeekIter<KeyValue> iterator(KeyValueFilter filter) {
 		return new DataBlockIterator(this, filter);
 	}
 
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
-		if (o == null || getClass() != o.getClass()) return false;
-		BlockReader that = (BlockReader) o;
-		return Objects.equals(kvBuf, that.kvBuf);
+		if (!(o instanceof BlockReader)) return false;
+		try {
+			return Objects.equals(getKeyValues(), ((BlockReader) o).getKeyValues());
+		} catch (IOException e) {
+			return false;
+		}
 	}
 
 	@Override
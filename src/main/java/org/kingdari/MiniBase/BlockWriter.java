@@ -2,6 +2,7 @@ package org.kingdari.MiniBase;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.CRC32;
@@ -10,18 +11,43 @@ import java.util.zip.Checksum;
 import static org.kingdari.MiniBase.DiskFile.BLOOM_FILTER_BITS_PER_KEY;
 import static org.kingdari.MiniBase.DiskFile.BLOOM_FILTER_HASH_COUNT;
 
+/**
+ * PLAIN block: kvCount(4), kvs as KeyValue.toBytes(), checksum(4).
+ * PREFIX block: encoding(1), kvCount(4), entries, restart offsets(4 each), restart count(4),
+ * checksum(4) of entries. An entry is shared key len, unshared key len and value len as var
+ * ints, op(1), sequenceId(8), the unshared key bytes and the value. Restart entries share
+ * nothing, offsets are from the start of the block.
+ * COLUMNAR block: encoding(1), kvCount(4), key offsets(4 each, kvCount + 1), keys, value
+ * offsets(4 each, kvCount + 1), values, checksum(4) of all after kvCount. A key is the key
+ * bytes, op(1) and sequenceId(8). Offsets are from the start of the keys and the values.
+ * The first byte of a PLAIN block is the top of its kv count in ByteUtils.toBytes(int), always
+ * 0x80, which no other encoding code is. That tells the encodings apart, see BlockReader.
+ */
 public class BlockWriter {
+	public static final int ENCODING_LEN = 1;
 	public static final int KV_SIZE_LEN = 4;
+	public static final int RESTART_LEN = 4;
+	public static final int OFFSET_LEN = 4;
 	public static final int CHECKSUM_LEN = 4;
 
+	private final Config.BLOCK_ENCODING encoding;
+	private final int restartInterval;
 	private int totalSize;
 	private int kvCount;
+	private int restartCount;
 	private List<KeyValue> kvBuf;
 	private BloomFilter bloomFilter;
 	private Checksum crc32;
 	private KeyValue lastKv;
 
 	public BlockWriter() {
+		this(Config.BLOCK_ENCODING.PLAIN, 0);
+	}
+
+	public BlockWriter(Config.BLOCK_ENCODING encoding, int restartInterval) {
+		assert encoding != Config.BLOCK_ENCODING.PREFIX || restartInterval > 0;
+		this.encoding = encoding;
+		this.restartInterval = restartInterval;
 		this.totalSize = 0;
 		this.kvCount = 0;
 		this.kvBuf = new ArrayList<>();
@@ -30,14 +56,43 @@ public class BlockWriter {
 		this.crc32 = new CRC32();
 	}
 
+	private static int sharedPrefix(KeyValue prev, KeyValue kv) {
+		byte[] a = prev.getKey();
+		byte[] b = kv.getKey();
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int entrySize(int shared, KeyValue kv) {
+		int unshared = kv.getKeyLength() - shared;
+		return ByteUtils.varIntSize(shared) + ByteUtils.varIntSize(unshared) +
+				ByteUtils.varIntSize(kv.getValueLength()) + KeyValue.OP_SIZE + KeyValue.SEQ_ID_SIZE +
+				unshared + kv.getValueLength();
+	}
+
 	public void append(KeyValue kv) throws IOException {
+		if (encoding == Config.BLOCK_ENCODING.PREFIX) {
+			int shared = 0;
+			if (kvCount % restartInterval == 0) {
+				restartCount++;
+			} else {
+				shared = sharedPrefix(lastKv, kv);
+			}
+			totalSize += entrySize(shared, kv);
+		} else if (encoding == Config.BLOCK_ENCODING.COLUMNAR) {
+			totalSize += 2 * OFFSET_LEN + kv.getKeyLength() + KeyValue.OP_SIZE + KeyValue.SEQ_ID_SIZE +
+					kv.getValueLength();
+		} else {
+			byte[] buf = kv.toBytes();
+			crc32.update(buf, 0, buf.length);
+			totalSize += kv.getSerializedSize();
+		}
 		kvBuf.add(kv);
 		lastKv = kv;
-
-		byte[] buf = kv.toBytes();
-		crc32.update(buf, 0, buf.length);
-
-		totalSize += kv.getSerializedSize();
 		kvCount++;
 	}
 
@@ -46,6 +101,11 @@ public class BlockWriter {
 	}
 
 	public int size() {
+		if (encoding == Config.BLOCK_ENCODING.PREFIX) {
+			return ENCODING_LEN + KV_SIZE_LEN + totalSize + RESTART_LEN * (restartCount + 1) + CHECKSUM_LEN;
+		} else if (encoding == Config.BLOCK_ENCODING.COLUMNAR) {
+			return ENCODING_LEN + KV_SIZE_LEN + totalSize + 2 * OFFSET_LEN + CHECKSUM_LEN;
+		}
 		return KV_SIZE_LEN + totalSize + CHECKSUM_LEN;
 	}
 
@@ -66,6 +126,11 @@ public class BlockWriter {
 	}
 
 	public byte[] serialize() {
+		if (encoding == Config.BLOCK_ENCODING.PREFIX) {
+			return serializePrefix();
+		} else if (encoding == Config.BLOCK_ENCODING.COLUMNAR) {
+			return serializeColumnar();
+		}
 		byte[] buffer = new byte[size()];
 		int pos = 0;
 
@@ -86,4 +151,79 @@ public class BlockWriter {
 		assert pos == size();
 		return buffer;
 	}
+
+	private byte[] serializePrefix() {
+		byte[] buffer = new byte[size()];
+		ByteBuffer buf = ByteBuffer.wrap(buffer);
+		buf.put(encoding.getCode());
+		ByteUtils.putInt(buf, kvBuf.size());
+
+		int[] restarts = new int[restartCount];
+		KeyValue prev = null;
+		for (int i = 0; i < kvBuf.size(); i++) {
+			KeyValue kv = kvBuf.get(i);
+			int shared = 0;
+			if (i % restartInterval == 0) {
+				restarts[i / restartInterval] = buf.position();
+			} else {
+				shared = sharedPrefix(prev, kv);
+			}
+			byte[] key = kv.getKey();
+			ByteUtils.putVarInt(buf, shared);
+			ByteUtils.putVarInt(buf, key.length - shared);
+			ByteUtils.putVarInt(buf, kv.getValueLength());
+			buf.put(kv.getOp().getCode());
+			ByteUtils.putLong(buf, kv.getSequenceId());
+			buf.put(key, shared, key.length - shared);
+			buf.put(kv.getValue());
+			prev = kv;
+		}
+		Checksum crc = new CRC32();
+		crc.update(buffer, ENCODING_LEN + KV_SIZE_LEN, buf.position() - ENCODING_LEN - KV_SIZE_LEN);
+
+		for (int restart : restarts) {
+			ByteUtils.putInt(buf, restart);
+		}
+		ByteUtils.putInt(buf, restarts.length);
+		ByteUtils.putInt(buf, (int) crc.getValue());
+
+		assert buf.position() == size();
+		return buffer;
+	}
+
+	private byte[] serializeColumnar() {
+		byte[] buffer = new byte[size()];
+		ByteBuffer buf = ByteBuffer.wrap(buffer);
+		buf.put(encoding.getCode());
+		ByteUtils.putInt(buf, kvBuf.size());
+
+		int offset = 0;
+		for (KeyValue kv : kvBuf) {
+			ByteUtils.putInt(buf, offset);
+			offset += kv.getKeyLength() + KeyValue.OP_SIZE + KeyValue.SEQ_ID_SIZE;
+		}
+		ByteUtils.putInt(buf, offset);
+		for (KeyValue kv : kvBuf) {
+			buf.put(kv.getKey());
+			buf.put(kv.getOp().getCode());
+			ByteUtils.putLong(buf, kv.getSequenceId());
+		}
+
+		offset = 0;
+		for (KeyValue kv : kvBuf) {
+			ByteUtils.putInt(buf, offset);
+			offset += kv.getValueLength();
+		}
+		ByteUtils.putInt(buf, offset);
+		for (KeyValue kv : kvBuf) {
+			buf.put(kv.getValue());
+		}
+
+		Checksum crc = new CRC32();
+		crc.update(buffer, ENCODING_LEN + KV_SIZE_LEN, buf.position() - ENCODING_LEN - KV_SIZE_LEN);
+		ByteUtils.putInt(buf, (int) crc.getValue());
+
+		assert buf.position() == size();
+		return buffer;
+	}
 }
@@ -8,7 +8,7 @@ public class BloomFilter {
 
 	public BloomFilter(int bloomFilterHashCount, int bloomFilterBitsPerKey) {
 		this.k = bloomFilterHashCount;
-		this.bitsPerKey = bloomFilterHashCount;
+		this.bitsPerKey = bloomFilterBitsPerKey;
 	}
 
 	public byte[] generate(byte[][] keys) {
@@ -30,16 +30,27 @@ public class BloomFilter {
 		return result;
 	}
 
+	/**
+	 * @param result as generated, any whole number of bytes.
+	 */
 	public void setResult(byte[] result) {
-		assert result.length % 8 == 0;
+		assert result.length > 0;
 		this.result = result;
 		this.bitLen = result.length << 3;
 	}
 
 	public boolean mayContains(byte[] key) {
-		assert key != null;
+		return mayContain(result, k, key);
+	}
+
+	/**
+	 * mayContains of a filter generated with hashCount, probing its bytes in place.
+	 */
+	public static boolean mayContain(byte[] result, int hashCount, byte[] key) {
+		assert result.length > 0 && key != null;
+		int bitLen = result.length << 3;
 		int h = ByteUtils.hash(key);
-		for (int i = 0; i < k; i++) {
+		for (int i = 0; i < hashCount; i++) {
 			int idx = (h % bitLen + bitLen) % bitLen;
 			if ((result[idx / 8] & (1 << (idx % 8))) == 0) {
 				return false;
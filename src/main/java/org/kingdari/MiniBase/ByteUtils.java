@@ -1,6 +1,7 @@
 package org.kingdari.MiniBase;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 public class ByteUtils {
@@ -53,6 +54,21 @@ public class ByteUtils {
 		return lhs.length - rhs.length;
 	}
 
+	/**
+	 * Unsigned compare of lhs[lOff, lOff + lLen) and rhs[rOff, rOff + rLen).
+	 */
+	public static int compare(byte[] lhs, int lOff, int lLen, byte[] rhs, int rOff, int rLen) {
+		int n = Math.min(lLen, rLen);
+		for (int i = 0; i < n; i++) {
+			int x = lhs[lOff + i] & 0xFF;
+			int y = rhs[rOff + i] & 0xFF;
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return lLen - rLen;
+	}
+
 	public static byte[] toBytes(byte b) {
 		return new byte[] {b};
 	}
@@ -105,6 +121,68 @@ public class ByteUtils {
 		return v;
 	}
 
+	/**
+	 * Same layout as toBytes(int), written in place.
+	 */
+	public static void putInt(ByteBuffer buf, int v) {
+		buf.putInt(v ^ Integer.MIN_VALUE);
+	}
+
+	public static int getInt(ByteBuffer buf) {
+		return buf.getInt() ^ Integer.MIN_VALUE;
+	}
+
+	public static int getInt(ByteBuffer buf, int index) {
+		return buf.getInt(index) ^ Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Same layout as toBytes(long), written in place.
+	 */
+	public static void putLong(ByteBuffer buf, long v) {
+		buf.putLong(v ^ Long.MIN_VALUE);
+	}
+
+	public static long getLong(ByteBuffer buf) {
+		return buf.getLong() ^ Long.MIN_VALUE;
+	}
+
+	public static long getLong(ByteBuffer buf, int index) {
+		return buf.getLong(index) ^ Long.MIN_VALUE;
+	}
+
+	/**
+	 * Unsigned LEB128, 1 to 5 bytes.
+	 */
+	public static void putVarInt(ByteBuffer buf, int v) {
+		while ((v & ~0x7F) != 0) {
+			buf.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		buf.put((byte) v);
+	}
+
+	public static int getVarInt(ByteBuffer buf) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buf.get();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return v;
+			}
+		}
+		throw new IOException("Malformed var int");
+	}
+
+	public static int varIntSize(int v) {
+		int size = 1;
+		while ((v & ~0x7F) != 0) {
+			v >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
 	public static byte[] slice(byte[] bytes, int offset, int len) throws IOException {
 		if (bytes == null) {
 			throw new IOException("bytes is null");
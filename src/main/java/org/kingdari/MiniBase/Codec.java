@@ -0,0 +1,313 @@
+package org.kingdari.MiniBase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression codec. The code is persisted with the compressed data, see forCode.
+ * Thread safe.
+ */
+public interface Codec {
+
+	byte NONE_CODE = 0;
+	byte DEFLATE_CODE = 1;
+	byte LZ_CODE = 2;
+
+	Codec NONE = new NoneCodec();
+	Codec DEFLATE = new DeflateCodec(Deflater.BEST_SPEED);
+	Codec LZ = new LZCodec();
+
+	static Codec forCode(byte code) throws IOException {
+		switch (code) {
+			case NONE_CODE:
+				return NONE;
+			case DEFLATE_CODE:
+				return DEFLATE;
+			case LZ_CODE:
+				return LZ;
+			default:
+				throw new IOException("Unknown codec: " + code);
+		}
+	}
+
+	byte getCode();
+
+	/**
+	 * Size of dst that compress never overflows.
+	 */
+	int maxCompressedLength(int len);
+
+	/**
+	 * @return compressed length in dst.
+	 */
+	int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+
+	/**
+	 * @param rawLen exact length of decompressed data.
+	 */
+	void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException;
+
+	class NoneCodec implements Codec {
+		@Override
+		public byte getCode() {
+			return NONE_CODE;
+		}
+
+		@Override
+		public int maxCompressedLength(int len) {
+			return len;
+		}
+
+		@Override
+		public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+			System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+			return srcLen;
+		}
+
+		@Override
+		public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException {
+			if (srcLen != rawLen) {
+				throw new IOException("Invalid len: " + srcLen + ", expected: " + rawLen);
+			}
+			System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+		}
+	}
+
+	/**
+	 * Raw deflate without zlib header. Deflater/Inflater are cached per thread.
+	 */
+	class DeflateCodec implements Codec {
+		private final ThreadLocal<Deflater> deflater;
+		private final ThreadLocal<Inflater> inflater;
+
+		public DeflateCodec(int level) {
+			this.deflater = ThreadLocal.withInitial(() -> new Deflater(level, true));
+			this.inflater = ThreadLocal.withInitial(() -> new Inflater(true));
+		}
+
+		@Override
+		public byte getCode() {
+			return DEFLATE_CODE;
+		}
+
+		@Override
+		public int maxCompressedLength(int len) {
+			// above deflateBound of zlib.
+			return len + (len >> 12) + 64;
+		}
+
+		@Override
+		public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+			Deflater d = deflater.get();
+			d.reset();
+			d.setInput(src, srcOff, srcLen);
+			d.finish();
+			int pos = dstOff;
+			while (!d.finished()) {
+				int n = d.deflate(dst, pos, dst.length - pos);
+				if (n == 0 && pos == dst.length) {
+					throw new IllegalStateException("Compress buffer overflow");
+				}
+				pos += n;
+			}
+			return pos - dstOff;
+		}
+
+		@Override
+		public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException {
+			Inflater i = inflater.get();
+			i.reset();
+			i.setInput(src, srcOff, srcLen);
+			try {
+				int pos = dstOff;
+				while (pos < dstOff + rawLen) {
+					int n = i.inflate(dst, pos, dstOff + rawLen - pos);
+					if (n == 0 && (i.needsInput() || i.needsDictionary() || i.finished())) {
+						break;
+					}
+					pos += n;
+				}
+				if (pos != dstOff + rawLen) {
+					throw new IOException("Corrupted data, inflated " + (pos - dstOff) + " of " + rawLen);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Byte oriented LZ77 in the LZ4 block layout: sequences of a token (literal length and
+	 * match length - 4 in 4 bits each, 15 continued in 255 steps), the literals, and a 2 byte
+	 * little endian offset back into the output. The last sequence is literals only and the
+	 * last 5 bytes are always literals. Matches are found through a hash of the next 4 bytes,
+	 * skipping faster through data which doesn't match. Much faster than deflate, compresses less.
+	 */
+	class LZCodec implements Codec {
+		private static final int MIN_MATCH = 4;
+		private static final int LAST_LITERALS = 5;
+		// no match starts in the last 12 bytes.
+		private static final int MATCH_FIND_LIMIT = 12;
+		private static final int MAX_OFFSET = 0xFFFF;
+		private static final int HASH_BITS = 14;
+		private static final int SKIP_TRIGGER = 6;
+
+		private final ThreadLocal<int[]> hashTable = ThreadLocal.withInitial(() -> new int[1 << HASH_BITS]);
+
+		@Override
+		public byte getCode() {
+			return LZ_CODE;
+		}
+
+		@Override
+		public int maxCompressedLength(int len) {
+			return len + len / 255 + 16;
+		}
+
+		private static int readInt(byte[] buf, int pos) {
+			return (buf[pos] & 0xFF) | (buf[pos + 1] & 0xFF) << 8 |
+					(buf[pos + 2] & 0xFF) << 16 | (buf[pos + 3] & 0xFF) << 24;
+		}
+
+		private static int hash(int i) {
+			return (i * -1640531535) >>> (32 - HASH_BITS);
+		}
+
+		private static int writeLength(byte[] dst, int pos, int len) {
+			len -= 15;
+			while (len >= 255) {
+				dst[pos++] = (byte) 255;
+				len -= 255;
+			}
+			dst[pos++] = (byte) len;
+			return pos;
+		}
+
+		private static int writeLiterals(byte[] dst, int pos, int tokenPos, byte[] src, int off, int len) {
+			if (len >= 15) {
+				dst[tokenPos] = (byte) 0xF0;
+				pos = writeLength(dst, pos, len);
+			} else {
+				dst[tokenPos] = (byte) (len << 4);
+			}
+			System.arraycopy(src, off, dst, pos, len);
+			return pos + len;
+		}
+
+		@Override
+		public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+			int end = srcOff + srcLen;
+			int anchor = srcOff;
+			int dp = dstOff;
+			if (srcLen > MATCH_FIND_LIMIT) {
+				int[] table = hashTable.get();
+				Arrays.fill(table, -1);
+				int limit = end - MATCH_FIND_LIMIT;
+				int matchEnd = end - LAST_LITERALS;
+				int sp = srcOff;
+				int misses = 0;
+				while (sp <= limit) {
+					int seq = readInt(src, sp);
+					int h = hash(seq);
+					int ref = table[h];
+					table[h] = sp;
+					if (ref < 0 || sp - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+						sp += 1 + (misses++ >>> SKIP_TRIGGER);
+						continue;
+					}
+					misses = 0;
+					int len = MIN_MATCH;
+					while (sp + len < matchEnd && src[ref + len] == src[sp + len]) {
+						len++;
+					}
+					int tokenPos = dp++;
+					dp = writeLiterals(dst, dp, tokenPos, src, anchor, sp - anchor);
+					int offset = sp - ref;
+					dst[dp++] = (byte) offset;
+					dst[dp++] = (byte) (offset >>> 8);
+					if (len - MIN_MATCH >= 15) {
+						dst[tokenPos] |= 0x0F;
+						dp = writeLength(dst, dp, len - MIN_MATCH);
+					} else {
+						dst[tokenPos] |= (byte) (len - MIN_MATCH);
+					}
+					sp += len;
+					anchor = sp;
+				}
+			}
+			int tokenPos = dp++;
+			dp = writeLiterals(dst, dp, tokenPos, src, anchor, end - anchor);
+			return dp - dstOff;
+		}
+
+		@Override
+		public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLen) throws IOException {
+			int sp = srcOff;
+			int srcEnd = srcOff + srcLen;
+			int dp = dstOff;
+			int dstEnd = dstOff + rawLen;
+			while (true) {
+				if (sp >= srcEnd) {
+					throw new IOException("Corrupted data, truncated at " + (sp - srcOff));
+				}
+				int token = src[sp++] & 0xFF;
+				int len = token >>> 4;
+				if (len == 15) {
+					int b;
+					do {
+						if (sp >= srcEnd) {
+							throw new IOException("Corrupted data, truncated at " + (sp - srcOff));
+						}
+						b = src[sp++] & 0xFF;
+						len += b;
+					} while (b == 255);
+				}
+				if (len > srcEnd - sp || len > dstEnd - dp) {
+					throw new IOException("Corrupted data, literals overflow at " + (sp - srcOff));
+				}
+				System.arraycopy(src, sp, dst, dp, len);
+				sp += len;
+				dp += len;
+				if (sp == srcEnd) {
+					break;
+				}
+				if (srcEnd - sp < 2) {
+					throw new IOException("Corrupted data, truncated at " + (sp - srcOff));
+				}
+				int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+				sp += 2;
+				len = token & 0x0F;
+				if (len == 15) {
+					int b;
+					do {
+						if (sp >= srcEnd) {
+							throw new IOException("Corrupted data, truncated at " + (sp - srcOff));
+						}
+						b = src[sp++] & 0xFF;
+						len += b;
+					} while (b == 255);
+				}
+				len += MIN_MATCH;
+				if (offset == 0 || offset > dp - dstOff || len > dstEnd - dp) {
+					throw new IOException("Corrupted data, bad match at " + (sp - srcOff));
+				}
+				int ref = dp - offset;
+				if (offset >= len) {
+					System.arraycopy(dst, ref, dst, dp, len);
+					dp += len;
+				} else {
+					// overlapping, repeats the last offset bytes.
+					for (int i = 0; i < len; i++) {
+						dst[dp++] = dst[ref++];
+					}
+				}
+			}
+			if (dp != dstEnd) {
+				throw new IOException("Corrupted data, decompressed " + (dp - dstOff) + " of " + rawLen);
+			}
+		}
+	}
+}
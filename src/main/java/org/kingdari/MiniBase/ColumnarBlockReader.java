@@ -0,0 +1,87 @@
+package org.kingdari.MiniBase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static org.kingdari.MiniBase.BlockWriter.CHECKSUM_LEN;
+import static org.kingdari.MiniBase.BlockWriter.ENCODING_LEN;
+import static org.kingdari.MiniBase.BlockWriter.KV_SIZE_LEN;
+import static org.kingdari.MiniBase.BlockWriter.OFFSET_LEN;
+
+/**
+ * A COLUMNAR block, see BlockWriter. Seeks and version checks read only the keys.
+ */
+public class ColumnarBlockReader extends IndexedBlockReader {
+
+	private final int keyOffsets;
+	private final int keys;
+	private final int valueOffsets;
+	private final int values;
+
+	private ColumnarBlockReader(byte[] block, int kvCount) {
+		super(block, kvCount, block.length);
+		this.keyOffsets = ENCODING_LEN + KV_SIZE_LEN;
+		this.keys = keyOffsets + OFFSET_LEN * (kvCount + 1);
+		this.valueOffsets = keys + ByteUtils.getInt(buf, keyOffsets + OFFSET_LEN * kvCount);
+		this.values = valueOffsets + OFFSET_LEN * (kvCount + 1);
+	}
+
+	public static ColumnarBlockReader parseFrom(byte[] buffer, int offset, int size) throws IOException {
+		if (size < ENCODING_LEN + KV_SIZE_LEN + 2 * OFFSET_LEN + CHECKSUM_LEN ||
+				buffer[offset] != Config.BLOCK_ENCODING.COLUMNAR.getCode()) {
+			throw new IOException("Not a columnar block");
+		}
+		byte[] block = buffer;
+		if (offset != 0 || size != buffer.length) {
+			// kvs wrap the block, keep only its own bytes.
+			block = new byte[size];
+			System.arraycopy(buffer, offset, block, 0, size);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(block);
+		int kvCount = ByteUtils.getInt(buf, ENCODING_LEN);
+		if (kvCount < 0 || ENCODING_LEN + KV_SIZE_LEN + 2L * OFFSET_LEN * (kvCount + 1) + CHECKSUM_LEN > size) {
+			throw new IOException("Corrupted columnar block");
+		}
+		ColumnarBlockReader reader = new ColumnarBlockReader(block, kvCount);
+		if (reader.valueOffsets < reader.keys || reader.values > size - CHECKSUM_LEN ||
+				reader.values + reader.valueOffset(kvCount) != size - CHECKSUM_LEN) {
+			throw new IOException("Corrupted columnar block");
+		}
+		int checksum = ByteUtils.getInt(buf, size - CHECKSUM_LEN);
+		Checksum crc32 = new CRC32();
+		crc32.update(block, ENCODING_LEN + KV_SIZE_LEN, size - ENCODING_LEN - KV_SIZE_LEN - CHECKSUM_LEN);
+		assert checksum == (int) crc32.getValue();
+		return reader;
+	}
+
+	private int keyOffset(int index) {
+		return keys + ByteUtils.getInt(buf, keyOffsets + OFFSET_LEN * index);
+	}
+
+	private int valueOffset(int index) {
+		return ByteUtils.getInt(buf, valueOffsets + OFFSET_LEN * index);
+	}
+
+	@Override
+	protected long getSequenceId(int index) {
+		return ByteUtils.getLong(buf, keyOffset(index + 1) - KeyValue.SEQ_ID_SIZE);
+	}
+
+	@Override
+	protected int compare(int index, KeyValue target) {
+		int start = keyOffset(index);
+		int end = keyOffset(index + 1) - KeyValue.OP_SIZE - KeyValue.SEQ_ID_SIZE;
+		return -target.compareTo(block, start, end - start, block[end], ByteUtils.getLong(buf, end + KeyValue.OP_SIZE));
+	}
+
+	@Override
+	protected KeyValue get(int index) {
+		int start = keyOffset(index);
+		int end = keyOffset(index + 1) - KeyValue.OP_SIZE - KeyValue.SEQ_ID_SIZE;
+		int valueStart = valueOffset(index);
+		return KeyValue.wrap(block, start, end - start, values + valueStart, valueOffset(index + 1) - valueStart,
+				KeyValue.Op.codeToOp(block[end]), ByteUtils.getLong(buf, end + KeyValue.OP_SIZE));
+	}
+}
@@ -9,17 +9,88 @@ public class Config {
 		FSYNC
 	}
 
+	/**
+	 * What happens to a full active memStore map before it is flushed to disk.
+	 * NONE: flushed as it is.
+	 * BASIC: kept in memory in a pipeline of immutable segments, merged in the background
+	 * into one flat sorted array.
+	 * EAGER: as BASIC, also dropping the versions readers can no longer see.
+	 */
+	public enum MEMSTORE_COMPACTION {
+		NONE,
+		BASIC,
+		EAGER
+	}
+
+	/**
+	 * Layout of kvs in new data blocks, blocks of any layout can be read.
+	 * PLAIN: every kv in full.
+	 * PREFIX: each key stores only what differs from the previous key, except at a restart
+	 * point every blockRestartInterval kvs. Seeks binary search the restart points.
+	 * COLUMNAR: keys apart from values, so seeks only read keys and values are only read
+	 * for the kvs returned.
+	 */
+	public enum BLOCK_ENCODING {
+		PLAIN((byte) 0),
+		PREFIX((byte) 1),
+		COLUMNAR((byte) 2);
+
+		private final byte code;
+
+		BLOCK_ENCODING(byte code) {
+			this.code = code;
+		}
+
+		public byte getCode() {
+			return code;
+		}
+	}
+
+	/**
+	 * How a RingBuffer waits for data or free slots.
+	 */
+	public enum WAIT_STRATEGY {
+		BUSY_SPIN,
+		YIELD,
+		PARK
+	}
+
 	private int logBufferSize = 16 * 1024 * 1024;
+	private long maxLogSegmentSize = 64 * 1024 * 1024;
+	private int logRingBufferSize = 64 * 1024;
+	private WAIT_STRATEGY logWaitStrategy = WAIT_STRATEGY.PARK;
+	private boolean logMmapRead = true;
+	private Codec logCodec = Codec.NONE;
+	private int logStreams = 1;
+	private boolean logPreallocate = false;
+	private int maxRecycledLogSegments = 4;
+	private int logApplyThreads = Math.min(4, Runtime.getRuntime().availableProcessors());
 	private long maxMemStoreSize = 16 * 1024 * 1024;
+	private int memStoreChunkSize = 2 * 1024 * 1024;
+	private MEMSTORE_COMPACTION memStoreCompaction = MEMSTORE_COMPACTION.NONE;
+	private int maxMemStorePipelineSize = 4;
+	private double memStoreSlowdownMultiplier = 2;
+	private double memStoreStopMultiplier = 4;
+	private long delayedWriteRate = 16 * 1024 * 1024;
 	private long maxBlockCacheSize = 16 * 1024 * 1024;
+	private long maxIndexCacheSize = 4 * 1024 * 1024;
+	private int indexBlockSize = DiskFile.INDEX_BLOCK_SIZE;
+	private Codec dataBlockCodec = Codec.NONE;
+	private boolean blockCacheCompressed = false;
+	private boolean diskFileMmapRead = false;
+	private int readaheadBlocks = 2;
+	private int readaheadThreads = 2;
+	private BLOCK_ENCODING blockEncoding = BLOCK_ENCODING.PLAIN;
+	private int blockRestartInterval = 16;
 	private int flushMaxRetryTimes = 10;
-	private int putMaxRetryTimes = 100;
 	private String rootDir = "MiniBase";
 	private String dataDir = "Data";
 	private String logDir = "Log";
 	private int maxDiskFiles = 10;
 	private int maxThreadPoolSize = 5;
 	private WAL_LEVEL walLevel = WAL_LEVEL.SKIP;
+	private int maxGroupCommitSize = 1024;
+	private long maxGroupCommitWaitMicros = 0;
 
 	private static final Config DEFAULT = new Config();
 
@@ -32,8 +103,86 @@ public class Config {
 		return this;
 	}
 
+	/**
+	 * Bytes of index blocks cached, besides maxBlockCacheSize.
+	 */
+	public Config setMaxIndexCacheSize(long size) {
+		this.maxIndexCacheSize = size;
+		return this;
+	}
+
+	/**
+	 * Bytes of block metas per index block of new disk files. Opening a file reads only the
+	 * top level index of its index blocks, which are read on use and cached.
+	 */
+	public Config setIndexBlockSize(int indexBlockSize) {
+		this.indexBlockSize = indexBlockSize;
+		return this;
+	}
+
+	/**
+	 * Compress the data blocks of new disk files. Files keep the codec of each block,
+	 * so it can be changed between opens.
+	 */
+	public Config setDataBlockCodec(Codec dataBlockCodec) {
+		this.dataBlockCodec = dataBlockCodec;
+		return this;
+	}
+
+	/**
+	 * Cache blocks as stored on disk and decompress them on each read, fitting more blocks
+	 * in maxBlockCacheSize. Otherwise blocks are cached parsed.
+	 */
+	public Config setBlockCacheCompressed(boolean blockCacheCompressed) {
+		this.blockCacheCompressed = blockCacheCompressed;
+		return this;
+	}
+
+	/**
+	 * Read data blocks through a mapping of each disk file instead of a locked seek and read.
+	 * A mapping is released by GC, so the space of a compacted file may be freed late.
+	 */
+	public Config setDiskFileMmapRead(boolean diskFileMmapRead) {
+		this.diskFileMmapRead = diskFileMmapRead;
+		return this;
+	}
+
+	/**
+	 * Data blocks a scan reads ahead of the block it is at, 0 reads one block at a time.
+	 * Readahead starts at the second block a scan reads.
+	 */
+	public Config setReadaheadBlocks(int readaheadBlocks) {
+		this.readaheadBlocks = readaheadBlocks;
+		return this;
+	}
+
+	/**
+	 * Threads of a disk store reading blocks ahead for all its scans.
+	 */
+	public Config setReadaheadThreads(int readaheadThreads) {
+		this.readaheadThreads = readaheadThreads;
+		return this;
+	}
+
+	public Config setBlockEncoding(BLOCK_ENCODING blockEncoding) {
+		this.blockEncoding = blockEncoding;
+		return this;
+	}
+
+	/**
+	 * PREFIX only. Kvs between full keys, more saves space, less makes seeks faster.
+	 */
+	public Config setBlockRestartInterval(int blockRestartInterval) {
+		this.blockRestartInterval = blockRestartInterval;
+		return this;
+	}
+
+	/**
+	 * @deprecated writes no longer fail and retry while memStore is full, they are slowed
+	 * down or wait for a flush, see setMemStoreSlowdownMultiplier. Ignored.
+	 */
+	@Deprecated
 	public Config setPutMaxRetryTimes(int times) {
-		this.putMaxRetryTimes = times;
 		return this;
 	}
 
@@ -42,6 +191,76 @@ public class Config {
 		return this;
 	}
 
+	public Config setMaxLogSegmentSize(long size) {
+		this.maxLogSegmentSize = size;
+		return this;
+	}
+
+	/**
+	 * Capacity of the log queues, must be a power of 2. Writers block when it is full.
+	 */
+	public Config setLogRingBufferSize(int size) {
+		this.logRingBufferSize = size;
+		return this;
+	}
+
+	public Config setLogWaitStrategy(WAIT_STRATEGY waitStrategy) {
+		this.logWaitStrategy = waitStrategy;
+		return this;
+	}
+
+	/**
+	 * SYNC/FSYNC only. Preallocate log segments and read synced entries back through mmap.
+	 */
+	public Config setLogMmapRead(boolean logMmapRead) {
+		this.logMmapRead = logMmapRead;
+		return this;
+	}
+
+	/**
+	 * Compress each flushed log buffer, worth it for large compressible values.
+	 */
+	public Config setLogCodec(Codec logCodec) {
+		this.logCodec = logCodec;
+		return this;
+	}
+
+	/**
+	 * Independent WAL write paths, each with its own writer thread and segments.
+	 * Keys are spread by hash, a WriteBatch goes with its first key. With more than one, writes
+	 * of a key sharing no stream keep their order only if each waits for the one before.
+	 */
+	public Config setLogStreams(int logStreams) {
+		this.logStreams = logStreams;
+		return this;
+	}
+
+	/**
+	 * Zero-fill each log segment to maxLogSegmentSize when created and reuse flushed segments
+	 * instead of deleting them. Appends then don't change the file size, so forcing the log
+	 * only writes data (fdatasync).
+	 */
+	public Config setLogPreallocate(boolean logPreallocate) {
+		this.logPreallocate = logPreallocate;
+		return this;
+	}
+
+	/**
+	 * Flushed log segments kept for reuse with logPreallocate.
+	 */
+	public Config setMaxRecycledLogSegments(int maxRecycledLogSegments) {
+		this.maxRecycledLogSegments = maxRecycledLogSegments;
+		return this;
+	}
+
+	/**
+	 * Threads inserting log entries into memStore. 1 applies them on the LogConsumer thread.
+	 */
+	public Config setLogApplyThreads(int logApplyThreads) {
+		this.logApplyThreads = logApplyThreads;
+		return this;
+	}
+
 	public Config setRoorDir(String rootDir) {
 		this.rootDir = rootDir;
 		return this;
@@ -52,11 +271,28 @@ public class Config {
 		return this;
 	}
 
+	/**
+	 * Default durability of writes, each write may override it. With SYNC/FSYNC, entries
+	 * are read back from the log, so a SKIP or ASYNC write is logged and synced as SYNC.
+	 */
 	public Config setWalLevel(WAL_LEVEL walLevel) {
 		this.walLevel = walLevel;
 		return this;
 	}
 
+	public Config setMaxGroupCommitSize(int maxGroupCommitSize) {
+		this.maxGroupCommitSize = maxGroupCommitSize;
+		return this;
+	}
+
+	/**
+	 * How long the WAL writer waits for more entries before syncing a batch. 0 means no waiting.
+	 */
+	public Config setMaxGroupCommitWaitMicros(long maxGroupCommitWaitMicros) {
+		this.maxGroupCommitWaitMicros = maxGroupCommitWaitMicros;
+		return this;
+	}
+
 	public Config setFlushMaxRetryTimes(int flushMaxRetryTimes) {
 		this.flushMaxRetryTimes = flushMaxRetryTimes;
 		return this;
@@ -67,6 +303,60 @@ public class Config {
 		return this;
 	}
 
+	/**
+	 * Size of the chunks memStore copies keys and values into (MSLAB), 0 disables it.
+	 * Chunks are reused across flushes, kvs larger than a quarter chunk are not copied.
+	 */
+	public Config setMemStoreChunkSize(int memStoreChunkSize) {
+		this.memStoreChunkSize = memStoreChunkSize;
+		return this;
+	}
+
+	/**
+	 * EAGER keeps the versions open scans and reads at the latest version see. A get or scan
+	 * at an explicit version older than a compaction, or than the data flushed before open,
+	 * fails with an IOException instead of missing overwritten values.
+	 */
+	public Config setMemStoreCompaction(MEMSTORE_COMPACTION memStoreCompaction) {
+		this.memStoreCompaction = memStoreCompaction;
+		return this;
+	}
+
+	/**
+	 * With in-memory compaction, the active map moves into the pipeline at
+	 * maxMemStoreSize / maxMemStorePipelineSize. Memstore is flushed to disk at maxMemStoreSize.
+	 */
+	public Config setMaxMemStorePipelineSize(int maxMemStorePipelineSize) {
+		this.maxMemStorePipelineSize = maxMemStorePipelineSize;
+		return this;
+	}
+
+	/**
+	 * Writes slow down once memStores waiting to be flushed hold more than
+	 * maxMemStoreSize * memStoreSlowdownMultiplier bytes.
+	 */
+	public Config setMemStoreSlowdownMultiplier(double memStoreSlowdownMultiplier) {
+		this.memStoreSlowdownMultiplier = memStoreSlowdownMultiplier;
+		return this;
+	}
+
+	/**
+	 * Writes wait for a flush once memStores waiting to be flushed hold
+	 * maxMemStoreSize * memStoreStopMultiplier bytes.
+	 */
+	public Config setMemStoreStopMultiplier(double memStoreStopMultiplier) {
+		this.memStoreStopMultiplier = memStoreStopMultiplier;
+		return this;
+	}
+
+	/**
+	 * Bytes per second written to memStore when writes start to slow down.
+	 */
+	public Config setDelayedWriteRate(long delayedWriteRate) {
+		this.delayedWriteRate = delayedWriteRate;
+		return this;
+	}
+
 	public Config setDataDir(String dataDir) {
 		this.dataDir = dataDir;
 		return this;
@@ -91,14 +381,82 @@ public class Config {
 		return maxBlockCacheSize;
 	}
 
-	public int getPutMaxRetryTimes() {
-		return putMaxRetryTimes;
+	public long getMaxIndexCacheSize() {
+		return maxIndexCacheSize;
+	}
+
+	public int getIndexBlockSize() {
+		return indexBlockSize;
+	}
+
+	public Codec getDataBlockCodec() {
+		return dataBlockCodec;
+	}
+
+	public boolean isBlockCacheCompressed() {
+		return blockCacheCompressed;
+	}
+
+	public boolean isDiskFileMmapRead() {
+		return diskFileMmapRead;
+	}
+
+	public int getReadaheadBlocks() {
+		return readaheadBlocks;
+	}
+
+	public int getReadaheadThreads() {
+		return readaheadThreads;
+	}
+
+	public BLOCK_ENCODING getBlockEncoding() {
+		return blockEncoding;
+	}
+
+	public int getBlockRestartInterval() {
+		return blockRestartInterval;
 	}
 
 	public int getLogBufferSize() {
 		return logBufferSize;
 	}
 
+	public long getMaxLogSegmentSize() {
+		return maxLogSegmentSize;
+	}
+
+	public int getLogRingBufferSize() {
+		return logRingBufferSize;
+	}
+
+	public WAIT_STRATEGY getLogWaitStrategy() {
+		return logWaitStrategy;
+	}
+
+	public boolean isLogMmapRead() {
+		return logMmapRead;
+	}
+
+	public Codec getLogCodec() {
+		return logCodec;
+	}
+
+	public int getLogStreams() {
+		return logStreams;
+	}
+
+	public boolean isLogPreallocate() {
+		return logPreallocate;
+	}
+
+	public int getMaxRecycledLogSegments() {
+		return maxRecycledLogSegments;
+	}
+
+	public int getLogApplyThreads() {
+		return logApplyThreads;
+	}
+
 	public String getFullLogDir() {
 		return rootDir + "/" + logDir;
 	}
@@ -119,6 +477,14 @@ public class Config {
 		return walLevel;
 	}
 
+	public int getMaxGroupCommitSize() {
+		return maxGroupCommitSize;
+	}
+
+	public long getMaxGroupCommitWaitMicros() {
+		return maxGroupCommitWaitMicros;
+	}
+
 	public int getFlushMaxRetryTimes() {
 		return flushMaxRetryTimes;
 	}
@@ -131,6 +497,30 @@ public class Config {
 		return maxMemStoreSize;
 	}
 
+	public int getMemStoreChunkSize() {
+		return memStoreChunkSize;
+	}
+
+	public MEMSTORE_COMPACTION getMemStoreCompaction() {
+		return memStoreCompaction;
+	}
+
+	public int getMaxMemStorePipelineSize() {
+		return maxMemStorePipelineSize;
+	}
+
+	public double getMemStoreSlowdownMultiplier() {
+		return memStoreSlowdownMultiplier;
+	}
+
+	public double getMemStoreStopMultiplier() {
+		return memStoreStopMultiplier;
+	}
+
+	public long getDelayedWriteRate() {
+		return delayedWriteRate;
+	}
+
 	public int getMaxDiskFiles() {
 		return maxDiskFiles;
 	}
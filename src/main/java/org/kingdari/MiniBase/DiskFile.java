@@ -2,17 +2,29 @@ package org.kingdari.MiniBase;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
-import org.kingdari.MiniBase.BlockReader.DataBlockIterator;
 import org.kingdari.MiniBase.MStore.SeekIter;
+import org.kingdari.MiniBase.Store.Iter;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Objects;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class DiskFile implements Closeable {
@@ -25,7 +37,163 @@ public class DiskFile implements Closeable {
 	// fileSize(8) + blockCount(4) + blockIndexOffset(8) +
 	// blockIndexSize(8) + DISK_FILE_MAGIC(8)
 	public static final int TRAILER_SIZE = 8 + 4 + 8 + 8 + 8;
-	public static final long DISK_FILE_MAGIC = 0x19980825_DEAD10CCL;
+	// maxSeqId(8) before the trailer.
+	public static final int MAX_SEQ_ID_SIZE = 8;
+	public static final long DISK_FILE_MAGIC = 0x19980825_DEAD10CFL;
+	// the trailer points to a top level index of index blocks.
+	public static final long PARTITIONED_DISK_FILE_MAGIC = 0x19980825_DEAD10D0L;
+	// written before files recorded their max sequence id.
+	public static final long V2_DISK_FILE_MAGIC = 0x19980825_DEAD10CEL;
+	public static final long V2_PARTITIONED_DISK_FILE_MAGIC = 0x19980825_DEAD10CDL;
+	// written before blocks had a codec, the metas have no codec and rawSize.
+	public static final long V1_DISK_FILE_MAGIC = 0x19980825_DEAD10CCL;
+	public static final int INDEX_BLOCK_SIZE = 64 * 1024;
+	// a mapping is at most 2GB.
+	public static final long MMAP_CHUNK_SIZE = 1L << 30;
+
+	/**
+	 * Metas of the data blocks filter may want, reading index blocks as it reaches them.
+	 */
+	private static class BlockMetaIterator implements Iter<BlockMeta> {
+
+		private DiskFile df;
+		private KeyValueFilter filter;
+		// index block in the top level index, its metas once read.
+		private int partition = 0;
+		private BlockIndexReader index;
+		private int pos = 0;
+		private BlockMeta nextMeta;
+
+		public BlockMetaIterator(DiskFile df, KeyValueFilter filter) {
+			this.df = df;
+			this.filter = filter;
+		}
+
+		/**
+		 * Seek to the first block whose last kv is greater than or equals to targetKv.
+		 */
+		public void seekTo(KeyValue targetKv) throws IOException {
+			partition = df.topIndex.lowerBound(targetKv);
+			index = null;
+			nextMeta = null;
+			if (partition < df.topIndex.size()) {
+				index = df.loadIndex(df.topIndex.get(partition));
+				pos = index.lowerBound(targetKv);
+			}
+		}
+
+		@Override
+		public boolean hasNext() throws IOException {
+			while (nextMeta == null && partition < df.topIndex.size()) {
+				if (index == null) {
+					index = df.loadIndex(df.topIndex.get(partition));
+					pos = 0;
+				}
+				if (pos < index.size()) {
+					BlockMeta meta = index.get(pos++);
+					if (filter.mayContain(meta)) {
+						nextMeta = meta;
+					}
+				} else {
+					partition++;
+					index = null;
+				}
+			}
+			return nextMeta != null;
+		}
+
+		@Override
+		public BlockMeta next() throws IOException {
+			if (!hasNext()) {
+				return null;
+			}
+			BlockMeta meta = nextMeta;
+			nextMeta = null;
+			return meta;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * A data block read on the readahead pool. Cancelled before it starts, it is taken off
+	 * the pool queue and never reads.
+	 */
+	private static class ReadaheadTask implements Runnable {
+
+		private final DiskFile df;
+		private final BlockMeta meta;
+		private final CompletableFuture<BlockReader> future = new CompletableFuture<>();
+		// set by run or cancel, whichever comes first.
+		private final AtomicBoolean started = new AtomicBoolean(false);
+
+		ReadaheadTask(DiskFile df, BlockMeta meta) {
+			this.df = df;
+			this.meta = meta;
+		}
+
+		@Override
+		public void run() {
+			if (!started.compareAndSet(false, true)) {
+				return;
+			}
+			BlockReader reader = null;
+			Throwable error = null;
+			if (!df.retain()) {
+				error = new IOException("Disk file closed: " + df.fileName);
+			} else {
+				try {
+					reader = df.loadReader(meta);
+				} catch (IOException | RuntimeException e) {
+					error = e;
+				} finally {
+					// released before waiters of future wake up.
+					df.release();
+				}
+			}
+			if (error == null) {
+				future.complete(reader);
+			} else {
+				future.completeExceptionally(error);
+			}
+		}
+
+		BlockReader join() throws IOException {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading ahead " + df.fileName);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+
+		/**
+		 * @param wait wait for a started read to finish.
+		 */
+		void cancel(boolean wait) {
+			if (started.compareAndSet(false, true)) {
+				if (df.readaheadPool instanceof ThreadPoolExecutor) {
+					((ThreadPoolExecutor) df.readaheadPool).remove(this);
+				}
+				return;
+			}
+			if (wait) {
+				try {
+					join();
+				} catch (InterruptedIOException e) {
+					// interrupt status is kept.
+				} catch (IOException ignored) {
+				}
+			}
+		}
+	}
 
 	private static class DiskFileIterator implements SeekIter<KeyValue> {
 
@@ -33,22 +201,24 @@ public class DiskFile implements Closeable {
 		private int currentKvIndex = 0;
 		private BlockReader currentReader;
 		private KeyValueFilter filter;
-		private SortedSet<BlockMeta> filteredMeta;
-		private Iterator<BlockMeta> blockMetaIter;
-		private DataBlockIterator currentDataIter;
+		private BlockMetaIterator blockMetaIter;
+		private SeekIter<KeyValue> currentDataIter;
+		// blocks after the current one being read on the readahead pool, in order.
+		private final Deque<ReadaheadTask> readahead = new ArrayDeque<>();
+		// blocks loaded since the last seek, readahead starts from the second.
+		private int blocksLoaded = 0;
 
 		public DiskFileIterator(DiskFile df, KeyValueFilter filter) {
 			this.currentReader = null;
 			this.currentDataIter = null;
 			this.df = df;
 			this.filter = filter;
-			this.filteredMeta = filter.getFilteredMeta(df);
-			this.blockMetaIter = filteredMeta.iterator();
+			this.blockMetaIter = new BlockMetaIterator(df, filter);
 		}
 
 		private boolean nextBlockReader() throws IOException {
-			while (blockMetaIter.hasNext()) {
-				currentReader = df.loadReader(blockMetaIter.next());
+			while (!readahead.isEmpty() || blockMetaIter.hasNext()) {
+				currentReader = loadNextReader();
 				currentDataIter = currentReader.iterator(filter);
 				if (currentDataIter.hasNext()) {
 					return true;
@@ -57,13 +227,44 @@ public class DiskFile implements Closeable {
 			return false;
 		}
 
+		/**
+		 * Reader of the next block, then the following blocks are read ahead on the pool
+		 * while it is consumed. A single block read, like a seek, reads nothing ahead.
+		 */
+		private BlockReader loadNextReader() throws IOException {
+			if (df.readaheadPool != null && blocksLoaded++ > 0) {
+				while (readahead.size() <= df.readaheadBlocks && blockMetaIter.hasNext()) {
+					ReadaheadTask task = new ReadaheadTask(df, blockMetaIter.next());
+					readahead.add(task);
+					df.readaheadPool.execute(task);
+				}
+			}
+			if (readahead.isEmpty()) {
+				return df.loadReader(blockMetaIter.next());
+			}
+			return readahead.poll().join();
+		}
+
+		/**
+		 * @param wait wait for the reads already running, so none is left once closed.
+		 */
+		private void cancelReadahead(boolean wait) {
+			for (ReadaheadTask task : readahead) {
+				task.cancel(wait);
+			}
+			readahead.clear();
+			blocksLoaded = 0;
+		}
+
 		@Override
 		public void seekTo(KeyValue targetKv) throws IOException {
-			blockMetaIter = filteredMeta.tailSet(BlockMeta.createSeekDummy(targetKv)).iterator();
+			// reads already running finish into the cache.
+			cancelReadahead(false);
+			blockMetaIter.seekTo(targetKv);
 			currentReader = null;
 			currentDataIter = null;
-			while (blockMetaIter.hasNext()) {
-				currentReader = df.loadReader(blockMetaIter.next());
+			while (!readahead.isEmpty() || blockMetaIter.hasNext()) {
+				currentReader = loadNextReader();
 				currentDataIter = currentReader.iterator(filter);
 				currentDataIter.seekTo(targetKv);
 				if (currentDataIter.hasNext()) {
@@ -88,19 +289,33 @@ public class DiskFile implements Closeable {
 
 		@Override
 		public void close() {
-			df.refCount.decrementAndGet();
+			cancelReadahead(true);
+			df.release();
 		}
 	}
 
-	private SortedSet<BlockMeta> blockMetaSet = new TreeSet<>();
+	// metas of the index blocks, or of one index block of all data blocks parsed on open.
+	private BlockIndexReader topIndex;
+	private BlockIndexReader flatIndex;
 	private RandomAccessFile in;
+	// reopened when closed by the interrupt of a reading thread.
+	private volatile FileChannel channel;
+	private volatile boolean closed;
 	private BlockCache cache;
+	private final boolean mmap;
+	private final long mmapChunkSize;
+	private MappedByteBuffer[] chunks;
+	private Executor readaheadPool;
+	private int readaheadBlocks;
 
 	private final String fileName;
 	private long fileSize;
 	private int blockCount;
 	private long blockIndexOffset;
 	private long blockIndexSize;
+	// Long.MAX_VALUE if the file did not record it.
+	private long maxSeqId;
+	// readers of the file, -1 once closed.
 	private final AtomicInteger refCount = new AtomicInteger(0);
 
 	public DiskFile(String fileName) {
@@ -108,8 +323,30 @@ public class DiskFile implements Closeable {
 	}
 
 	public DiskFile(String fileName, BlockCache cache) {
+		this(fileName, cache, false);
+	}
+
+	/**
+	 * @param mmap read blocks from a read only mapping of the file, without a lock or a syscall.
+	 */
+	public DiskFile(String fileName, BlockCache cache, boolean mmap) {
+		this(fileName, cache, mmap, MMAP_CHUNK_SIZE);
+	}
+
+	DiskFile(String fileName, BlockCache cache, boolean mmap, long mmapChunkSize) {
 		this.fileName = fileName;
 		this.cache = cache;
+		this.mmap = mmap;
+		this.mmapChunkSize = mmapChunkSize;
+	}
+
+	/**
+	 * Iterators read up to blocks data blocks ahead of the one being scanned on pool.
+	 */
+	public DiskFile setReadahead(Executor pool, int blocks) {
+		this.readaheadPool = blocks > 0 ? pool : null;
+		this.readaheadBlocks = blocks;
+		return this;
 	}
 
 	private BlockReader loadReader(BlockMeta meta) throws IOException {
@@ -120,21 +357,114 @@ public class DiskFile implements Closeable {
 		}
 	}
 
+	private BlockIndexReader loadIndex(BlockMeta meta) throws IOException {
+		if (flatIndex != null) {
+			return flatIndex;
+		} else if (cache == null) {
+			return createIndexReader(meta);
+		} else {
+			return cache.getIndex(new BlockId(this, meta));
+		}
+	}
+
+	/**
+	 * Metas of the index block meta points to.
+	 */
+	public BlockIndexReader createIndexReader(BlockMeta meta) throws IOException {
+		byte[] block = readBlock(meta);
+		return BlockIndexReader.parseFrom(block, 0, block.length);
+	}
+
 	public BlockReader createReader(BlockMeta meta) throws IOException {
+		return BlockReader.parseFrom(meta, readBlock(meta));
+	}
+
+	/**
+	 * The block as stored on disk, compressed with the codec of meta.
+	 */
+	public byte[] readBlock(BlockMeta meta) throws IOException {
 		byte[] buffer = new byte[(int) meta.getBlockSize()];
-		// guard in.
-		synchronized (this) {
-			in.seek(meta.getBlockOffset());
-			int len = in.read(buffer);
-			assert len == buffer.length;
+		if (mmap) {
+			// a block may span chunks.
+			long pos = meta.getBlockOffset();
+			int copied = 0;
+			while (copied < buffer.length) {
+				ByteBuffer chunk = chunks[(int) (pos / mmapChunkSize)].duplicate();
+				chunk.position((int) (pos % mmapChunkSize));
+				int len = Math.min(buffer.length - copied, chunk.remaining());
+				chunk.get(buffer, copied, len);
+				copied += len;
+				pos += len;
+			}
+			return buffer;
+		}
+		// positional reads on the channel, concurrent reads don't wait for each other.
+		while (true) {
+			FileChannel ch = channel;
+			try {
+				ByteBuffer dst = ByteBuffer.wrap(buffer);
+				while (dst.hasRemaining()) {
+					if (ch.read(dst, meta.getBlockOffset() + dst.position()) < 0) {
+						throw new IOException("Block beyond end of file: " + fileName);
+					}
+				}
+				return buffer;
+			} catch (ClosedChannelException e) {
+				// closed by the interrupt of this or another reading thread, or by close().
+				if (closed) {
+					throw e;
+				}
+				reopenChannel(ch);
+				if (e instanceof ClosedByInterruptException) {
+					throw new InterruptedIOException("Interrupted while reading " + fileName);
+				}
+			}
+		}
+	}
+
+	private synchronized void reopenChannel(FileChannel ch) throws IOException {
+		if (channel == ch && !closed) {
+			channel = new RandomAccessFile(fileName, "r").getChannel();
 		}
-		return BlockReader.parseFrom(buffer, 0, buffer.length);
 	}
 
-	public SortedSet<BlockMeta> getBlockMetaSet() {
+	/**
+	 * Metas of all data blocks, reading every index block.
+	 */
+	public SortedSet<BlockMeta> getBlockMetaSet() throws IOException {
+		if (!retain()) {
+			throw new IOException("Disk file closed: " + fileName);
+		}
+		SortedSet<BlockMeta> blockMetaSet = new TreeSet<>();
+		try (Iter<BlockMeta> iter = new BlockMetaIterator(this, new KeyValueFilter())) {
+			while (iter.hasNext()) {
+				blockMetaSet.add(iter.next());
+			}
+		} finally {
+			release();
+		}
 		return blockMetaSet;
 	}
 
+	public int getBlockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Index blocks in the top level index, 1 if the file has one index parsed on open.
+	 */
+	public int getIndexBlockCount() {
+		return topIndex.size();
+	}
+
+	/**
+	 * Largest sequence id of the kvs in the file, Long.MAX_VALUE if it was written before
+	 * files recorded it.
+	 */
+	public long getMaxSeqId() {
+		return maxSeqId;
+	}
+
 	public int getRefCount() {
 		return refCount.get();
 	}
@@ -149,11 +479,27 @@ public class DiskFile implements Closeable {
 
 		this.fileSize = f.length();
 		assert fileSize > TRAILER_SIZE;
-		in.seek(fileSize - TRAILER_SIZE);
+		in.seek(fileSize - 8);
 
 		byte[] buffer = new byte[8];
 		int len = in.read(buffer);
 		assert len == buffer.length;
+		long magic = ByteUtils.toLong(buffer);
+		if (magic == DISK_FILE_MAGIC || magic == PARTITIONED_DISK_FILE_MAGIC) {
+			in.seek(fileSize - TRAILER_SIZE - MAX_SEQ_ID_SIZE);
+			len = in.read(buffer);
+			assert len == buffer.length;
+			this.maxSeqId = ByteUtils.toLong(buffer);
+		} else if (magic == V2_DISK_FILE_MAGIC || magic == V2_PARTITIONED_DISK_FILE_MAGIC ||
+				magic == V1_DISK_FILE_MAGIC) {
+			this.maxSeqId = Long.MAX_VALUE;
+		} else {
+			throw new IOException("Not a disk file: " + fileName);
+		}
+
+		in.seek(fileSize - TRAILER_SIZE);
+		len = in.read(buffer);
+		assert len == buffer.length;
 		assert this.fileSize == ByteUtils.toLong(buffer);
 
 		buffer = new byte[4];
@@ -171,37 +517,114 @@ public class DiskFile implements Closeable {
 		assert len == buffer.length;
 		this.blockIndexSize = ByteUtils.toLong(buffer);
 
-		buffer = new byte[8];
-		len = in.read(buffer);
-		assert len == buffer.length;
-		assert DISK_FILE_MAGIC == ByteUtils.toLong(buffer);
 
 		buffer = new byte[(int) blockIndexSize];
 		in.seek(blockIndexOffset);
 		len = in.read(buffer);
 		assert len == buffer.length;
 
-		int offset = 0;
+		if (magic == PARTITIONED_DISK_FILE_MAGIC || magic == V2_PARTITIONED_DISK_FILE_MAGIC) {
+			this.topIndex = BlockIndexReader.parseFrom(buffer, 0, buffer.length);
+		} else {
+			this.flatIndex = BlockIndexReader.parseFrom(buffer, 0, buffer.length, magic == V1_DISK_FILE_MAGIC);
+			assert flatIndex.size() == blockCount;
+			BlockMeta indexMeta = new BlockMeta(flatIndex.get(flatIndex.size() - 1).getLastKv(),
+					blockIndexOffset, blockIndexSize, ByteUtils.EMPTY_BYTES);
+			this.topIndex = new BlockIndexReader(new BlockMeta[]{indexMeta}, indexMeta.getSerializeSize());
+		}
 
-		do {
-			BlockMeta meta = BlockMeta.parseFrom(buffer, offset);
-			offset += meta.getSerializeSize();
-			blockMetaSet.add(meta);
-		} while (offset < buffer.length);
-		assert blockMetaSet.size() == blockCount;
-		assert offset == buffer.length;
+		channel = in.getChannel();
+		if (mmap) {
+			chunks = new MappedByteBuffer[(int) ((fileSize + mmapChunkSize - 1) / mmapChunkSize)];
+			for (int i = 0; i < chunks.length; i++) {
+				long start = i * mmapChunkSize;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mmapChunkSize, fileSize - start));
+			}
+		}
 
 		return this;
 	}
 
+	/**
+	 * Keep the file open until release. False if it is closed.
+	 */
+	boolean retain() {
+		while (true) {
+			int ref = refCount.get();
+			if (ref < 0) {
+				return false;
+			}
+			if (refCount.compareAndSet(ref, ref + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void release() {
+		refCount.decrementAndGet();
+	}
+
 	@Override
 	public void close() throws IOException {
-		int ref = refCount.get();
-		if (ref != 0) {
-			throw new IOException("Cannot close. RefCount: " + ref);
+		if (!tryClose()) {
+			throw new IOException("Cannot close. RefCount: " + refCount.get());
 		}
-		if (in != null) {
-			in.close();
+	}
+
+	/**
+	 * Close the file unless it is read, no reader can retain it after.
+	 * @return false if it is read.
+	 */
+	public boolean tryClose() throws IOException {
+		while (true) {
+			int ref = refCount.get();
+			if (ref < 0) {
+				return true;
+			}
+			if (ref > 0) {
+				return false;
+			}
+			if (refCount.compareAndSet(0, -1)) {
+				break;
+			}
+		}
+		// unmapped once collected.
+		chunks = null;
+		synchronized (this) {
+			closed = true;
+			if (channel != null) {
+				channel.close();
+			}
+			if (in != null) {
+				in.close();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Newest version of key visible at version, a put or a delete, null if none is in this file.
+	 * Reads only the block the index points to, unless its bloom filter rules the key out.
+	 */
+	public KeyValue get(byte[] key, long version) throws IOException {
+		KeyValue target = KeyValue.createDelete(key, version);
+		int partition = topIndex.lowerBound(target);
+		if (partition == topIndex.size()) {
+			return null;
+		}
+		if (!retain()) {
+			throw new IOException("Disk file closed: " + fileName);
+		}
+		try {
+			BlockIndexReader index = loadIndex(topIndex.get(partition));
+			BlockMeta meta = index.get(index.lowerBound(target));
+			if (!BloomFilter.mayContain(meta.getBFBytes(), BLOOM_FILTER_HASH_COUNT, key)) {
+				return null;
+			}
+			KeyValue kv = loadReader(meta).seek(target);
+			return kv != null && kv.compareKey(key) == 0 ? kv : null;
+		} finally {
+			release();
 		}
 	}
 
@@ -210,7 +633,9 @@ public class DiskFile implements Closeable {
 	}
 
 	public SeekIter<KeyValue> iterator(KeyValueFilter filter) {
-		refCount.incrementAndGet();
+		if (!retain()) {
+			throw new IllegalStateException("Disk file closed: " + fileName);
+		}
 		return new DiskFileIterator(this, filter);
 	}
 
@@ -10,6 +10,9 @@ import java.util.List;
 
 import static org.kingdari.MiniBase.DiskFile.BLOCK_SIZE_UP_LIMIT;
 import static org.kingdari.MiniBase.DiskFile.DISK_FILE_MAGIC;
+import static org.kingdari.MiniBase.DiskFile.MAX_SEQ_ID_SIZE;
+import static org.kingdari.MiniBase.DiskFile.INDEX_BLOCK_SIZE;
+import static org.kingdari.MiniBase.DiskFile.PARTITIONED_DISK_FILE_MAGIC;
 import static org.kingdari.MiniBase.DiskFile.TRAILER_SIZE;
 
 public class DiskFileWriter implements Closeable {
@@ -20,7 +23,11 @@ public class DiskFileWriter implements Closeable {
 		private int totalBytes = 0;
 
 		public void append(KeyValue lastKv, long offset, long size, byte[] bloomFilter) {
-			BlockMeta blockMeta = new BlockMeta(lastKv, offset, size, bloomFilter);
+			append(lastKv, offset, size, Codec.NONE_CODE, (int) size, bloomFilter);
+		}
+
+		public void append(KeyValue lastKv, long offset, long size, byte codec, int rawSize, byte[] bloomFilter) {
+			BlockMeta blockMeta = new BlockMeta(lastKv, offset, size, codec, rawSize, bloomFilter);
 			blockMetas.add(blockMeta);
 			totalBytes += blockMeta.getSerializeSize();
 		}
@@ -36,6 +43,30 @@ public class DiskFileWriter implements Closeable {
 			assert pos == buffer.length;
 			return buffer;
 		}
+
+		/**
+		 * The metas in order, cut into index blocks of at least partitionSize bytes.
+		 */
+		public List<BlockIndexWriter> partition(int partitionSize) {
+			List<BlockIndexWriter> partitions = new ArrayList<>();
+			BlockIndexWriter partition = new BlockIndexWriter();
+			for (BlockMeta blockMeta : blockMetas) {
+				partition.blockMetas.add(blockMeta);
+				partition.totalBytes += blockMeta.getSerializeSize();
+				if (partition.totalBytes >= partitionSize) {
+					partitions.add(partition);
+					partition = new BlockIndexWriter();
+				}
+			}
+			if (!partition.blockMetas.isEmpty()) {
+				partitions.add(partition);
+			}
+			return partitions;
+		}
+
+		public KeyValue getLastKv() {
+			return blockMetas.get(blockMetas.size() - 1).getLastKv();
+		}
 	}
 	private String fileName;
 
@@ -43,21 +74,58 @@ public class DiskFileWriter implements Closeable {
 	private BlockIndexWriter indexWriter;
 	private BlockWriter currentWriter;
 	private FileOutputStream out;
+	private final Codec codec;
+	private final Config.BLOCK_ENCODING encoding;
+	private final int restartInterval;
+	private final int indexBlockSize;
+	private byte[] compressBuffer;
 
 	private long fileSize;
 	private int blockCount;
 	private long blockIndexOffset;
 	private long blockIndexSize;
+	private long maxSeqId;
 
 	public DiskFileWriter(String fileName) throws IOException {
+		this(fileName, Codec.NONE);
+	}
+
+	/**
+	 * @param codec compresses each data block. Blocks it shrinks by less than an eighth
+	 *              are stored raw.
+	 */
+	public DiskFileWriter(String fileName, Codec codec) throws IOException {
+		this(fileName, codec, Config.BLOCK_ENCODING.PLAIN, 0);
+	}
+
+	/**
+	 * @param restartInterval PREFIX only, see Config.setBlockRestartInterval.
+	 */
+	public DiskFileWriter(String fileName, Codec codec, Config.BLOCK_ENCODING encoding,
+						  int restartInterval) throws IOException {
+		this(fileName, codec, encoding, restartInterval, INDEX_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param indexBlockSize bytes of block metas per index block, the top level index in
+	 *                       the trailer points to them. 0 writes one index of all block metas,
+	 *                       which DiskFile parses on open.
+	 */
+	public DiskFileWriter(String fileName, Codec codec, Config.BLOCK_ENCODING encoding,
+						  int restartInterval, int indexBlockSize) throws IOException {
 		this.fileName = fileName;
+		this.codec = codec;
+		this.encoding = encoding;
+		this.restartInterval = restartInterval;
+		this.indexBlockSize = indexBlockSize;
+		this.compressBuffer = ByteUtils.EMPTY_BYTES;
 
 		File f = new File(fileName);
 		f.createNewFile();
 		this.out = new FileOutputStream(f, true);
 		this.currentOffset = 0;
 		this.indexWriter = new BlockIndexWriter();
-		this.currentWriter = new BlockWriter();
+		this.currentWriter = new BlockWriter(encoding, restartInterval);
 
 		this.fileSize = 0;
 		this.blockCount = 0;
@@ -68,15 +136,31 @@ public class DiskFileWriter implements Closeable {
 	private void switchNextBlockWriter() throws IOException {
 		assert currentWriter.getLastKv() != null;
 		byte[] buffer = currentWriter.serialize();
-		out.write(buffer);
+		int size = buffer.length;
+		byte code = Codec.NONE_CODE;
+		if (codec != Codec.NONE) {
+			int maxLen = codec.maxCompressedLength(buffer.length);
+			if (compressBuffer.length < maxLen) {
+				compressBuffer = new byte[maxLen];
+			}
+			int len = codec.compress(buffer, 0, buffer.length, compressBuffer, 0);
+			if (len < buffer.length - (buffer.length >> 3)) {
+				out.write(compressBuffer, 0, len);
+				size = len;
+				code = codec.getCode();
+			}
+		}
+		if (code == Codec.NONE_CODE) {
+			out.write(buffer);
+		}
 		indexWriter.append(currentWriter.getLastKv(),
-				currentOffset, buffer.length,
+				currentOffset, size, code, buffer.length,
 				currentWriter.getBloomFilter());
 
-		currentOffset += buffer.length;
+		currentOffset += size;
 		blockCount++;
 
-		currentWriter = new BlockWriter();
+		currentWriter = new BlockWriter(encoding, restartInterval);
 	}
 
 	public void append(KeyValue kv) throws IOException {
@@ -94,6 +178,7 @@ public class DiskFileWriter implements Closeable {
 		}
 
 		currentWriter.append(kv);
+		maxSeqId = Math.max(maxSeqId, kv.getSequenceId());
 	}
 
 	public void appendIndex() throws IOException {
@@ -101,7 +186,18 @@ public class DiskFileWriter implements Closeable {
 			switchNextBlockWriter();
 		}
 
-		byte[] buffer = indexWriter.serialize();
+		BlockIndexWriter topIndexWriter = indexWriter;
+		if (indexBlockSize > 0) {
+			topIndexWriter = new BlockIndexWriter();
+			for (BlockIndexWriter partition : indexWriter.partition(indexBlockSize)) {
+				byte[] buffer = partition.serialize();
+				out.write(buffer);
+				topIndexWriter.append(partition.getLastKv(), currentOffset, buffer.length, ByteUtils.EMPTY_BYTES);
+				currentOffset += buffer.length;
+			}
+		}
+
+		byte[] buffer = topIndexWriter.serialize();
 		blockIndexOffset = currentOffset;
 		blockIndexSize = buffer.length;
 
@@ -110,12 +206,13 @@ public class DiskFileWriter implements Closeable {
 	}
 
 	public void appendTrailer() throws IOException {
-		fileSize = currentOffset + TRAILER_SIZE;
+		fileSize = currentOffset + MAX_SEQ_ID_SIZE + TRAILER_SIZE;
+		out.write(ByteUtils.toBytes(maxSeqId));
 		out.write(ByteUtils.toBytes(fileSize));
 		out.write(ByteUtils.toBytes(blockCount));
 		out.write(ByteUtils.toBytes(blockIndexOffset));
 		out.write(ByteUtils.toBytes(blockIndexSize));
-		out.write(ByteUtils.toBytes(DISK_FILE_MAGIC));
+		out.write(ByteUtils.toBytes(indexBlockSize > 0 ? PARTITIONED_DISK_FILE_MAGIC : DISK_FILE_MAGIC));
 	}
 
 	@Override
@@ -8,12 +8,17 @@ import org.kingdari.MiniBase.Store.Iter;
 
 import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -25,6 +30,7 @@ public class DiskStore implements Closeable {
 	private static final Logger LOG = Logger.getLogger(DiskStore.class);
 	private static final String FILE_NAME_TMP_SUFFIX = ".tmp";
 	private static final String FILE_NAME_ARCHIVE_SUFFIX = ".archive";
+	private static final String CHECKPOINT_FILE_NAME = "checkpoint";
 	private static final Pattern DATA_FILE_REGEX = Pattern.compile("data\\.([0-9]+)");
 
 	public static class DefaultFlusher implements Flusher {
@@ -35,11 +41,11 @@ public class DiskStore implements Closeable {
 		}
 
 		@Override
-		public void flush(Iter<KeyValue> iter) throws IOException {
+		public void flush(Iter<KeyValue> iter, long maxSeqId) throws IOException {
 			String fileName = diskStore.getNextDiskFileName();
 			String fileTempName = fileName + FILE_NAME_TMP_SUFFIX;
 			try {
-				try (DiskFileWriter writer = new DiskFileWriter(fileTempName)) {
+				try (DiskFileWriter writer = diskStore.createWriter(fileTempName)) {
 					while(iter.hasNext()) {
 						writer.append(iter.next());
 					}
@@ -52,6 +58,7 @@ public class DiskStore implements Closeable {
 							String.format("Rename %s to %s failed", fileTempName, fileName));
 				}
 				diskStore.addDiskFile(fileName);
+				diskStore.updateCheckpoint(maxSeqId);
 			} finally {
 				File f = new File(fileTempName);
 				if (f.exists()) {
@@ -81,7 +88,7 @@ public class DiskStore implements Closeable {
 			String fileName = diskStore.getNextDiskFileName();
 			String fileTempName = fileName + FILE_NAME_TMP_SUFFIX;
 			try {
-				try (DiskFileWriter dfw = new DiskFileWriter(fileTempName)) {
+				try (DiskFileWriter dfw = diskStore.createWriter(fileTempName)) {
 					try (Iter<KeyValue> iter = diskStore.createIterator(filesToCompact)) {
 						while (iter.hasNext()) {
 							dfw.append(iter.next());
@@ -95,7 +102,7 @@ public class DiskStore implements Closeable {
 					throw new IOException("Rename fail: " + fileTempName);
 				}
 
-				diskStore.compactDown(filesToCompact, new DiskFile(fileName, diskStore.cache).open());
+				diskStore.compactDown(filesToCompact, diskStore.createDiskFile(fileName).open());
 			} finally {
 				File f = new File(fileTempName);
 				if (f.exists()) {
@@ -226,6 +233,10 @@ public class DiskStore implements Closeable {
 
 	private String dataDir;
 
+	// newest first, by max sequence id: the order get probes them in.
+	private static final Comparator<DiskFile> NEWEST_FIRST =
+			Comparator.comparingLong(DiskFile::getMaxSeqId).reversed();
+
 	// Guard diskFiles;
 	private ReentrantReadWriteLock diskFilesLock;
 	private List<DiskFile> diskFiles;
@@ -235,9 +246,19 @@ public class DiskStore implements Closeable {
 	private List<DiskFile> compactedDiskFiles;
 
 	private BlockCache cache;
+	private final Codec codec;
+	private final Config.BLOCK_ENCODING encoding;
+	private final int restartInterval;
+	private final int indexBlockSize;
+	private final boolean mmapRead;
+	private final int readaheadBlocks;
+	// reads blocks ahead for scans, idle threads exit.
+	private final ThreadPoolExecutor readaheadPool;
 
 	private final int maxDiskFiles;
 	private volatile AtomicLong maxFileId;
+	// WAL entries up to it are persisted in disk files.
+	private volatile long flushedSeqId;
 
 	private File[] listDiskFiles() {
 		final File[] files = new File(dataDir).listFiles(
@@ -246,13 +267,46 @@ public class DiskStore implements Closeable {
 	}
 
 	public DiskStore(String dataDir, int maxDiskFiles, long maxBlockCacheSize) {
+		this(dataDir, maxDiskFiles, maxBlockCacheSize, new Config());
+	}
+
+	/**
+	 * Data blocks of flushed and compacted files are compressed and encoded as in conf.
+	 */
+	public DiskStore(Config conf) {
+		this(conf.getFullDataDir(), conf.getMaxDiskFiles(), conf.getMaxBlockCacheSize(), conf);
+	}
+
+	private DiskStore(String dataDir, int maxDiskFiles, long maxBlockCacheSize, Config conf) {
 		this.dataDir = dataDir;
+		this.codec = conf.getDataBlockCodec();
+		this.encoding = conf.getBlockEncoding();
+		this.restartInterval = conf.getBlockRestartInterval();
+		this.indexBlockSize = conf.getIndexBlockSize();
+		this.mmapRead = conf.isDiskFileMmapRead();
+		this.readaheadBlocks = conf.getReadaheadBlocks();
+		int readaheadThreads = Math.max(1, conf.getReadaheadThreads());
+		this.readaheadPool = new ThreadPoolExecutor(readaheadThreads, readaheadThreads,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			Thread t = new Thread(r, "DiskStore-readahead");
+			t.setDaemon(true);
+			return t;
+		});
+		this.readaheadPool.allowCoreThreadTimeOut(true);
 		this.maxDiskFiles = maxDiskFiles;
 		this.diskFiles = new ArrayList<>();
 		this.compactedDiskFiles = new ArrayList<>();
 		this.diskFilesLock = new ReentrantReadWriteLock();
 		this.compactedDiskFilesLock = new ReentrantReadWriteLock();
-		this.cache = new BlockCache(maxBlockCacheSize);
+		this.cache = new BlockCache(maxBlockCacheSize, conf.isBlockCacheCompressed(), conf.getMaxIndexCacheSize());
+	}
+
+	DiskFileWriter createWriter(String fileName) throws IOException {
+		return new DiskFileWriter(fileName, codec, encoding, restartInterval, indexBlockSize);
+	}
+
+	private DiskFile createDiskFile(String fileName) {
+		return new DiskFile(fileName, cache, mmapRead).setReadahead(readaheadPool, readaheadBlocks);
 	}
 
 	public void open() throws IOException {
@@ -267,13 +321,15 @@ public class DiskStore implements Closeable {
 			}
 		}
 		this.maxFileId = new AtomicLong(maxFileId);
+		this.flushedSeqId = readCheckpoint();
 
 		diskFilesLock.writeLock().lock();
 		try {
 			for (File f : files) {
-				DiskFile df = new DiskFile(f.getAbsolutePath(), cache).open();
+				DiskFile df = createDiskFile(f.getAbsolutePath()).open();
 				diskFiles.add(df);
 			}
+			diskFiles.sort(NEWEST_FIRST);
 		} finally {
 			diskFilesLock.writeLock().unlock();
 		}
@@ -283,6 +339,8 @@ public class DiskStore implements Closeable {
 	public void close() throws IOException {
 		IOException closedException = null;
 		LOG.info("DiskStore try to close disk files...");
+		// not shutdownNow, an interrupt closes the channel being read.
+		readaheadPool.shutdown();
 		diskFilesLock.readLock().lock();
 		try {
 			for (DiskFile df : diskFiles) {
@@ -313,6 +371,43 @@ public class DiskStore implements Closeable {
 		LOG.info("DiskStore exited.");
 	}
 
+	private long readCheckpoint() throws IOException {
+		File f = new File(dataDir, CHECKPOINT_FILE_NAME);
+		if (!f.exists()) {
+			return 0L;
+		}
+		byte[] buffer = new byte[8];
+		try (FileInputStream in = new FileInputStream(f)) {
+			int len = in.read(buffer);
+			if (len != buffer.length) {
+				throw new IOException("Invalid checkpoint: " + f.getPath());
+			}
+		}
+		return ByteUtils.toLong(buffer);
+	}
+
+	/**
+	 * Persist the flushed sequence id next to the disk files, replay starts after it.
+	 */
+	public synchronized void updateCheckpoint(long seqId) throws IOException {
+		if (seqId <= flushedSeqId) {
+			return;
+		}
+		File tmp = new File(dataDir, CHECKPOINT_FILE_NAME + FILE_NAME_TMP_SUFFIX);
+		try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+			out.write(ByteUtils.toBytes(seqId));
+			out.getFD().sync();
+		}
+		if (!tmp.renameTo(new File(dataDir, CHECKPOINT_FILE_NAME))) {
+			throw new IOException("Rename fail: " + tmp.getName());
+		}
+		flushedSeqId = seqId;
+	}
+
+	public long getFlushedSeqId() {
+		return flushedSeqId;
+	}
+
 	public long nextDiskFileId() {
 		return maxFileId.incrementAndGet();
 	}
@@ -325,13 +420,14 @@ public class DiskStore implements Closeable {
 		diskFilesLock.writeLock().lock();
 		try {
 			diskFiles.add(diskFile);
+			diskFiles.sort(NEWEST_FIRST);
 		} finally {
 			diskFilesLock.writeLock().unlock();
 		}
 	}
 
 	public void addDiskFile(String fileName) throws IOException {
-		addDiskFile(new DiskFile(fileName, cache).open());
+		addDiskFile(createDiskFile(fileName).open());
 	}
 
 	public List<DiskFile> getDiskFilesSnapshot() {
@@ -350,6 +446,7 @@ public class DiskStore implements Closeable {
 			int oldSize = diskFiles.size();
 			diskFiles.removeAll(files);
 			diskFiles.add(newFile);
+			diskFiles.sort(NEWEST_FIRST);
 			compactedDiskFiles.addAll(files);
 			LOG.info(String.format("Compact down. DiskFiles size: %d -> %d",
 							oldSize, diskFiles.size()));
@@ -364,10 +461,9 @@ public class DiskStore implements Closeable {
 		try {
 			List<DiskFile> unusedDiskFiles = new ArrayList<>();
 			for (DiskFile df : compactedDiskFiles) {
-				if (df.getRefCount() != 0) {
+				if (!df.tryClose()) {
 					continue;
 				}
-				df.close();
 				unusedDiskFiles.add(df);
 				File file = new File(df.getFileName());
 				File archiveFile = new File(df.getFileName() + FILE_NAME_ARCHIVE_SUFFIX);
@@ -385,16 +481,65 @@ public class DiskStore implements Closeable {
 		return maxDiskFiles;
 	}
 
+	/**
+	 * Newest version of key visible at version in any disk file, a put or a delete.
+	 * Files are probed newest first, until one has no version newer than the one found.
+	 */
+	public KeyValue get(byte[] key, long version) throws IOException {
+		List<DiskFile> files = retainDiskFiles();
+		try {
+			KeyValue found = null;
+			for (DiskFile df : files) {
+				if (found != null && df.getMaxSeqId() <= found.getSequenceId()) {
+					break;
+				}
+				KeyValue kv = df.get(key, version);
+				if (kv != null && (found == null || kv.getSequenceId() > found.getSequenceId())) {
+					found = kv;
+				}
+			}
+			return found;
+		} finally {
+			files.forEach(DiskFile::release);
+		}
+	}
+
+	/**
+	 * The disk files, kept open until released even if compacted meanwhile.
+	 */
+	private List<DiskFile> retainDiskFiles() throws IOException {
+		diskFilesLock.readLock().lock();
+		try {
+			List<DiskFile> files = new ArrayList<>(diskFiles.size());
+			for (DiskFile df : diskFiles) {
+				if (!df.retain()) {
+					files.forEach(DiskFile::release);
+					throw new IOException("Disk file closed: " + df.getFileName());
+				}
+				files.add(df);
+			}
+			return files;
+		} finally {
+			diskFilesLock.readLock().unlock();
+		}
+	}
+
 	public SeekIter<KeyValue> createIterator(List<DiskFile> diskFiles) throws IOException {
 		return createIterator(diskFiles, new KeyValueFilter());
 	}
 
 	public SeekIter<KeyValue> createIterator() throws IOException {
-		return createIterator(getDiskFilesSnapshot(), new KeyValueFilter());
+		return createIterator(new KeyValueFilter());
 	}
 
 	public SeekIter<KeyValue> createIterator(KeyValueFilter filter) throws IOException {
-		return createIterator(getDiskFilesSnapshot(), filter);
+		// no file is compacted and closed before its iterator retains it.
+		diskFilesLock.readLock().lock();
+		try {
+			return createIterator(diskFiles, filter);
+		} finally {
+			diskFilesLock.readLock().unlock();
+		}
 	}
 
 	public SeekIter<KeyValue> createIterator(List<DiskFile> diskFiles, KeyValueFilter filter) throws IOException {
@@ -0,0 +1,50 @@
+package org.kingdari.MiniBase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Threads inside a section, counted in per-thread stripes so entering and leaving don't
+ * contend on one word. A thread leaves through the stripe it entered, so a stripe is never
+ * negative and the section is empty once every stripe is 0.
+ */
+public class InFlightCounter {
+
+	// longs per stripe, 128 bytes apart.
+	private static final int PADDING = 16;
+	private static final int STRIPES = Integer.highestOneBit(
+			Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * PADDING);
+
+	/**
+	 * @return the stripe to leave through.
+	 */
+	public int enter() {
+		int index = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING;
+		counts.incrementAndGet(index);
+		return index;
+	}
+
+	public void exit(int stripe) {
+		counts.decrementAndGet(stripe);
+	}
+
+	public boolean isEmpty() {
+		for (int i = 0; i < counts.length(); i += PADDING) {
+			if (counts.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Wait for threads inside. Threads entering meanwhile must see they are not wanted and leave.
+	 */
+	public void awaitEmpty() {
+		while (!isEmpty()) {
+			LockSupport.parkNanos(this, 1000L);
+		}
+	}
+}
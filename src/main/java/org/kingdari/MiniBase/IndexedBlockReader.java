@@ -0,0 +1,114 @@
+package org.kingdari.MiniBase;
+
+import org.kingdari.MiniBase.MStore.SeekIter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A block kept as one array, its kvs found by index. Seeks and version checks read the kv
+ * in place, a kv over ranges of the block is only created for what is returned.
+ */
+public abstract class IndexedBlockReader extends BlockReader {
+
+	private class IndexedBlockIterator implements SeekIter<KeyValue> {
+		private final KeyValueFilter filter;
+		private int pos;
+
+		IndexedBlockIterator(KeyValueFilter filter) {
+			this.filter = filter;
+			this.pos = 0;
+		}
+
+		@Override
+		public void seekTo(KeyValue target) {
+			pos = lowerBound(target);
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (pos < kvCount && filter.getVersion() < getSequenceId(pos)) {
+				pos++;
+			}
+			return pos < kvCount;
+		}
+
+		@Override
+		public KeyValue next() {
+			if (!hasNext()) {
+				return null;
+			}
+			return get(pos++);
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	protected final byte[] block;
+	protected final ByteBuffer buf;
+	protected final int kvCount;
+
+	protected IndexedBlockReader(byte[] block, int kvCount, long memorySize) {
+		super(memorySize);
+		this.block = block;
+		this.buf = ByteBuffer.wrap(block);
+		this.kvCount = kvCount;
+	}
+
+	/**
+	 * The kv at index compared to target, as kv.compareTo(target).
+	 */
+	protected abstract int compare(int index, KeyValue target);
+
+	protected abstract long getSequenceId(int index);
+
+	protected abstract KeyValue get(int index);
+
+	/**
+	 * Index of the first kv not less than target.
+	 */
+	private int lowerBound(KeyValue target) {
+		int l = 0, r = kvCount - 1;
+		while (l <= r) {
+			int m = (r - l) / 2 + l;
+			if (compare(m, target) >= 0) {
+				r = m - 1;
+			} else {
+				l = m + 1;
+			}
+		}
+		return l;
+	}
+
+	public int getKvCount() {
+		return kvCount;
+	}
+
+	@Override
+	public List<KeyValue> getKeyValues() {
+		List<KeyValue> kvs = new ArrayList<>(kvCount);
+		for (int i = 0; i < kvCount; i++) {
+			kvs.add(get(i));
+		}
+		return kvs;
+	}
+
+	@Override
+	public KeyValue seek(KeyValue target) {
+		int index = lowerBound(target);
+		return index < kvCount ? get(index) : null;
+	}
+
+	@Override
+	public SeekIter<KeyValue> iterator(KeyValueFilter filter) {
+		return new IndexedBlockIterator(filter);
+	}
+
+	@Override
+	public int hashCode() {
+		return Integer.hashCode(kvCount);
+	}
+}
@@ -1,6 +1,8 @@
 package org.kingdari.MiniBase;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class KeyValue implements Comparable<KeyValue> {
 
@@ -9,8 +11,13 @@ public class KeyValue implements Comparable<KeyValue> {
 	public static final int OP_SIZE = 1;
 	public static final int SEQ_ID_SIZE = 8;
 
+	// key and value may be ranges of a shared array, see wrap.
 	private byte[] key;
+	private int keyOffset;
+	private int keyLength;
 	private byte[] value;
+	private int valueOffset;
+	private int valueLength;
 	private Op op;
 	private long sequenceId;
 
@@ -48,23 +55,98 @@ public class KeyValue implements Comparable<KeyValue> {
 		return new KeyValue(key, ByteUtils.EMPTY_BYTES, Op.Delete, sequenceId);
 	}
 
+	/**
+	 * A kv over ranges of bytes, which must not change while the kv is used.
+	 */
+	static KeyValue wrap(byte[] bytes, int keyOffset, int keyLength, int valueOffset, int valueLength,
+						 Op op, long sequenceId) {
+		return new KeyValue(bytes, keyOffset, keyLength, bytes, valueOffset, valueLength, op, sequenceId);
+	}
+
+	/**
+	 * A kv owning key, over a range of value bytes which must not change while the kv is used.
+	 */
+	static KeyValue wrap(byte[] key, byte[] value, int valueOffset, int valueLength, Op op, long sequenceId) {
+		return new KeyValue(key, 0, key.length, value, valueOffset, valueLength, op, sequenceId);
+	}
+
 	private KeyValue(byte[] key, byte[] value, Op op, long sequenceId) {
+		this(key, 0, key.length, value, 0, value.length, op, sequenceId);
+	}
+
+	private KeyValue(byte[] key, int keyOffset, int keyLength, byte[] value, int valueOffset, int valueLength,
+					 Op op, long sequenceId) {
 		assert key != null;
 		assert value != null;
 		assert op != null;
 		assert sequenceId >= -1;
 		this.key = key;
+		this.keyOffset = keyOffset;
+		this.keyLength = keyLength;
 		this.value = value;
+		this.valueOffset = valueOffset;
+		this.valueLength = valueLength;
 		this.op = op;
 		this.sequenceId = sequenceId;
 	}
 
+	/**
+	 * A copy if the key is a range of a shared array.
+	 */
 	public byte[] getKey() {
-		return key;
+		if (keyOffset == 0 && keyLength == key.length) {
+			return key;
+		}
+		return Arrays.copyOfRange(key, keyOffset, keyOffset + keyLength);
 	}
 
+	/**
+	 * A copy if the value is a range of a shared array.
+	 */
 	public byte[] getValue() {
-		return value;
+		if (valueOffset == 0 && valueLength == value.length) {
+			return value;
+		}
+		return Arrays.copyOfRange(value, valueOffset, valueOffset + valueLength);
+	}
+
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	public int getValueLength() {
+		return valueLength;
+	}
+
+	/**
+	 * This if key and value are whole arrays, otherwise a kv owning copies of them,
+	 * safe to keep after the shared array is reused.
+	 */
+	public KeyValue detach() {
+		if (keyOffset == 0 && keyLength == key.length && valueOffset == 0 && valueLength == value.length) {
+			return this;
+		}
+		return new KeyValue(getKey(), getValue(), op, sequenceId);
+	}
+
+	/**
+	 * Copy key then value to dst at offset.
+	 */
+	void copyTo(byte[] dst, int offset) {
+		System.arraycopy(key, keyOffset, dst, offset, keyLength);
+		System.arraycopy(value, valueOffset, dst, offset + keyLength, valueLength);
+	}
+
+	public int compareKey(byte[] other) {
+		return ByteUtils.compare(key, keyOffset, keyLength, other, 0, other.length);
+	}
+
+	public int compareKey(byte[] other, int offset, int length) {
+		return ByteUtils.compare(key, keyOffset, keyLength, other, offset, length);
+	}
+
+	public int compareKey(KeyValue other) {
+		return ByteUtils.compare(key, keyOffset, keyLength, other.key, other.keyOffset, other.keyLength);
 	}
 
 	public Op getOp() {
@@ -76,15 +158,15 @@ public class KeyValue implements Comparable<KeyValue> {
 	}
 
 	private int getRawKeyLen() {
-		return key.length + OP_SIZE + SEQ_ID_SIZE;
+		return keyLength + OP_SIZE + SEQ_ID_SIZE;
 	}
 
 	public int getMemorySize() {
-		return getRawKeyLen() + value.length;
+		return getRawKeyLen() + valueLength;
 	}
 
 	public int getSerializedSize() {
-		return RAW_KEY_LEN_SIZE + VAL_LEN_SIZE + getRawKeyLen() + value.length;
+		return RAW_KEY_LEN_SIZE + VAL_LEN_SIZE + getRawKeyLen() + valueLength;
 	}
 
 	public byte[] toBytes() {
@@ -97,12 +179,12 @@ public class KeyValue implements Comparable<KeyValue> {
 		System.arraycopy(rawKeyLenBytes, 0, bytes, pos, RAW_KEY_LEN_SIZE);
 		pos += RAW_KEY_LEN_SIZE;
 
-		byte[] valLen = ByteUtils.toBytes(value.length);
+		byte[] valLen = ByteUtils.toBytes(valueLength);
 		System.arraycopy(valLen, 0, bytes, pos, VAL_LEN_SIZE);
 		pos += VAL_LEN_SIZE;
 
-		System.arraycopy(key, 0, bytes, pos, key.length);
-		pos += key.length;
+		System.arraycopy(key, keyOffset, bytes, pos, keyLength);
+		pos += keyLength;
 
 		bytes[pos++] = op.getCode();
 
@@ -110,36 +192,63 @@ public class KeyValue implements Comparable<KeyValue> {
 		System.arraycopy(seqIdBytes, 0, bytes, pos, seqIdBytes.length);
 		pos += seqIdBytes.length;
 
-		System.arraycopy(value, 0, bytes, pos, value.length);
-		pos += value.length;
+		System.arraycopy(value, valueOffset, bytes, pos, valueLength);
+		pos += valueLength;
 
 		assert pos == getSerializedSize();
 		return bytes;
 	}
 
+	public void writeTo(ByteBuffer buf) {
+		ByteUtils.putInt(buf, getRawKeyLen());
+		ByteUtils.putInt(buf, valueLength);
+		buf.put(key, keyOffset, keyLength);
+		buf.put(op.getCode());
+		ByteUtils.putLong(buf, sequenceId);
+		buf.put(value, valueOffset, valueLength);
+	}
+
+	/**
+	 * Same layout as toBytes(), written into buf without temporary arrays.
+	 */
+	public static void writeTo(ByteBuffer buf, byte[] key, byte[] value, Op op, long sequenceId) {
+		ByteUtils.putInt(buf, key.length + OP_SIZE + SEQ_ID_SIZE);
+		ByteUtils.putInt(buf, value.length);
+		buf.put(key);
+		buf.put(op.getCode());
+		ByteUtils.putLong(buf, sequenceId);
+		buf.put(value);
+	}
+
+	/**
+	 * Read one kv at the position of buf and advance it.
+	 */
+	public static KeyValue readFrom(ByteBuffer buf) throws IOException {
+		if (buf.remaining() < RAW_KEY_LEN_SIZE + VAL_LEN_SIZE) {
+			throw new IOException("Invalid len");
+		}
+		int rawKeyLen = ByteUtils.getInt(buf);
+		int valLen = ByteUtils.getInt(buf);
+		int keyLen = rawKeyLen - OP_SIZE - SEQ_ID_SIZE;
+		if (keyLen < 0 || valLen < 0 || buf.remaining() < rawKeyLen + valLen) {
+			throw new IOException("Invalid len");
+		}
+		byte[] key = new byte[keyLen];
+		buf.get(key);
+		Op op = Op.codeToOp(buf.get());
+		long sequenceId = ByteUtils.getLong(buf);
+		byte[] val = new byte[valLen];
+		buf.get(val);
+		return new KeyValue(key, val, op, sequenceId);
+	}
+
 	public static KeyValue parseFrom(byte[] bytes, int offset) throws IOException {
 		if (bytes == null) {
 			throw new IOException("buffer is null");
 		} else if (offset + RAW_KEY_LEN_SIZE + VAL_LEN_SIZE >= bytes.length) {
 			throw new IOException("Invalid len");
 		}
-		int pos = offset;
-		int rawKeyLen = ByteUtils.toInt(ByteUtils.slice(bytes, pos, RAW_KEY_LEN_SIZE));
-		pos += RAW_KEY_LEN_SIZE;
-		int valLen = ByteUtils.toInt(ByteUtils.slice(bytes, pos, VAL_LEN_SIZE));
-		pos += VAL_LEN_SIZE;
-		int keyLen = rawKeyLen - OP_SIZE - SEQ_ID_SIZE;
-		byte[] key = ByteUtils.slice(bytes, pos, keyLen);
-		pos += keyLen;
-		Op op = Op.codeToOp(bytes[pos]);
-		pos += OP_SIZE;
-		long sequenceId = ByteUtils.toLong(ByteUtils.slice(bytes, pos, SEQ_ID_SIZE));
-		pos += SEQ_ID_SIZE;
-		byte[] val = ByteUtils.slice(bytes, pos, valLen);
-		pos += valLen;
-
-		assert pos <= bytes.length;
-		return new KeyValue(key, val, op, sequenceId);
+		return readFrom(ByteBuffer.wrap(bytes, offset, bytes.length - offset));
 	}
 
 	@Override
@@ -158,12 +267,29 @@ public class KeyValue implements Comparable<KeyValue> {
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
-		sb.append("key=").append(ByteUtils.toHex(this.key)).append("/op=").
+		sb.append("key=").append(ByteUtils.toHex(getKey())).append("/op=").
 				append(op).append("/sequenceId=").append(this.sequenceId).
-				append("/value=").append(ByteUtils.toHex(this.value));
+				append("/value=").append(ByteUtils.toHex(getValue()));
 		return sb.toString();
 	}
 
+	/**
+	 * compareTo the kv with key bytes[keyOffset, keyOffset + keyLength), op and sequenceId,
+	 * without creating it.
+	 */
+	int compareTo(byte[] bytes, int keyOffset, int keyLength, byte op, long sequenceId) {
+		int ret = compareKey(bytes, keyOffset, keyLength);
+		if (ret != 0) {
+			return ret;
+		} else if (this.sequenceId != sequenceId) {
+			return this.sequenceId > sequenceId ? -1 : 1;
+		} else if (this.op.getCode() != op) {
+			return this.op.getCode() > op ? -1 : 1;
+		} else {
+			return 0;
+		}
+	}
+
 	/**
 	 * 1. key small -> big
 	 * 2. Seq Big -> small
@@ -174,7 +300,7 @@ public class KeyValue implements Comparable<KeyValue> {
 		if (kv == null) {
 			throw new IllegalArgumentException("kv must not be null");
 		}
-		int ret = ByteUtils.compare(this.key, kv.key);
+		int ret = compareKey(kv);
 		if (ret != 0) {
 			return ret;
 		} else if (this.sequenceId != kv.sequenceId) {
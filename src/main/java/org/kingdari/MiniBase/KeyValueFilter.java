@@ -1,8 +1,5 @@
 package org.kingdari.MiniBase;
 
-import java.util.SortedSet;
-import java.util.TreeSet;
-
 public class KeyValueFilter {
 
 	public static KeyValueFilter createEmptyFilter() {
@@ -62,20 +59,13 @@ public class KeyValueFilter {
 		return this;
 	}
 
-	public SortedSet<BlockMeta> getFilteredMeta(DiskFile df) {
-		if (key == null) {
-			return df.getBlockMetaSet();
-		}
-		SortedSet<BlockMeta> ret = new TreeSet<>();
-		BloomFilter bf = new BloomFilter(
-				DiskFile.BLOOM_FILTER_HASH_COUNT,
-				DiskFile.BLOOM_FILTER_BITS_PER_KEY);
-		for (BlockMeta blockMeta : df.getBlockMetaSet()) {
-			bf.setResult(blockMeta.getBFBytes());
-			if (key == ByteUtils.EMPTY_BYTES || bf.mayContains(key)) {
-				ret.add(blockMeta);
-			}
+	/**
+	 * False if the block of meta can't have the key of a get.
+	 */
+	public boolean mayContain(BlockMeta meta) {
+		if (key == null || key == ByteUtils.EMPTY_BYTES) {
+			return true;
 		}
-		return ret;
+		return BloomFilter.mayContain(meta.getBFBytes(), DiskFile.BLOOM_FILTER_HASH_COUNT, key);
 	}
 }
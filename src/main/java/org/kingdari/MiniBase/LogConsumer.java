@@ -4,17 +4,80 @@ import org.apache.log4j.Logger;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Take entries from the log in sequence order and apply them to memStore.
+ * With more than one apply thread, entries are inserted in parallel and their versions
+ * are published in sequence order: globalSeqId only passes an entry once all lower
+ * entries are applied.
+ * An entry may be logged before it is applied, so it is never failed here: once one can't be
+ * applied, no later one is applied or completed either, and the log settles them at close.
+ */
 public class LogConsumer extends Thread implements Closeable {
 
 	private static final Logger LOG = Logger.getLogger(LogConsumer.class);
 
+	/**
+	 * A slot of the apply window, reused once published.
+	 */
+	private static class ApplyTask {
+		// set by the dispatcher before handing the task to a worker.
+		private ReadLogWal wal;
+		private long index;
+		private boolean success;
+		// equals index once applied.
+		private volatile long appliedIndex = -1L;
+	}
+
+	private class ApplyWorker extends Thread {
+		private final RingBuffer<ApplyTask> queue;
+
+		ApplyWorker(int id) {
+			super("LogApplyWorker-" + id);
+			this.queue = new RingBuffer<>(applyTasks.length, conf.getLogWaitStrategy());
+			this.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				ApplyTask task;
+				try {
+					task = queue.take();
+				} catch (InterruptedException e) {
+					continue;
+				}
+				if (task == null) {
+					// closed and drained.
+					return;
+				}
+				task.success = addToMemStore(task.wal.getKvs());
+				task.appliedIndex = task.index;
+				publishApplied();
+			}
+		}
+	}
+
 	private Config conf;
 	private BaseLog log;
 	private MemStore memStore;
 	private MStore store;
 
-	private volatile boolean running;
+	// parallel apply, empty with a single apply thread.
+	private final ApplyWorker[] workers;
+	private final ApplyTask[] applyTasks;
+	private final int mask;
+	// next index to dispatch, only touched by this thread.
+	private long dispatchIndex;
+	// next index to publish, guarded by publishLock.
+	private volatile long publishIndex;
+	private final ReentrantLock publishLock;
+	// an entry could not be applied, later ones are left to log.settleUnapplied.
+	private volatile boolean failed;
 
 	public LogConsumer(Config conf, BaseLog log, MemStore memStore, MStore store) {
 		super("LogConsumer");
@@ -22,48 +85,165 @@ public class LogConsumer extends Thread implements Closeable {
 		this.log = log;
 		this.memStore = memStore;
 		this.store = store;
-		this.running = true;
 		this.setDaemon(true);
+
+		int threads = conf.getLogApplyThreads();
+		int window = threads > 1 ? conf.getLogRingBufferSize() : 0;
+		this.applyTasks = new ApplyTask[window];
+		for (int i = 0; i < window; i++) {
+			applyTasks[i] = new ApplyTask();
+		}
+		this.mask = window - 1;
+		this.dispatchIndex = 0L;
+		this.publishIndex = 0L;
+		this.publishLock = new ReentrantLock();
+		this.workers = new ApplyWorker[threads > 1 ? threads : 0];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new ApplyWorker(i);
+		}
+	}
+
+	/**
+	 * Blocks while memStore waits for a flush, false once it gave up at close.
+	 */
+	private boolean addToMemStore(List<KeyValue> kvs) {
+		try {
+			memStore.addAll(kvs);
+			return true;
+		} catch (IOException e) {
+			LOG.error("Put failed, stop applying the log: " + e.getMessage());
+			return false;
+		}
+	}
+
+	public boolean apply(KeyValue kv) {
+		return apply(Collections.singletonList(kv));
+	}
+
+	/**
+	 * Add kvs to memStore and publish their last version, so readers see all or none of them.
+	 * Not for concurrent use.
+	 */
+	public boolean apply(List<KeyValue> kvs) {
+		if (!addToMemStore(kvs)) {
+			return false;
+		}
+		long seq = kvs.get(kvs.size() - 1).getSequenceId();
+		long after = store.updateGlobalVersion(seq);
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Get KVs: " + kvs + ". Try to update global version: " + seq + ", result: " + after);
+		}
+		return true;
+	}
+
+	private void complete(ReadLogWal wal, boolean success) {
+		if (success) {
+			log.notifyLogEntry(wal.getSeq());
+		} else {
+			failed = true;
+		}
+	}
+
+	private void dispatch(ReadLogWal wal) {
+		// wait for the slot to be published.
+		while (dispatchIndex - publishIndex >= applyTasks.length) {
+			LockSupport.parkNanos(this, 1000L);
+		}
+		ApplyTask task = applyTasks[(int) dispatchIndex & mask];
+		task.wal = wal;
+		task.index = dispatchIndex;
+		workers[(int) (dispatchIndex % workers.length)].queue.put(task);
+		dispatchIndex++;
+	}
+
+	/**
+	 * Publish applied entries in order, from publishIndex up to the first one not applied yet.
+	 */
+	private void publishApplied() {
+		do {
+			if (!publishLock.tryLock()) {
+				// the holder checks again after unlocking.
+				return;
+			}
+			try {
+				long index = publishIndex;
+				while (true) {
+					ApplyTask task = applyTasks[(int) index & mask];
+					if (task.appliedIndex != index) {
+						break;
+					}
+					ReadLogWal wal = task.wal;
+					boolean success = task.success && !failed;
+					task.wal = null;
+					if (success) {
+						store.updateGlobalVersion(wal.getSeq());
+					}
+					index++;
+					publishIndex = index;
+					complete(wal, success);
+				}
+			} finally {
+				publishLock.unlock();
+			}
+		} while (applyTasks[(int) publishIndex & mask].appliedIndex == publishIndex);
+	}
+
+	@Override
+	public synchronized void start() {
+		for (ApplyWorker worker : workers) {
+			worker.start();
+		}
+		super.start();
 	}
 
 	@Override
 	public void run() {
-		while (running) {
+		while (true) {
 			try {
 				LogEntry entry = log.getReadQueue().take();
+				if (entry == null) {
+					// the log is closed and everything it handed over is taken.
+					break;
+				}
+				if (failed) {
+					// settled at close.
+					continue;
+				}
 				if (entry instanceof ReadLogWal) {
-					int i = 0;
-					for ( ; i < conf.getPutMaxRetryTimes(); i++) {
-						try {
-							KeyValue kv = ((ReadLogWal) entry).getKv();
-							memStore.add(kv);
-							long seq = kv.getSequenceId();
-							long after = store.updateGlobalVersion(seq);
-							LOG.debug("Get KV: " + kv + ". Try to update global version: " + seq + ", result: " + after);
-							log.notifyLogEntry(seq);
-							break;
-						} catch (IOException e) {
-							LOG.warn("Put KV failed: " + e.getMessage());
-							try {
-								Thread.sleep(100L << i);
-							} catch (InterruptedException ignored) {
-							}
-						}
-					}
-					if (i == conf.getPutMaxRetryTimes()) {
-						LOG.error("Put failed.");
+					ReadLogWal wal = (ReadLogWal) entry;
+					if (workers.length > 0) {
+						dispatch(wal);
+					} else {
+						complete(wal, apply(wal.getKvs()));
 					}
 				} else {
 					LOG.error("Not supported LogEntry");
 				}
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				LOG.warn("LogConsumer interrupted", e);
 			}
 		}
+		for (ApplyWorker worker : workers) {
+			worker.queue.close();
+		}
 	}
 
+	/**
+	 * Wait until every entry of the closed log is applied, then settle the ones that were not.
+	 * Close the log first.
+	 */
 	@Override
 	public void close() throws IOException {
-		this.running = false;
+		// an entry stopped by a failed flush gives up, and is settled with the later ones.
+		memStore.getWriteController().close();
+		try {
+			this.join();
+			for (ApplyWorker worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		log.settleUnapplied();
 	}
 }
@@ -1,15 +1,57 @@
 package org.kingdari.MiniBase;
 
+import org.kingdari.MiniBase.Config.WAL_LEVEL;
+
 import java.io.Closeable;
-import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 public interface MLog extends Closeable {
 
-	long put(byte[] key, byte[] value);
+	/**
+	 * The future is completed with the sequence id by the log consumer thread
+	 * once the entry is applied to memStore.
+	 */
+	CompletableFuture<Long> putAsync(byte[] key, byte[] value);
+
+	CompletableFuture<Long> deleteAsync(byte[] key);
+
+	/**
+	 * Log batch as one record. The future is completed with its last sequence id.
+	 */
+	CompletableFuture<Long> writeAsync(WriteBatch batch);
+
+	/**
+	 * Log with walLevel instead of the configured one. Only FSYNC entries force the log.
+	 */
+	CompletableFuture<Long> putAsync(byte[] key, byte[] value, WAL_LEVEL walLevel);
+
+	CompletableFuture<Long> deleteAsync(byte[] key, WAL_LEVEL walLevel);
 
-	long delete(byte[] key);
+	CompletableFuture<Long> writeAsync(WriteBatch batch, WAL_LEVEL walLevel);
+
+	default long put(byte[] key, byte[] value) {
+		return putAsync(key, value).join();
+	}
+
+	default long delete(byte[] key) {
+		return deleteAsync(key).join();
+	}
 
 	void sync();
 
-	BlockingQueue<LogEntry> getReadQueue();
+	/**
+	 * All entries with sequence id <= flushedSeqId are persisted, their log can be dropped.
+	 */
+	void markFlushed(long flushedSeqId);
+
+	/**
+	 * Decode entries left by the last run with sequence id > flushedSeqId, in sequence order.
+	 * Must be called before any write, sequence ids continue from the replayed ones.
+	 */
+	List<KeyValue> replay(long flushedSeqId, ExecutorService pool) throws IOException;
+
+	RingBuffer<LogEntry> getReadQueue();
 }
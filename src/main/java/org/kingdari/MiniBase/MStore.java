@@ -1,6 +1,8 @@
 package org.kingdari.MiniBase;
 
 import org.apache.log4j.Logger;
+import org.kingdari.MiniBase.Config.MEMSTORE_COMPACTION;
+import org.kingdari.MiniBase.Config.WAL_LEVEL;
 import org.kingdari.MiniBase.DiskStore.DefaultCompactor;
 import org.kingdari.MiniBase.DiskStore.DefaultFlusher;
 import org.kingdari.MiniBase.DiskStore.MultiIter;
@@ -9,6 +11,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicLong;
@@ -36,7 +39,7 @@ public class MStore implements Store {
 
 		private boolean shouldStop(KeyValue kv) {
 			return stopKv != null &&
-					ByteUtils.compare(stopKv.getKey(), kv.getKey()) <= 0;
+					stopKv.compareKey(kv) <= 0;
 		}
 
 		private void switchToNewKey() throws IOException {
@@ -55,7 +58,7 @@ public class MStore implements Store {
 						return;
 					}
 					// compare Key.
-					int ret = ByteUtils.compare(lastKv.getKey(), curKv.getKey());
+					int ret = lastKv.compareKey(curKv);
 					if (ret < 0) {
 						lastKv = pendingKv = curKv;
 						return;
@@ -63,10 +66,9 @@ public class MStore implements Store {
 						LOG.error("Illegal state: lastKv > curKv");
 					}
 				} else if (curKv.getOp() == KeyValue.Op.Delete) {
-					if (lastKv == null ||
-							ByteUtils.compare(lastKv.getKey(), curKv.getKey()) < 0) {
+					if (lastKv == null || lastKv.compareKey(curKv) < 0) {
 						lastKv = curKv;
-					} else if (ByteUtils.compare(lastKv.getKey(), curKv.getKey()) > 0) {
+					} else if (lastKv.compareKey(curKv) > 0) {
 						LOG.error("Illegal state: lastKv > curKv");
 					}
 				} else {
@@ -90,7 +92,8 @@ public class MStore implements Store {
 			}
 			lastKv = pendingKv;
 			pendingKv = null;
-			return lastKv;
+			// memStore chunks are reused once iterators are closed.
+			return lastKv == null ? null : lastKv.detach();
 		}
 
 		@Override
@@ -127,14 +130,18 @@ public class MStore implements Store {
 		initFile();
 
 		this.pool = Executors.newFixedThreadPool(conf.getMaxThreadPoolSize());
-		this.diskStore = new DiskStore(conf.getFullDataDir(),
-				conf.getMaxDiskFiles(), conf.getMaxBlockCacheSize());
+		this.diskStore = new DiskStore(conf);
 		this.diskStore.open();
 		this.globalSeqId = new AtomicLong(0);
 
 		this.log = new BaseLog(conf);
-		this.memStore = new MemStore(conf, new DefaultFlusher(diskStore), pool);
+		final DefaultFlusher flusher = new DefaultFlusher(diskStore);
+		this.memStore = new MemStore(conf, (iter, maxSeqId) -> {
+			flusher.flush(iter, maxSeqId);
+			log.markFlushed(maxSeqId);
+		}, pool, globalSeqId::get);
 		this.logConsumer = new LogConsumer(conf, (BaseLog) log, memStore, this);
+		replayLog();
 		this.logConsumer.start();
 
 		this.compactor = new DefaultCompactor(diskStore);
@@ -143,28 +150,72 @@ public class MStore implements Store {
 		return this;
 	}
 
+	private void replayLog() throws IOException {
+		long flushedSeqId = diskStore.getFlushedSeqId();
+		long startTime = System.currentTimeMillis();
+		List<KeyValue> kvs = log.replay(flushedSeqId, pool);
+		for (KeyValue kv : kvs) {
+			if (!logConsumer.apply(kv)) {
+				throw new IOException("Replay failed at " + kv);
+			}
+		}
+		updateGlobalVersion(flushedSeqId);
+		if (conf.getMemStoreCompaction() == MEMSTORE_COMPACTION.EAGER) {
+			// flushed files may lack versions dropped before them.
+			memStore.setMinReadVersion(flushedSeqId);
+		}
+		LOG.info(String.format("Replay %d log entries after seqId %d in %d ms",
+				kvs.size(), flushedSeqId, System.currentTimeMillis() - startTime));
+	}
+
 	private KeyValue scanGet(byte[] key) throws IOException {
-		final Iter<KeyValue> iter = scan(new KeyValueFilter().setRange(key, ByteUtils.EMPTY_BYTES));
-		if (iter.hasNext()) {
-			final KeyValue kv = iter.next();
-			if (ByteUtils.compare(key, kv.getKey()) == 0) {
-				return kv;
+		try (Iter<KeyValue> iter = scan(new KeyValueFilter().setRange(key, ByteUtils.EMPTY_BYTES))) {
+			if (iter.hasNext()) {
+				final KeyValue kv = iter.next();
+				if (kv.compareKey(key) == 0) {
+					return kv;
+				}
 			}
 		}
 		return null;
 	}
 
-	private KeyValue bfGet(KeyValueFilter filter) throws IOException {
-		filter.setVersionIfAbsent(globalSeqId.get()).
-				setRange(filter.getKey(), ByteUtils.EMPTY_BYTES);
-		Iter<KeyValue> iter = scan(filter);
-		if (iter.hasNext()) {
-			KeyValue kv = iter.next();
-			if (ByteUtils.compare(filter.getKey(), kv.getKey()) == 0) {
-				return kv;
+	/**
+	 * Newest visible version from memStore, then from disk files unless it is newer than
+	 * any of them.
+	 */
+	private KeyValue pointGet(KeyValueFilter filter) throws IOException {
+		boolean latest = filter.getVersion() == Long.MAX_VALUE;
+		byte[] key = filter.getKey();
+		long version;
+		KeyValue kv;
+		do {
+			if (latest) {
+				filter.setVersion(globalSeqId.get());
+			}
+			version = filter.getVersion();
+			checkVersion(version);
+			kv = memStore.get(key, version);
+		} while (version < memStore.getMinReadVersion());
+		if (kv == null || kv.getSequenceId() <= memStore.getFlushedMaxSeqId()) {
+			KeyValue diskKv = diskStore.get(key, version);
+			if (diskKv != null && (kv == null || diskKv.getSequenceId() > kv.getSequenceId())) {
+				kv = diskKv;
 			}
 		}
-		return null;
+		return kv == null || kv.getOp() == KeyValue.Op.Delete ? null : kv;
+	}
+
+	/**
+	 * Fails a read at a version whose overwritten versions EAGER compaction may have dropped,
+	 * rather than returning an older one from disk. A read which raced with the compaction
+	 * checks again, at the new latest version unless it was given one.
+	 */
+	private void checkVersion(long version) throws IOException {
+		long minVersion = memStore.getMinReadVersion();
+		if (version < minVersion) {
+			throw new IOException("Version " + version + " is older than the oldest readable " + minVersion);
+		}
 	}
 
 	public long updateGlobalVersion(long seq) {
@@ -174,10 +225,14 @@ public class MStore implements Store {
 			if (now >= seq) {
 				return now;
 			}
-		} while (globalSeqId.compareAndSet(now, seq));
+		} while (!globalSeqId.compareAndSet(now, seq));
 		return seq;
 	}
 
+	public WriteController getWriteController() {
+		return memStore.getWriteController();
+	}
+
 	private void initFile() {
 		File dataDir = new File(conf.getFullDataDir());
 		dataDir.mkdirs();
@@ -186,28 +241,59 @@ public class MStore implements Store {
 	}
 
 	@Override
-	public void put(byte[] key, byte[] value) throws IOException {
-		log.put(key, value);
+	public CompletableFuture<Long> putAsync(byte[] key, byte[] value) {
+		return log.putAsync(key, value);
 	}
 
 	@Override
 	public KeyValue get(KeyValueFilter filter) throws IOException {
-		return bfGet(filter);
+		return pointGet(filter);
+	}
+
+	@Override
+	public CompletableFuture<Long> deleteAsync(byte[] key) {
+		return log.deleteAsync(key);
+	}
+
+	@Override
+	public CompletableFuture<Long> writeAsync(WriteBatch batch) {
+		return log.writeAsync(batch);
+	}
+
+	@Override
+	public CompletableFuture<Long> putAsync(byte[] key, byte[] value, WAL_LEVEL walLevel) {
+		return log.putAsync(key, value, walLevel);
+	}
+
+	@Override
+	public CompletableFuture<Long> deleteAsync(byte[] key, WAL_LEVEL walLevel) {
+		return log.deleteAsync(key, walLevel);
 	}
 
 	@Override
-	public void delete(byte[] key) throws IOException {
-		log.delete(key);
+	public CompletableFuture<Long> writeAsync(WriteBatch batch, WAL_LEVEL walLevel) {
+		return log.writeAsync(batch, walLevel);
 	}
 
 	@Override
 	public Iter<KeyValue> scan(KeyValueFilter filter) throws IOException {
-		filter.setVersionIfAbsent(globalSeqId.get());
+		boolean latest = filter.getVersion() == Long.MAX_VALUE;
 		byte[] start = filter.getStart();
 		byte[] end = filter.getEnd();
 
+		SeekIter<KeyValue> memIter = null;
+		do {
+			if (memIter != null) {
+				memIter.close();
+			}
+			if (latest) {
+				filter.setVersion(globalSeqId.get());
+			}
+			checkVersion(filter.getVersion());
+			memIter = memStore.createIterator(filter);
+		} while (filter.getVersion() < memStore.getMinReadVersion());
 		List<SeekIter<KeyValue>> iters = new ArrayList<>();
-		iters.add(memStore.createIterator(filter));
+		iters.add(memIter);
 		// memStore first, diskStore second.
 		// maybe here immutableMap flush to disk.
 		// In this case, read duplicate data instead of losing immutableMap data.
@@ -228,6 +314,8 @@ public class MStore implements Store {
 
 	@Override
 	public void close() throws IOException {
+		// no new writes, queued ones are handed to logConsumer, which applies them all.
+		log.close();
 		logConsumer.close();
 		compactor.stopRunning(); // waiting compact finish.
 		memStore.close();
@@ -1,20 +1,28 @@
 package org.kingdari.MiniBase;
 
 import org.apache.log4j.Logger;
+import org.kingdari.MiniBase.Config.MEMSTORE_COMPACTION;
 import org.kingdari.MiniBase.DiskStore.MultiIter;
 import org.kingdari.MiniBase.MStore.SeekIter;
 import org.kingdari.MiniBase.Store.Flusher;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongSupplier;
 
 public class MemStore implements Closeable {
 
@@ -69,18 +77,209 @@ public class MemStore implements Closeable {
 		}
 	}
 
+	/**
+	 * Iterator over a flattened segment.
+	 */
+	public static class ArrayIter implements SeekIter<KeyValue> {
+
+		private final KeyValue[] kvs;
+		private final KeyValueFilter filter;
+		private int pos;
+		private KeyValue nextKv;
+
+		public ArrayIter(KeyValue[] kvs, KeyValueFilter filter) {
+			this.kvs = kvs;
+			this.filter = filter;
+		}
+
+		@Override
+		public void seekTo(KeyValue kv) throws IOException {
+			int index = Arrays.binarySearch(kvs, kv);
+			pos = index >= 0 ? index : -index - 1;
+			nextKv = null;
+		}
+
+		@Override
+		public boolean hasNext() throws IOException {
+			while (nextKv == null && pos < kvs.length) {
+				KeyValue kv = kvs[pos++];
+				if (filter.isVisible(kv)) {
+					nextKv = kv;
+				}
+			}
+			return nextKv != null;
+		}
+
+		@Override
+		public KeyValue next() throws IOException {
+			if (nextKv == null && !hasNext()) {
+				return null;
+			}
+			KeyValue kv = nextKv;
+			nextKv = null;
+			return kv;
+		}
+
+		@Override
+		public void close() {
+
+		}
+	}
+
+	/**
+	 * Immutable part of memStore: a former active map, or a flat sorted array once compacted.
+	 * Owns the labs holding its kvs.
+	 */
+	private static class Segment {
+		private final ConcurrentSkipListMap<KeyValue, KeyValue> map;
+		private final KeyValue[] kvs;
+		private final List<MemStoreLAB> labs;
+		private final long dataSize;
+		// writers of a former active map, which may still be adding to it. null once flat.
+		private final InFlightCounter writers;
+
+		private Segment(ConcurrentSkipListMap<KeyValue, KeyValue> map, KeyValue[] kvs,
+						List<MemStoreLAB> labs, long dataSize, InFlightCounter writers) {
+			this.map = map;
+			this.kvs = kvs;
+			this.labs = labs;
+			this.dataSize = dataSize;
+			this.writers = writers;
+		}
+
+		private boolean isFlat() {
+			return kvs != null;
+		}
+
+		private int size() {
+			return isFlat() ? kvs.length : map.size();
+		}
+
+		/**
+		 * Before reading all of it, to flush or merge.
+		 */
+		private void awaitWriters() {
+			if (writers != null) {
+				writers.awaitEmpty();
+			}
+		}
+
+		private SeekIter<KeyValue> createIterator(KeyValueFilter filter) {
+			return isFlat() ? new ArrayIter(kvs, filter) : new IteratorWrapper(map, filter);
+		}
+
+		private KeyValue ceiling(KeyValue kv) {
+			if (!isFlat()) {
+				return map.ceilingKey(kv);
+			}
+			int index = Arrays.binarySearch(kvs, kv);
+			index = index >= 0 ? index : -index - 1;
+			return index < kvs.length ? kvs[index] : null;
+		}
+	}
+
+	/**
+	 * The map taking writes. Writers enter it, then check it is still active: a swap publishes
+	 * the next one before waiting for the writers inside.
+	 */
+	private static class Active {
+		private final ConcurrentSkipListMap<KeyValue, KeyValue> map = new ConcurrentSkipListMap<>();
+		// null without MSLAB.
+		private final MemStoreLAB lab;
+		private final LongAdder dataSize = new LongAdder();
+		private final InFlightCounter writers = new InFlightCounter();
+
+		private Active(MemStoreLAB lab) {
+			this.lab = lab;
+		}
+
+		private Segment toSegment() {
+			return new Segment(map, null, lab == null ? Collections.emptyList() : Collections.singletonList(lab),
+					dataSize.sum(), writers);
+		}
+	}
+
+	/**
+	 * Segments swapped out together, flushed to one disk file.
+	 */
+	private static class Snapshot {
+		private final List<Segment> segments;
+		// entries up to it are in this or older snapshots, or on disk.
+		private final long maxSeqId;
+		private final long dataSize;
+
+		private Snapshot(List<Segment> segments, long maxSeqId, long dataSize) {
+			this.segments = segments;
+			this.maxSeqId = maxSeqId;
+			this.dataSize = dataSize;
+		}
+	}
+
+	/**
+	 * What readers see of memStore, replaced as a whole under swapLock.
+	 */
+	private static class State {
+		private final Active active;
+		// immutable segments kept in memory, newest first. Only with in-memory compaction.
+		private final List<Segment> pipeline;
+		private final long pipelineDataSize;
+		// snapshots waiting to be flushed to disk, oldest first.
+		private final List<Snapshot> flushQueue;
+
+		private State(Active active, List<Segment> pipeline, List<Snapshot> flushQueue) {
+			this.active = active;
+			this.pipeline = pipeline;
+			this.flushQueue = flushQueue;
+			long size = 0;
+			for (Segment segment : pipeline) {
+				size += segment.dataSize;
+			}
+			this.pipelineDataSize = size;
+		}
+
+		private long getDataSize() {
+			return active.dataSize.sum() + pipelineDataSize;
+		}
+
+		private List<Segment> getImmutableSegments() {
+			List<Segment> segments = new ArrayList<>(pipeline);
+			for (Snapshot snapshot : flushQueue) {
+				segments.addAll(snapshot.segments);
+			}
+			return segments;
+		}
+	}
+
 	private static class MemStoreIter implements SeekIter<KeyValue> {
 		private MultiIter iter;
 		private MemStore memStore;
 		private KeyValueFilter filter;
+		// labs of all segments read, released on close.
+		private List<MemStoreLAB> labs = new ArrayList<>();
+		private boolean closed;
 
 		public MemStoreIter(MemStore memStore, KeyValueFilter filter) throws IOException {
 			this.memStore = memStore;
 			this.filter = filter;
-			ConcurrentSkipListMap<KeyValue, KeyValue>[] memStoreMaps = memStore.getMemStoreMaps();
-			this.iter = new MultiIter(new SeekIter[]{
-					new IteratorWrapper(memStoreMaps[0], filter),
-					new IteratorWrapper(memStoreMaps[1], filter)});
+			List<SeekIter<KeyValue>> iters = new ArrayList<>();
+			long stamp = memStore.reclaimLock.readLock();
+			try {
+				State state = memStore.state;
+				iters.add(new IteratorWrapper(state.active.map, filter));
+				if (state.active.lab != null) {
+					labs.add(state.active.lab);
+				}
+				for (Segment segment : state.getImmutableSegments()) {
+					iters.add(segment.createIterator(filter));
+					labs.addAll(segment.labs);
+				}
+				for (MemStoreLAB lab : labs) {
+					lab.retain();
+				}
+			} finally {
+				memStore.reclaimLock.unlockRead(stamp);
+			}
+			this.iter = new MultiIter(iters);
 		}
 
 		@Override
@@ -100,119 +299,463 @@ public class MemStore implements Closeable {
 
 		@Override
 		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
 			iter.close();
+			for (MemStoreLAB lab : labs) {
+				lab.release();
+			}
 		}
 	}
 
+	/**
+	 * Flush queued snapshots in order, until the queue is empty or a flush fails.
+	 */
 	private class FlusherTask implements Runnable {
 		@Override
 		public void run() {
-			boolean success = false;
+			boolean success = true;
+			do {
+				writeController.setFlushFailed(false);
+				List<Snapshot> queue;
+				while (success && !(queue = state.flushQueue).isEmpty()) {
+					Snapshot snapshot = queue.get(0);
+					for (Segment segment : snapshot.segments) {
+						segment.awaitWriters();
+					}
+					long maxAddedSeqId = maxSeqId.get();
+					success = flush(snapshot);
+					if (success) {
+						swapLock.lock();
+						try {
+							State current = state;
+							state = new State(current.active, current.pipeline,
+									new ArrayList<>(current.flushQueue.subList(1, current.flushQueue.size())));
+							flushedMaxSeqId = Math.max(flushedMaxSeqId, maxAddedSeqId);
+						} finally {
+							swapLock.unlock();
+						}
+						release(snapshot.segments);
+						writeController.removePendingFlush(snapshot.dataSize);
+					}
+				}
+				if (!success) {
+					// retried by the next write.
+					writeController.setFlushFailed(true);
+				}
+				if (!isImmutableMapFlushing.compareAndSet(true, false)) {
+					LOG.error("Unexpected CAS Fail");
+				}
+			} while (success && !state.flushQueue.isEmpty() && isImmutableMapFlushing.compareAndSet(false, true));
+		}
+
+		private boolean flush(Snapshot snapshot) {
 			for (int i = 0; i < conf.getFlushMaxRetryTimes(); i++) {
 				try {
-					flusher.flush(new IteratorWrapper(kvImmutableMap, KeyValueFilter.createEmptyFilter()));
-					success = true;
-					break;
+					List<SeekIter<KeyValue>> iters = new ArrayList<>();
+					for (Segment segment : snapshot.segments) {
+						iters.add(segment.createIterator(KeyValueFilter.createEmptyFilter()));
+					}
+					flusher.flush(new MultiIter(iters), snapshot.maxSeqId);
+					return true;
 				} catch (IOException e) {
 					LOG.warn(String.format("Failed to flush memStore. Retry %d of %d",
 							i + 1, conf.getFlushMaxRetryTimes()), e);
 				}
 			}
+			return false;
+		}
+	}
 
-			if (success) {
-				kvImmutableMap = new ConcurrentSkipListMap<>();
-				if (!isImmutableMapFlushing.compareAndSet(true, false)) {
-					LOG.error("Unexpected CAS Fail");
+	/**
+	 * Merge the pipeline into one flat segment. EAGER also drops versions no reader can see
+	 * and copies the rest into a new lab.
+	 */
+	private class InMemoryCompactionTask implements Runnable {
+		@Override
+		public void run() {
+			try {
+				while (needsInMemoryCompaction()) {
+					compactPipeline();
 				}
+			} catch (Throwable e) {
+				LOG.error("In-memory compaction failed", e);
+			} finally {
+				isInMemoryCompacting.set(false);
+			}
+			if (needsInMemoryCompaction() && isInMemoryCompacting.compareAndSet(false, true)) {
+				pool.submit(new InMemoryCompactionTask());
 			}
 		}
 	}
 
-	private final AtomicLong dataSize = new AtomicLong();
-
-	private volatile ConcurrentSkipListMap<KeyValue, KeyValue> kvMap;
-	private volatile ConcurrentSkipListMap<KeyValue, KeyValue> kvImmutableMap;
-
+	private final LongAccumulator maxSeqId = new LongAccumulator(Math::max, 0L);
+	// all entries up to it are added, read at swap.
+	private final LongSupplier appliedSeqId;
+	// entries only on disk are up to it. Entries from earlier runs past it are replayed.
+	private volatile long flushedMaxSeqId;
+	// versions older than it may have been dropped by EAGER compaction, raised before the swap.
+	private final LongAccumulator minReadVersion = new LongAccumulator(Math::max, 0L);
+
+	private volatile State state;
+	// serializes changes of state, never taken by writers or readers.
+	private final ReentrantLock swapLock = new ReentrantLock();
 	/**
-	 * guard dataSize(only rw, rr guarded by CAS), kvMap, kvSnapshot
-	 * rlock: writing to memory
-	 * wlock: flushing memory
+	 * Write locked to release the labs of segments no longer in state, so their chunks are
+	 * not reused under a reader. Scans retain the labs under a read lock, point gets
+	 * validate an optimistic read instead.
 	 */
-	private final ReentrantReadWriteLock updateLock = new ReentrantReadWriteLock();
+	private final StampedLock reclaimLock = new StampedLock();
+	private final WriteController writeController;
+	// null without MSLAB.
+	private final MemStoreLAB.ChunkPool chunkPool;
+
 	private final AtomicBoolean isImmutableMapFlushing = new AtomicBoolean();
+	private final AtomicBoolean isInMemoryCompacting = new AtomicBoolean();
 	private ExecutorService pool;
 	private Config conf;
 	private Flusher flusher;
 
 	public MemStore(Config conf, Flusher flusher, ExecutorService pool) {
+		this(conf, flusher, pool, null);
+	}
+
+	/**
+	 * @param appliedSeqId all entries with sequence id up to it are added. Needed when entries are
+	 *                     added out of order, the max added sequence id is used if null.
+	 */
+	public MemStore(Config conf, Flusher flusher, ExecutorService pool, LongSupplier appliedSeqId) {
 		this.conf = conf;
 		this.flusher = flusher;
 		this.pool = pool;
+		this.appliedSeqId = appliedSeqId != null ? appliedSeqId : maxSeqId::get;
+		this.writeController = new WriteController(conf);
+
+		if (conf.getMemStoreChunkSize() > 0) {
+			// enough for the whole memStore and a snapshot.
+			int maxChunks = (int) Math.max(2, 2 * conf.getMaxMemStoreSize() / conf.getMemStoreChunkSize() + 2);
+			this.chunkPool = new MemStoreLAB.ChunkPool(conf.getMemStoreChunkSize(), maxChunks);
+		} else {
+			this.chunkPool = null;
+		}
+		this.state = new State(newActive(), Collections.emptyList(), Collections.emptyList());
+	}
 
-		dataSize.set(0);
-
-		this.kvMap = new ConcurrentSkipListMap<>();
-		this.kvImmutableMap = new ConcurrentSkipListMap<>();
+	private Active newActive() {
+		return new Active(chunkPool == null ? null : new MemStoreLAB(chunkPool));
 	}
 
 	public void add(KeyValue kv) throws IOException {
-		flushIfNeeded(true);
-		updateLock.readLock().lock();
+		addAll(Collections.singletonList(kv));
+	}
+
+	/**
+	 * All kvs go to the same map: either all of them or none is added.
+	 * Slowed down or blocked while too much of memStore waits to be flushed, until a flush
+	 * succeeds or the write controller is closed.
+	 */
+	public void addAll(List<KeyValue> kvs) throws IOException {
+		long size = 0;
+		for (KeyValue kv : kvs) {
+			size += kv.getSerializedSize();
+		}
+		// restarts a failed flush, again while it stops writes.
+		do {
+			flushIfNeeded();
+		} while (!writeController.throttle(size));
+		Active active;
+		int stripe;
+		while (true) {
+			active = state.active;
+			stripe = active.writers.enter();
+			if (state.active == active) {
+				break;
+			}
+			active.writers.exit(stripe);
+		}
 		try {
-			KeyValue prevKv = kvMap.put(kv, kv);
-			if (prevKv == null) {
-				dataSize.addAndGet(kv.getSerializedSize());
-			} else {
-				dataSize.addAndGet(kv.getSerializedSize() - prevKv.getSerializedSize());
+			long delta = 0;
+			long max = 0;
+			for (KeyValue kv : kvs) {
+				if (active.lab != null) {
+					kv = active.lab.copy(kv);
+				}
+				KeyValue prevKv = active.map.put(kv, kv);
+				delta += prevKv == null ? kv.getSerializedSize() :
+						kv.getSerializedSize() - prevKv.getSerializedSize();
+				max = Math.max(max, kv.getSequenceId());
 			}
+			active.dataSize.add(delta);
+			maxSeqId.accumulate(max);
 		} finally {
-			updateLock.readLock().unlock();
+			active.writers.exit(stripe);
 		}
-		flushIfNeeded(false);
+		flushIfNeeded();
+		inMemoryFlushIfNeeded();
 	}
 
-	private void flushIfNeeded(boolean mustFlush) throws IOException {
+	/**
+	 * Queue memStore for flush once it is full, and start flushing the queue.
+	 */
+	private void flushIfNeeded() {
 		if (getDataSize() > conf.getMaxMemStoreSize()) {
-			if (isFlushing() && mustFlush) {
-				throw new IOException("MemStore is full, now is flushing, wait and retry");
-			} else if (isImmutableMapFlushing.compareAndSet(false, true)) {
-				// dataSize may less than config value due to concurrent issue.
-				updateLock.writeLock().lock();
-				try {
-					// double check
-					if (getDataSize() <= conf.getMaxMemStoreSize()) {
-						if (isImmutableMapFlushing.compareAndSet(true, false)) {
-							return;
-						} else {
-							throw new RuntimeException("Unexpected CAS Fail");
-						}
+			swapLock.lock();
+			try {
+				State current = state;
+				// double check
+				if (current.getDataSize() > conf.getMaxMemStoreSize()) {
+					// entries up to it are done, so in the swapped map or older.
+					long seqId = appliedSeqId.getAsLong();
+					List<Segment> segments = new ArrayList<>();
+					segments.add(current.active.toSegment());
+					segments.addAll(current.pipeline);
+					long size = segments.get(0).dataSize + current.pipelineDataSize;
+					List<Snapshot> queue = new ArrayList<>(current.flushQueue);
+					queue.add(new Snapshot(segments, seqId, size));
+					state = new State(newActive(), Collections.emptyList(), queue);
+					writeController.addPendingFlush(size);
+				}
+			} finally {
+				swapLock.unlock();
+			}
+		}
+		if (!state.flushQueue.isEmpty() && isImmutableMapFlushing.compareAndSet(false, true)) {
+			pool.submit(new FlusherTask());
+		}
+	}
+
+	/**
+	 * Move the active map into the pipeline once it reaches its share of memStore.
+	 */
+	private void inMemoryFlushIfNeeded() {
+		long limit = conf.getMaxMemStoreSize() / conf.getMaxMemStorePipelineSize();
+		if (conf.getMemStoreCompaction() == MEMSTORE_COMPACTION.NONE ||
+				state.active.dataSize.sum() <= limit) {
+			return;
+		}
+		swapLock.lock();
+		try {
+			State current = state;
+			if (current.active.dataSize.sum() <= limit) {
+				return;
+			}
+			List<Segment> segments = new ArrayList<>();
+			segments.add(current.active.toSegment());
+			segments.addAll(current.pipeline);
+			state = new State(newActive(), segments, current.flushQueue);
+		} finally {
+			swapLock.unlock();
+		}
+		if (isInMemoryCompacting.compareAndSet(false, true)) {
+			pool.submit(new InMemoryCompactionTask());
+		}
+	}
+
+	private boolean needsInMemoryCompaction() {
+		List<Segment> segments = state.pipeline;
+		return segments.size() > 1 || (segments.size() == 1 && !segments.get(0).isFlat());
+	}
+
+	private void compactPipeline() throws IOException {
+		List<Segment> segments = state.pipeline;
+		boolean eager = conf.getMemStoreCompaction() == MEMSTORE_COMPACTION.EAGER;
+		Segment merged = merge(segments, eager);
+
+		swapLock.lock();
+		try {
+			State current = state;
+			int added = current.pipeline.size() - segments.size();
+			if (added < 0 || !current.pipeline.subList(added, current.pipeline.size()).equals(segments)) {
+				// flushed to disk meanwhile.
+				if (eager) {
+					release(Collections.singletonList(merged));
+				}
+				return;
+			}
+			List<Segment> pipeline = new ArrayList<>(current.pipeline.subList(0, added));
+			pipeline.add(merged);
+			state = new State(current.active, pipeline, current.flushQueue);
+		} finally {
+			swapLock.unlock();
+		}
+		// without eager, the merged segment took over the labs.
+		if (eager) {
+			release(segments);
+		}
+	}
+
+	/**
+	 * Merge segments into one flat segment. With dropVersions, only versions down to the newest
+	 * one visible at the applied sequence id are kept for each key, copied into a new lab.
+	 * Open iterators keep reading the segments they started with, new ones read at the applied
+	 * sequence id or later, see getMinReadVersion.
+	 */
+	private Segment merge(List<Segment> segments, boolean dropVersions) throws IOException {
+		long readPoint = appliedSeqId.getAsLong();
+		if (dropVersions) {
+			minReadVersion.accumulate(readPoint);
+		}
+		int count = 0;
+		List<SeekIter<KeyValue>> iters = new ArrayList<>();
+		List<MemStoreLAB> labs = new ArrayList<>();
+		for (Segment segment : segments) {
+			segment.awaitWriters();
+			iters.add(segment.createIterator(KeyValueFilter.createEmptyFilter()));
+			labs.addAll(segment.labs);
+			count += segment.size();
+		}
+		MemStoreLAB newLab = null;
+		if (dropVersions) {
+			labs.clear();
+			if (chunkPool != null) {
+				newLab = new MemStoreLAB(chunkPool);
+				labs.add(newLab);
+			}
+		}
+		KeyValue[] kvs = new KeyValue[count];
+		int n = 0;
+		long size = 0;
+		try (MultiIter iter = new MultiIter(iters)) {
+			KeyValue last = null;
+			boolean shadowed = false;
+			while (iter.hasNext()) {
+				KeyValue kv = iter.next();
+				if (dropVersions) {
+					if (shadowed && last.compareKey(kv) == 0) {
+						continue;
 					}
-					kvImmutableMap = kvMap;
-					kvMap = new ConcurrentSkipListMap<>();
-					dataSize.set(0);
-				} finally {
-					updateLock.writeLock().unlock();
+					shadowed = kv.getSequenceId() <= readPoint;
+					last = kv;
+				}
+				kvs[n++] = newLab == null ? kv : newLab.copy(kv);
+				size += kv.getSerializedSize();
+			}
+		}
+		return new Segment(null, n == count ? kvs : Arrays.copyOf(kvs, n), labs, size, null);
+	}
+
+	/**
+	 * Release the labs of segments no longer in state.
+	 */
+	private void release(List<Segment> segments) {
+		long stamp = reclaimLock.writeLock();
+		try {
+			for (Segment segment : segments) {
+				for (MemStoreLAB lab : segment.labs) {
+					lab.release();
 				}
-				pool.submit(new FlusherTask());
 			}
+		} finally {
+			reclaimLock.unlockWrite(stamp);
 		}
 	}
 
+	/**
+	 * Size of the active map and the pipeline.
+	 */
 	public long getDataSize() {
-		return dataSize.get();
+		return state.getDataSize();
 	}
 
 	public boolean isFlushing() {
 		return isImmutableMapFlushing.get();
 	}
 
-	public ConcurrentSkipListMap<KeyValue, KeyValue>[] getMemStoreMaps() {
-		updateLock.readLock().lock();
-		try {
-			return new ConcurrentSkipListMap[] {kvMap, kvImmutableMap};
-		} finally {
-			updateLock.readLock().unlock();
+	/**
+	 * Snapshots waiting to be flushed, including the one being flushed.
+	 */
+	public int getFlushQueueSize() {
+		return state.flushQueue.size();
+	}
+
+	public WriteController getWriteController() {
+		return writeController;
+	}
+
+	/**
+	 * A read at an older version may miss versions dropped by EAGER compaction. Once a get or
+	 * an iterator created at a version is not older than it, they saw every version they can.
+	 */
+	public long getMinReadVersion() {
+		return minReadVersion.get();
+	}
+
+	/**
+	 * Raise getMinReadVersion, to versions already dropped before memStore was created.
+	 */
+	public void setMinReadVersion(long version) {
+		minReadVersion.accumulate(version);
+	}
+
+	/**
+	 * A version from get newer than it is newer than any version of the key on disk.
+	 */
+	public long getFlushedMaxSeqId() {
+		return flushedMaxSeqId;
+	}
+
+	/**
+	 * Newest version of key visible at version, a put or a delete, null if none is in memory.
+	 * Looked up in each map and segment, without merging them.
+	 */
+	public KeyValue get(byte[] key, long version) {
+		KeyValue target = KeyValue.createDelete(key, version);
+		long stamp = reclaimLock.tryOptimisticRead();
+		KeyValue kv = get(state, target, key);
+		if (!reclaimLock.validate(stamp)) {
+			// chunks read may have been reused.
+			stamp = reclaimLock.readLock();
+			try {
+				kv = get(state, target, key);
+			} finally {
+				reclaimLock.unlockRead(stamp);
+			}
+		}
+		return kv;
+	}
+
+	private static KeyValue get(State state, KeyValue target, byte[] key) {
+		KeyValue found = newer(null, state.active.map.ceilingKey(target), key);
+		for (Segment segment : state.pipeline) {
+			found = newer(found, segment.ceiling(target), key);
+		}
+		for (Snapshot snapshot : state.flushQueue) {
+			for (Segment segment : snapshot.segments) {
+				found = newer(found, segment.ceiling(target), key);
+			}
+		}
+		return found == null ? null : found.detach();
+	}
+
+	private static KeyValue newer(KeyValue found, KeyValue kv, byte[] key) {
+		if (kv == null || kv.compareKey(key) != 0) {
+			return found;
 		}
+		return found == null || kv.getSequenceId() > found.getSequenceId() ? kv : found;
+	}
+
+	/**
+	 * Immutable segments kept in memory, not counting the one being flushed.
+	 */
+	public int getPipelineSize() {
+		return state.pipeline.size();
+	}
+
+	boolean isPipelineCompacted() {
+		return !isInMemoryCompacting.get() && !needsInMemoryCompaction();
+	}
+
+	public ConcurrentSkipListMap<KeyValue, KeyValue> getActiveMap() {
+		return state.active.map;
+	}
+
+	/**
+	 * null without MSLAB.
+	 */
+	public MemStoreLAB.ChunkPool getChunkPool() {
+		return chunkPool;
 	}
 
 	public SeekIter<KeyValue> createIterator() throws IOException {
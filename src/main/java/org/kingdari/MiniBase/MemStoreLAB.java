@@ -0,0 +1,147 @@
+package org.kingdari.MiniBase;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * MemStore local allocation buffer. Keys and values of a memStore are copied into large
+ * chunks, so the memStore holds a few big arrays instead of two small ones per kv, and
+ * the chunks are reused by later memStores instead of being collected.
+ * The owner and every reader hold a reference, chunks go back to the pool with the last one.
+ */
+public class MemStoreLAB {
+
+	/**
+	 * Free chunks shared by the memStores of one store.
+	 */
+	public static class ChunkPool {
+		private final int chunkSize;
+		private final int maxChunks;
+		private final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final AtomicInteger createdCount = new AtomicInteger();
+
+		public ChunkPool(int chunkSize, int maxChunks) {
+			this.chunkSize = chunkSize;
+			this.maxChunks = maxChunks;
+		}
+
+		byte[] take() {
+			byte[] chunk = chunks.poll();
+			if (chunk != null) {
+				size.decrementAndGet();
+				return chunk;
+			}
+			createdCount.incrementAndGet();
+			return new byte[chunkSize];
+		}
+
+		void put(byte[] chunk) {
+			if (size.incrementAndGet() <= maxChunks) {
+				chunks.offer(chunk);
+			} else {
+				size.decrementAndGet();
+			}
+		}
+
+		public int getChunkSize() {
+			return chunkSize;
+		}
+
+		public int getPooledCount() {
+			return size.get();
+		}
+
+		public int getCreatedCount() {
+			return createdCount.get();
+		}
+	}
+
+	private static class Chunk {
+		private final byte[] data;
+		private final AtomicInteger nextFree = new AtomicInteger();
+
+		private Chunk(byte[] data) {
+			this.data = data;
+		}
+
+		/**
+		 * @return offset of len bytes, -1 if the chunk is full.
+		 */
+		private int alloc(int len) {
+			while (true) {
+				int offset = nextFree.get();
+				if (offset + len > data.length) {
+					return -1;
+				}
+				if (nextFree.compareAndSet(offset, offset + len)) {
+					return offset;
+				}
+			}
+		}
+	}
+
+	private final ChunkPool pool;
+	// larger kvs are kept as they are, so a chunk is never mostly wasted.
+	private final int maxAlloc;
+	private final AtomicReference<Chunk> current = new AtomicReference<>();
+	private final ConcurrentLinkedQueue<byte[]> usedChunks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger refCount = new AtomicInteger(1);
+
+	public MemStoreLAB(ChunkPool pool) {
+		this.pool = pool;
+		this.maxAlloc = pool.getChunkSize() / 4;
+	}
+
+	/**
+	 * A kv over a copy of key and value in a chunk, or kv itself if it is too large.
+	 */
+	public KeyValue copy(KeyValue kv) {
+		int keyLen = kv.getKeyLength();
+		int len = keyLen + kv.getValueLength();
+		if (len > maxAlloc) {
+			return kv;
+		}
+		Chunk chunk;
+		int offset;
+		while (true) {
+			chunk = current.get();
+			if (chunk != null && (offset = chunk.alloc(len)) >= 0) {
+				break;
+			}
+			Chunk next = new Chunk(pool.take());
+			if (current.compareAndSet(chunk, next)) {
+				usedChunks.offer(next.data);
+			} else {
+				pool.put(next.data);
+			}
+		}
+		kv.copyTo(chunk.data, offset);
+		return KeyValue.wrap(chunk.data, offset, keyLen, offset + keyLen, kv.getValueLength(),
+				kv.getOp(), kv.getSequenceId());
+	}
+
+	public void retain() {
+		refCount.incrementAndGet();
+	}
+
+	/**
+	 * Kvs copied by this lab must not be used after the last release.
+	 */
+	public void release() {
+		int count = refCount.decrementAndGet();
+		assert count >= 0;
+		if (count == 0) {
+			current.set(null);
+			byte[] chunk;
+			while ((chunk = usedChunks.poll()) != null) {
+				pool.put(chunk);
+			}
+		}
+	}
+
+	public int getChunkCount() {
+		return usedChunks.size();
+	}
+}
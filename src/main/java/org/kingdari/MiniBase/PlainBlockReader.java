@@ -0,0 +1,97 @@
+package org.kingdari.MiniBase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static org.kingdari.MiniBase.BlockWriter.CHECKSUM_LEN;
+import static org.kingdari.MiniBase.BlockWriter.KV_SIZE_LEN;
+import static org.kingdari.MiniBase.KeyValue.OP_SIZE;
+import static org.kingdari.MiniBase.KeyValue.RAW_KEY_LEN_SIZE;
+import static org.kingdari.MiniBase.KeyValue.SEQ_ID_SIZE;
+import static org.kingdari.MiniBase.KeyValue.VAL_LEN_SIZE;
+
+/**
+ * A PLAIN block with the offset of each kv, found in one pass over the lengths of the kvs.
+ */
+public class PlainBlockReader extends IndexedBlockReader {
+
+	private static final int HEADER_SIZE = RAW_KEY_LEN_SIZE + VAL_LEN_SIZE;
+
+	private final int[] offsets;
+
+	private PlainBlockReader(byte[] block, int[] offsets) {
+		super(block, offsets.length, block.length + 4L * offsets.length);
+		this.offsets = offsets;
+	}
+
+	public static PlainBlockReader parseFrom(byte[] buffer, int offset, int size) throws IOException {
+		byte[] block = buffer;
+		if (offset != 0 || size != buffer.length) {
+			// kvs wrap the block, keep only its own bytes.
+			block = new byte[size];
+			System.arraycopy(buffer, offset, block, 0, size);
+		}
+		if (size < KV_SIZE_LEN + CHECKSUM_LEN) {
+			throw new IOException("Corrupted block, size: " + size);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(block);
+		int kvCount = ByteUtils.getInt(buf, 0);
+		int end = size - CHECKSUM_LEN;
+		if (kvCount < 0 || kvCount > (end - KV_SIZE_LEN) / (HEADER_SIZE + OP_SIZE + SEQ_ID_SIZE)) {
+			throw new IOException("Corrupted block, kv count: " + kvCount);
+		}
+		int[] offsets = new int[kvCount];
+		int pos = KV_SIZE_LEN;
+		for (int i = 0; i < kvCount; i++) {
+			if (pos + HEADER_SIZE > end) {
+				throw new IOException("Corrupted block at " + pos);
+			}
+			int rawKeyLen = ByteUtils.getInt(buf, pos);
+			int valLen = ByteUtils.getInt(buf, pos + RAW_KEY_LEN_SIZE);
+			if (rawKeyLen < OP_SIZE + SEQ_ID_SIZE || valLen < 0 || (long) rawKeyLen + valLen > end - pos - HEADER_SIZE) {
+				throw new IOException("Corrupted block at " + pos);
+			}
+			offsets[i] = pos;
+			pos += HEADER_SIZE + rawKeyLen + valLen;
+		}
+		if (pos != end) {
+			throw new IOException("Corrupted block, pos: " + pos + ", size: " + size);
+		}
+		int checksum = ByteUtils.getInt(buf, end);
+		Checksum crc32 = new CRC32();
+		crc32.update(block, KV_SIZE_LEN, end - KV_SIZE_LEN);
+		assert checksum == (int) crc32.getValue();
+		return new PlainBlockReader(block, offsets);
+	}
+
+	private int keyLength(int pos) {
+		return ByteUtils.getInt(buf, pos) - OP_SIZE - SEQ_ID_SIZE;
+	}
+
+	@Override
+	protected long getSequenceId(int index) {
+		int pos = offsets[index];
+		return ByteUtils.getLong(buf, pos + HEADER_SIZE + keyLength(pos) + OP_SIZE);
+	}
+
+	@Override
+	protected int compare(int index, KeyValue target) {
+		int pos = offsets[index];
+		int keyLen = keyLength(pos);
+		int opPos = pos + HEADER_SIZE + keyLen;
+		return -target.compareTo(block, pos + HEADER_SIZE, keyLen, block[opPos],
+				ByteUtils.getLong(buf, opPos + OP_SIZE));
+	}
+
+	@Override
+	protected KeyValue get(int index) {
+		int pos = offsets[index];
+		int keyLen = keyLength(pos);
+		int opPos = pos + HEADER_SIZE + keyLen;
+		int valuePos = opPos + OP_SIZE + SEQ_ID_SIZE;
+		return KeyValue.wrap(block, pos + HEADER_SIZE, keyLen, valuePos, ByteUtils.getInt(buf, pos + RAW_KEY_LEN_SIZE),
+				KeyValue.Op.codeToOp(block[opPos]), ByteUtils.getLong(buf, opPos + OP_SIZE));
+	}
+}
@@ -0,0 +1,204 @@
+package org.kingdari.MiniBase;
+
+import org.kingdari.MiniBase.MStore.SeekIter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+import static org.kingdari.MiniBase.BlockWriter.CHECKSUM_LEN;
+import static org.kingdari.MiniBase.BlockWriter.ENCODING_LEN;
+import static org.kingdari.MiniBase.BlockWriter.KV_SIZE_LEN;
+import static org.kingdari.MiniBase.BlockWriter.RESTART_LEN;
+
+/**
+ * A PREFIX block kept as it is, see BlockWriter. Kvs are decoded while iterating, each owning
+ * its key, with the value a range of the block.
+ */
+public class PrefixBlockReader extends BlockReader {
+
+	private class PrefixBlockIterator implements SeekIter<KeyValue> {
+		private final KeyValueFilter filter;
+		private final ByteBuffer buf;
+		private byte[] prevKey;
+		private KeyValue next;
+
+		PrefixBlockIterator(KeyValueFilter filter) {
+			this.filter = filter;
+			this.buf = ByteBuffer.wrap(block, 0, entriesEnd);
+			this.buf.position(entriesStart);
+			this.prevKey = ByteUtils.EMPTY_BYTES;
+		}
+
+		private KeyValue decode() throws IOException {
+			int shared = ByteUtils.getVarInt(buf);
+			int unshared = ByteUtils.getVarInt(buf);
+			int valueLen = ByteUtils.getVarInt(buf);
+			KeyValue.Op op = KeyValue.Op.codeToOp(buf.get());
+			long sequenceId = ByteUtils.getLong(buf);
+			if (shared > prevKey.length || unshared > buf.remaining() || valueLen > buf.remaining() - unshared) {
+				throw new IOException("Corrupted block entry at " + buf.position());
+			}
+			byte[] key = new byte[shared + unshared];
+			System.arraycopy(prevKey, 0, key, 0, shared);
+			buf.get(key, shared, unshared);
+			KeyValue kv = KeyValue.wrap(key, block, buf.position(), valueLen, op, sequenceId);
+			buf.position(buf.position() + valueLen);
+			prevKey = key;
+			return kv;
+		}
+
+		@Override
+		public void seekTo(KeyValue target) throws IOException {
+			// last restart before target, kvs from it on are decoded until target.
+			int l = 0, r = restarts.length - 1, start = 0;
+			while (l <= r) {
+				int m = (r - l) / 2 + l;
+				if (compareRestart(m, target) < 0) {
+					start = m;
+					l = m + 1;
+				} else {
+					r = m - 1;
+				}
+			}
+			buf.position(restarts.length == 0 ? entriesEnd : restarts[start]);
+			prevKey = ByteUtils.EMPTY_BYTES;
+			next = null;
+			while (buf.hasRemaining()) {
+				KeyValue kv = decode();
+				if (kv.compareTo(target) >= 0) {
+					next = kv;
+					break;
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() throws IOException {
+			while (next == null || !filter.isVisible(next)) {
+				if (!buf.hasRemaining()) {
+					next = null;
+					return false;
+				}
+				next = decode();
+			}
+			return true;
+		}
+
+		@Override
+		public KeyValue next() throws IOException {
+			if (!hasNext()) {
+				return null;
+			}
+			KeyValue kv = next;
+			next = null;
+			return kv;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	private final byte[] block;
+	private final int kvCount;
+	private final int entriesStart;
+	private final int entriesEnd;
+	private final int[] restarts;
+
+	private PrefixBlockReader(byte[] block, int kvCount, int entriesStart, int entriesEnd, int[] restarts) {
+		super(block.length);
+		this.block = block;
+		this.kvCount = kvCount;
+		this.entriesStart = entriesStart;
+		this.entriesEnd = entriesEnd;
+		this.restarts = restarts;
+	}
+
+	public static PrefixBlockReader parseFrom(byte[] buffer, int offset, int size) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(buffer, offset, size);
+		if (size < ENCODING_LEN + KV_SIZE_LEN + RESTART_LEN + CHECKSUM_LEN ||
+				buf.get() != Config.BLOCK_ENCODING.PREFIX.getCode()) {
+			throw new IOException("Not a prefix block");
+		}
+		int kvCount = ByteUtils.getInt(buf);
+		int end = offset + size;
+		int restartCount = ByteUtils.getInt(buf, end - CHECKSUM_LEN - RESTART_LEN);
+		int entriesEnd = end - CHECKSUM_LEN - RESTART_LEN * (restartCount + 1);
+		if (kvCount < 0 || restartCount < 0 || entriesEnd < buf.position()) {
+			throw new IOException("Corrupted prefix block");
+		}
+		int[] restarts = new int[restartCount];
+		for (int i = 0; i < restartCount; i++) {
+			restarts[i] = offset + ByteUtils.getInt(buf, entriesEnd + RESTART_LEN * i);
+		}
+		int checksum = ByteUtils.getInt(buf, end - CHECKSUM_LEN);
+		Checksum crc32 = new CRC32();
+		crc32.update(buffer, buf.position(), entriesEnd - buf.position());
+		assert checksum == (int) crc32.getValue();
+
+		if (offset != 0 || size != buffer.length) {
+			// kvs wrap the block, keep only its own bytes.
+			byte[] block = new byte[size];
+			System.arraycopy(buffer, offset, block, 0, size);
+			for (int i = 0; i < restartCount; i++) {
+				restarts[i] -= offset;
+			}
+			return new PrefixBlockReader(block, kvCount, buf.position() - offset, entriesEnd - offset, restarts);
+		}
+		return new PrefixBlockReader(buffer, kvCount, buf.position(), entriesEnd, restarts);
+	}
+
+	/**
+	 * Compare the kv at a restart point, whose key is in full, to target without decoding it.
+	 */
+	private int compareRestart(int restart, KeyValue target) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(block, 0, entriesEnd);
+		buf.position(restarts[restart]);
+		ByteUtils.getVarInt(buf);
+		int keyLen = ByteUtils.getVarInt(buf);
+		ByteUtils.getVarInt(buf);
+		byte op = buf.get();
+		long sequenceId = ByteUtils.getLong(buf);
+		return -target.compareTo(block, buf.position(), keyLen, op, sequenceId);
+	}
+
+	public int getKvCount() {
+		return kvCount;
+	}
+
+	public int getRestartCount() {
+		return restarts.length;
+	}
+
+	@Override
+	public List<KeyValue> getKeyValues() throws IOException {
+		List<KeyValue> kvs = new ArrayList<>(kvCount);
+		try (SeekIter<KeyValue> iter = iterator(KeyValueFilter.createEmptyFilter())) {
+			while (iter.hasNext()) {
+				kvs.add(iter.next());
+			}
+		}
+		return kvs;
+	}
+
+	@Override
+	public KeyValue seek(KeyValue target) throws IOException {
+		SeekIter<KeyValue> iter = iterator(KeyValueFilter.createEmptyFilter());
+		iter.seekTo(target);
+		return iter.hasNext() ? iter.next() : null;
+	}
+
+	@Override
+	public SeekIter<KeyValue> iterator(KeyValueFilter filter) {
+		return new PrefixBlockIterator(filter);
+	}
+
+	@Override
+	public int hashCode() {
+		return Integer.hashCode(kvCount);
+	}
+}
@@ -1,31 +1,92 @@
 package org.kingdari.MiniBase;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class ReadLogWal implements LogEntry {
 
-	private KeyValue kv;
+	private List<KeyValue> kvs;
+	private int serializedSize;
 	private boolean consumed;
 
-	ReadLogWal(KeyValue kv) {
-		this.kv = kv;
+	ReadLogWal(List<KeyValue> kvs, int serializedSize) {
+		this.kvs = kvs;
+		this.serializedSize = serializedSize;
 		this.consumed = false;
 	}
 
 	public int getSerializedSize() {
-		return kv.getSerializedSize();
+		return serializedSize;
 	}
 
 	public byte[] toBytes() {
-		return kv.toBytes();
+		ByteBuffer buf = ByteBuffer.allocate(serializedSize);
+		WriteLogWal.writeTo(buf, kvs, kvs.get(0).getSequenceId(), serializedSize);
+		return buf.array();
 	}
 
-	public KeyValue getKv() {
-		return kv;
+	/**
+	 * In sequence order, applied as a whole.
+	 */
+	public List<KeyValue> getKvs() {
+		return kvs;
 	}
 
-	public static ReadLogWal parseFrom(byte[] bytes, int offset) throws IOException {
-		return new ReadLogWal(KeyValue.parseFrom(bytes, offset));
+	/**
+	 * The last sequence id.
+	 */
+	public long getSeq() {
+		return kvs.get(kvs.size() - 1).getSequenceId();
+	}
+
+	/**
+	 * Size of the complete record at the position of buf, or -1 if it is torn or invalid.
+	 * Does not move the position.
+	 */
+	public static int recordSize(ByteBuffer buf) {
+		int headerSize = KeyValue.RAW_KEY_LEN_SIZE + KeyValue.VAL_LEN_SIZE;
+		int offset = buf.position();
+		if (buf.remaining() < headerSize) {
+			return -1;
+		}
+		int first = ByteUtils.getInt(buf, offset);
+		int second = ByteUtils.getInt(buf, offset + KeyValue.RAW_KEY_LEN_SIZE);
+		long size;
+		if (first < 0) {
+			// batch: -count, bodyLen.
+			size = (long) WriteLogWal.BATCH_HEADER_SIZE + second;
+			if (second < 0) {
+				return -1;
+			}
+		} else {
+			size = (long) headerSize + first + second;
+			if (first < KeyValue.OP_SIZE + KeyValue.SEQ_ID_SIZE || second < 0) {
+				return -1;
+			}
+		}
+		return size > buf.remaining() ? -1 : (int) size;
+	}
+
+	/**
+	 * Read one record at the position of buf and advance it.
+	 */
+	public static ReadLogWal readFrom(ByteBuffer buf) throws IOException {
+		int start = buf.position();
+		int first = ByteUtils.getInt(buf, start);
+		if (first >= 0) {
+			KeyValue kv = KeyValue.readFrom(buf);
+			return new ReadLogWal(Collections.singletonList(kv), buf.position() - start);
+		}
+		int count = -first;
+		buf.position(start + WriteLogWal.BATCH_HEADER_SIZE);
+		List<KeyValue> kvs = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			kvs.add(KeyValue.readFrom(buf));
+		}
+		return new ReadLogWal(kvs, buf.position() - start);
 	}
 
 	@Override
@@ -46,6 +107,6 @@ public class ReadLogWal implements LogEntry {
 
 	@Override
 	public String toString() {
-		return "LogWal{" + kv + '}';
+		return "LogWal{" + kvs + '}';
 	}
 }
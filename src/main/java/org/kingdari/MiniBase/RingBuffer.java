@@ -0,0 +1,265 @@
+package org.kingdari.MiniBase;
+
+import org.kingdari.MiniBase.Config.WAIT_STRATEGY;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded multi-producer single-consumer queue over a preallocated array.
+ * Producers claim a sequence by CAS on cursor, fill the slot, then publish it by
+ * storing the round number (seq / capacity) of the slot. The consumer reads
+ * published slots in sequence order and releases them by advancing consumed.
+ * Once closed, producers waiting for space give up, and the consumer gets what is published,
+ * then null. Every wait strategy checks for close, BUSY_SPIN and YIELD keep a core busy
+ * while they wait.
+ */
+public class RingBuffer<E> {
+
+	private static final long PRODUCER_PARK_NANOS = 1000L;
+	// PARK spins and yields for a while before parking, most waits are short.
+	private static final int PARK_SPIN_TRIES = 100;
+	private static final int PARK_YIELD_TRIES = 200;
+
+	private final Object[] entries;
+	private final int capacity;
+	private final int mask;
+	private final int indexShift;
+	// round number of the sequence last published in each slot.
+	private final AtomicIntegerArray published;
+	private final WAIT_STRATEGY waitStrategy;
+
+	// last claimed sequence.
+	private final AtomicLong cursor;
+	// last consumed sequence, producers never claim past consumed + capacity.
+	private final AtomicLong consumed;
+	// producer side cache of consumed, avoid reading it on every claim.
+	private volatile long cachedConsumed;
+	// only touched by the consumer.
+	private long nextRead;
+	private volatile Thread waitingConsumer;
+	private volatile boolean closed;
+
+	public RingBuffer(int capacity, WAIT_STRATEGY waitStrategy) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+		}
+		this.entries = new Object[capacity];
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.indexShift = Integer.numberOfTrailingZeros(capacity);
+		this.published = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1);
+		}
+		this.waitStrategy = waitStrategy;
+		this.cursor = new AtomicLong(-1L);
+		this.consumed = new AtomicLong(-1L);
+		this.cachedConsumed = -1L;
+		this.nextRead = 0L;
+	}
+
+	/**
+	 * Concurrent. Wait by waitStrategy while the buffer is full.
+	 *
+	 * @return false if closed, e is not queued.
+	 */
+	public boolean put(E e) {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		long seq;
+		int tries = 0;
+		while (true) {
+			if (closed) {
+				return false;
+			}
+			long current = cursor.get();
+			seq = current + 1;
+			long wrapPoint = seq - capacity;
+			if (wrapPoint > cachedConsumed) {
+				long c = consumed.get();
+				cachedConsumed = c;
+				if (wrapPoint > c) {
+					waitForSpace(tries++);
+					continue;
+				}
+			}
+			if (cursor.compareAndSet(current, seq)) {
+				break;
+			}
+		}
+		int slot = (int) seq & mask;
+		entries[slot] = e;
+		published.set(slot, (int) (seq >>> indexShift));
+
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	public void addAll(Collection<? extends E> c) {
+		for (E e : c) {
+			put(e);
+		}
+	}
+
+	private void waitForSpace(int tries) {
+		switch (waitStrategy) {
+			case BUSY_SPIN:
+				break;
+			case YIELD:
+				Thread.yield();
+				break;
+			case PARK:
+				if (tries < PARK_SPIN_TRIES) {
+					break;
+				}
+				if (tries < PARK_YIELD_TRIES) {
+					Thread.yield();
+					break;
+				}
+				LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+				break;
+		}
+	}
+
+	private boolean isAvailable(long seq) {
+		return published.get((int) seq & mask) == (int) (seq >>> indexShift);
+	}
+
+	/**
+	 * @param nanos < 0 means no timeout.
+	 * @return false if timeout, or closed and seq is never claimed.
+	 */
+	private boolean waitFor(long seq, long nanos) throws InterruptedException {
+		long deadline = System.nanoTime() + nanos;
+		int tries = 0;
+		while (!isAvailable(seq)) {
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+			// a claimed one is being published.
+			if (closed && seq > cursor.get()) {
+				return false;
+			}
+			long remain = deadline - System.nanoTime();
+			if (nanos >= 0 && remain <= 0) {
+				return false;
+			}
+			switch (waitStrategy) {
+				case BUSY_SPIN:
+					break;
+				case YIELD:
+					Thread.yield();
+					break;
+				case PARK:
+					if (tries < PARK_SPIN_TRIES) {
+						tries++;
+						break;
+					}
+					if (tries < PARK_YIELD_TRIES) {
+						tries++;
+						Thread.yield();
+						break;
+					}
+					// producers read waitingConsumer after publishing, so one of us sees the other.
+					waitingConsumer = Thread.currentThread();
+					if (!isAvailable(seq) && !closed) {
+						if (nanos < 0) {
+							LockSupport.park(this);
+						} else {
+							LockSupport.parkNanos(this, remain);
+						}
+					}
+					waitingConsumer = null;
+					break;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private E consume() {
+		int slot = (int) nextRead & mask;
+		E e = (E) entries[slot];
+		entries[slot] = null;
+		nextRead++;
+		return e;
+	}
+
+	/**
+	 * Single consumer only.
+	 *
+	 * @return null once closed and drained.
+	 */
+	public E take() throws InterruptedException {
+		if (!waitFor(nextRead, -1L)) {
+			return null;
+		}
+		E e = consume();
+		consumed.lazySet(nextRead - 1);
+		return e;
+	}
+
+	/**
+	 * Single consumer only.
+	 *
+	 * @return null if timeout, or closed and drained.
+	 */
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!waitFor(nextRead, unit.toNanos(timeout))) {
+			return null;
+		}
+		E e = consume();
+		consumed.lazySet(nextRead - 1);
+		return e;
+	}
+
+	/**
+	 * Single consumer only. Move published entries to c without waiting.
+	 */
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		int n = 0;
+		while (n < maxElements && isAvailable(nextRead)) {
+			c.add(consume());
+			n++;
+		}
+		if (n > 0) {
+			consumed.lazySet(nextRead - 1);
+		}
+		return n;
+	}
+
+	/**
+	 * Stop taking entries, once producers are done. Producers still waiting for space give up.
+	 */
+	public void close() {
+		closed = true;
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	public boolean isEmpty() {
+		return consumed.get() == cursor.get();
+	}
+
+	public int size() {
+		return (int) (cursor.get() - consumed.get());
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+}
@@ -1,12 +1,72 @@
 package org.kingdari.MiniBase;
 
+import org.kingdari.MiniBase.Config.WAL_LEVEL;
+
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 public interface Store extends Closeable {
-	void put(byte[] key, byte[] value) throws IOException;
+	/**
+	 * @return future of the sequence id, completed once the put is visible to readers.
+	 * Dependent stages run on the log consumer thread unless an async variant is used.
+	 */
+	CompletableFuture<Long> putAsync(byte[] key, byte[] value);
+
+	CompletableFuture<Long> deleteAsync(byte[] key);
+
+	/**
+	 * Apply all entries of batch atomically.
+	 * @return future of the last sequence id of the batch.
+	 */
+	CompletableFuture<Long> writeAsync(WriteBatch batch);
+
+	/**
+	 * Same as putAsync(key, value), logged with walLevel instead of the configured one.
+	 */
+	CompletableFuture<Long> putAsync(byte[] key, byte[] value, WAL_LEVEL walLevel);
+
+	CompletableFuture<Long> deleteAsync(byte[] key, WAL_LEVEL walLevel);
+
+	CompletableFuture<Long> writeAsync(WriteBatch batch, WAL_LEVEL walLevel);
+
+	default void put(byte[] key, byte[] value) throws IOException {
+		join(putAsync(key, value));
+	}
+
+	default void delete(byte[] key) throws IOException {
+		join(deleteAsync(key));
+	}
 
-	void delete(byte[] key) throws IOException;
+	default void write(WriteBatch batch) throws IOException {
+		join(writeAsync(batch));
+	}
+
+	default void put(byte[] key, byte[] value, WAL_LEVEL walLevel) throws IOException {
+		join(putAsync(key, value, walLevel));
+	}
+
+	default void delete(byte[] key, WAL_LEVEL walLevel) throws IOException {
+		join(deleteAsync(key, walLevel));
+	}
+
+	default void write(WriteBatch batch, WAL_LEVEL walLevel) throws IOException {
+		join(writeAsync(batch, walLevel));
+	}
+
+	static long join(CompletableFuture<Long> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for write");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		}
+	}
 
 	KeyValue get(KeyValueFilter filter) throws IOException;
 
@@ -25,7 +85,10 @@ public interface Store extends Closeable {
 	}
 
 	interface Flusher {
-		void flush(Iter<KeyValue> iter) throws IOException;
+		/**
+		 * @param maxSeqId all entries with sequence id <= maxSeqId are in iter or already flushed.
+		 */
+		void flush(Iter<KeyValue> iter, long maxSeqId) throws IOException;
 	}
 
 	abstract class Compactor extends Thread {
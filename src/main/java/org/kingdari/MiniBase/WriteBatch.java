@@ -0,0 +1,46 @@
+package org.kingdari.MiniBase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts and deletes written as one log record, with a contiguous range of sequence ids.
+ * Readers see either all of them or none. Not thread safe.
+ */
+public class WriteBatch {
+
+	private final List<KeyValue> kvs;
+
+	public WriteBatch() {
+		this.kvs = new ArrayList<>();
+	}
+
+	public WriteBatch put(byte[] key, byte[] value) {
+		kvs.add(KeyValue.createPut(key, value, 0L));
+		return this;
+	}
+
+	public WriteBatch delete(byte[] key) {
+		kvs.add(KeyValue.createDelete(key, 0L));
+		return this;
+	}
+
+	public int size() {
+		return kvs.size();
+	}
+
+	public boolean isEmpty() {
+		return kvs.isEmpty();
+	}
+
+	public void clear() {
+		kvs.clear();
+	}
+
+	/**
+	 * Entries without sequence id, in the order they were added.
+	 */
+	List<KeyValue> getKvs() {
+		return kvs;
+	}
+}
@@ -0,0 +1,208 @@
+package org.kingdari.MiniBase;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Slow down and stop writes to memStore while too much of it waits to be flushed.
+ * Above the slowdown size, writes share a rate which drops linearly from delayedWriteRate
+ * to a sixteenth of it at the stop size. At the stop size, writes wait for a flush.
+ */
+public class WriteController {
+
+	private static final Logger LOG = Logger.getLogger(WriteController.class);
+	// a write stopped by a failed flush waits this long before the flush is retried.
+	private static final long FLUSH_RETRY_MILLIS = 100;
+
+	private final long slowdownSize;
+	private final long stopSize;
+	private final long delayedWriteRate;
+
+	// bytes of memStore waiting to be flushed, written under lock.
+	private volatile long pendingFlushSize;
+	private volatile boolean flushFailed;
+	private volatile boolean closed;
+	// when the next delayed write may go, guarded by lock.
+	private long nextWriteNanos;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition flushed = lock.newCondition();
+
+	private final AtomicLong delayedWrites = new AtomicLong();
+	private final AtomicLong delayNanos = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong stallNanos = new AtomicLong();
+
+	public WriteController(Config conf) {
+		this((long) (conf.getMaxMemStoreSize() * conf.getMemStoreSlowdownMultiplier()),
+				(long) (conf.getMaxMemStoreSize() * conf.getMemStoreStopMultiplier()),
+				conf.getDelayedWriteRate());
+	}
+
+	public WriteController(long slowdownSize, long stopSize, long delayedWriteRate) {
+		this.slowdownSize = slowdownSize;
+		this.stopSize = Math.max(stopSize, slowdownSize + 1);
+		this.delayedWriteRate = delayedWriteRate;
+	}
+
+	/**
+	 * Called before writing size bytes. Waits while writes are stopped, then for the turn
+	 * of the write while they are slowed down. A write stopped by a failed flush keeps
+	 * waiting, as its entry may already be logged.
+	 *
+	 * @return false if writes are stopped and the last flush failed: retry the flush, then
+	 * throttle again.
+	 * @throws IOException if writes are stopped by a failed flush once closed.
+	 */
+	public boolean throttle(long size) throws IOException {
+		if (pendingFlushSize <= slowdownSize) {
+			return true;
+		}
+		long deadline;
+		lock.lock();
+		try {
+			if (pendingFlushSize >= stopSize) {
+				long start = System.nanoTime();
+				stalls.incrementAndGet();
+				try {
+					while (pendingFlushSize >= stopSize) {
+						if (!flushFailed) {
+							flushed.await();
+							continue;
+						} else if (closed) {
+							throw new IOException("MemStore flush failed, writes are stopped");
+						}
+						flushed.await(FLUSH_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+						if (flushFailed && pendingFlushSize >= stopSize) {
+							return false;
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while writes are stopped");
+				} finally {
+					long stall = System.nanoTime() - start;
+					stallNanos.addAndGet(stall);
+					if (LOG.isDebugEnabled()) {
+						LOG.debug("Write stalled for " + TimeUnit.NANOSECONDS.toMillis(stall) + " ms");
+					}
+				}
+			}
+			long pending = pendingFlushSize;
+			if (pending <= slowdownSize) {
+				return true;
+			}
+			long rate = Math.max(delayedWriteRate / 16,
+					(long) (delayedWriteRate * (double) (stopSize - pending) / (stopSize - slowdownSize)));
+			long now = System.nanoTime();
+			deadline = Math.max(now, nextWriteNanos);
+			nextWriteNanos = deadline + (long) (size * 1e9 / Math.max(1L, rate));
+		} finally {
+			lock.unlock();
+		}
+
+		long start = System.nanoTime();
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, remaining);
+			if (Thread.interrupted()) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while writes are slowed down");
+			}
+		}
+		delayedWrites.incrementAndGet();
+		delayNanos.addAndGet(System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * A memStore of size bytes is queued for flush.
+	 */
+	public void addPendingFlush(long size) {
+		lock.lock();
+		try {
+			pendingFlushSize += size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * A memStore of size bytes is flushed.
+	 */
+	public void removePendingFlush(long size) {
+		lock.lock();
+		try {
+			pendingFlushSize -= size;
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stopped writes return from throttle to retry the flush while it is failed.
+	 */
+	public void setFlushFailed(boolean flushFailed) {
+		lock.lock();
+		try {
+			this.flushFailed = flushFailed;
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes stopped by a failed flush fail instead of waiting for it to be retried.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			flushed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getPendingFlushSize() {
+		return pendingFlushSize;
+	}
+
+	public boolean isWriteStopped() {
+		return pendingFlushSize >= stopSize;
+	}
+
+	public boolean isWriteDelayed() {
+		return pendingFlushSize > slowdownSize;
+	}
+
+	/**
+	 * Writes which waited for their turn while writes were slowed down.
+	 */
+	public long getDelayedWriteCount() {
+		return delayedWrites.get();
+	}
+
+	public long getDelayNanos() {
+		return delayNanos.get();
+	}
+
+	/**
+	 * Writes which waited for a flush while writes were stopped.
+	 */
+	public long getStallCount() {
+		return stalls.get();
+	}
+
+	public long getStallNanos() {
+		return stallNanos.get();
+	}
+}
@@ -1,69 +1,139 @@
 package org.kingdari.MiniBase;
 
+import org.kingdari.MiniBase.Config.WAL_LEVEL;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A single put/delete is logged as a bare kv.
+ * A batch is logged as: -count(4) bodyLen(4) kv...
+ */
 public class WriteLogWal implements LogEntry {
 
-	public static WriteLogWal createPutWal(byte[] key, byte[] value) {
-		return new WriteLogWal(key, value, KeyValue.Op.Put);
+	public static final int BATCH_HEADER_SIZE = 8;
+
+	public static WriteLogWal createPutWal(byte[] key, byte[] value, WAL_LEVEL walLevel) {
+		return new WriteLogWal(Collections.singletonList(KeyValue.createPut(key, value, 0L)), walLevel);
 	}
 
-	public static WriteLogWal createDeleteWal(byte[] key) {
-		return new WriteLogWal(key, ByteUtils.EMPTY_BYTES, KeyValue.Op.Delete);
+	public static WriteLogWal createDeleteWal(byte[] key, WAL_LEVEL walLevel) {
+		return new WriteLogWal(Collections.singletonList(KeyValue.createDelete(key, 0L)), walLevel);
 	}
 
-	private KeyValue.Op op;
-	private byte[] key;
-	private byte[] value;
+	public static WriteLogWal createBatchWal(WriteBatch batch, WAL_LEVEL walLevel) {
+		return new WriteLogWal(new ArrayList<>(batch.getKvs()), walLevel);
+	}
+
+	// without sequence id, first + i is assigned at encoding.
+	private final List<KeyValue> kvs;
 	private long seq;
-	private KeyValue kv;
-	private volatile boolean waiting;
+	private final int serializedSize;
+	private final WAL_LEVEL walLevel;
+	// completed with seq by the log consumer once kvs are visible in memStore.
+	private final CompletableFuture<Long> future;
 
-	private WriteLogWal(byte[] key, byte[] value, KeyValue.Op op) {
-		this.key = key;
-		this.value = value;
-		this.op = op;
-		this.waiting = true;
+	private WriteLogWal(List<KeyValue> kvs, WAL_LEVEL walLevel) {
+		assert !kvs.isEmpty();
+		this.kvs = kvs;
+		this.walLevel = walLevel;
+		this.future = new CompletableFuture<>();
+		int size = kvs.size() == 1 ? 0 : BATCH_HEADER_SIZE;
+		for (KeyValue kv : kvs) {
+			size += kv.getSerializedSize();
+		}
+		this.serializedSize = size;
 	}
 
+	public WAL_LEVEL getWalLevel() {
+		return walLevel;
+	}
+
+	public int getCount() {
+		return kvs.size();
+	}
+
+	/**
+	 * @param seq the last sequence id of the range assigned to this entry.
+	 */
 	public void setSeq(long seq) {
 		this.seq = seq;
-		if (op == KeyValue.Op.Put) {
-			this.kv = KeyValue.createPut(key, value, seq);
-		} else {
-			this.kv = KeyValue.createDelete(key, seq);
-		}
 	}
 
 	public long getSeq() {
 		return seq;
 	}
 
+	public CompletableFuture<Long> getFuture() {
+		return future;
+	}
+
+	long getFirstSeq() {
+		return seq - kvs.size() + 1;
+	}
+
 	public ReadLogWal toReadLogWal() {
-		return new ReadLogWal(kv);
+		long first = getFirstSeq();
+		List<KeyValue> seqKvs = new ArrayList<>(kvs.size());
+		for (int i = 0; i < kvs.size(); i++) {
+			KeyValue kv = kvs.get(i);
+			if (kv.getOp() == KeyValue.Op.Put) {
+				seqKvs.add(KeyValue.createPut(kv.getKey(), kv.getValue(), first + i));
+			} else {
+				seqKvs.add(KeyValue.createDelete(kv.getKey(), first + i));
+			}
+		}
+		return new ReadLogWal(seqKvs, serializedSize);
 	}
 
 	@Override
-	public synchronized void logJoin() {
-		while (waiting) {
-			try {
-				this.wait();
-			} catch (InterruptedException ignored) {
-			}
+	public void logJoin() {
+		try {
+			future.join();
+		} catch (CompletionException ignored) {
 		}
 	}
 
 	@Override
-	public synchronized void logNotify() {
-		this.waiting = false;
-		this.notifyAll();
+	public void logNotify() {
+		future.complete(seq);
+	}
+
+	public void logFail(Throwable t) {
+		future.completeExceptionally(t);
 	}
 
 	@Override
 	public int getSerializedSize() {
-		return kv.getSerializedSize();
+		return serializedSize;
 	}
 
 	@Override
 	public byte[] toBytes() {
-		return kv.toBytes();
+		ByteBuffer buf = ByteBuffer.allocate(serializedSize);
+		writeTo(buf);
+		return buf.array();
+	}
+
+	/**
+	 * Encode into buf in place, buf must have getSerializedSize() bytes remaining.
+	 */
+	public void writeTo(ByteBuffer buf) {
+		writeTo(buf, kvs, getFirstSeq(), serializedSize);
+	}
+
+	static void writeTo(ByteBuffer buf, List<KeyValue> kvs, long firstSeq, int serializedSize) {
+		if (kvs.size() > 1) {
+			ByteUtils.putInt(buf, -kvs.size());
+			ByteUtils.putInt(buf, serializedSize - BATCH_HEADER_SIZE);
+		}
+		for (int i = 0; i < kvs.size(); i++) {
+			KeyValue kv = kvs.get(i);
+			KeyValue.writeTo(buf, kv.getKey(), kv.getValue(), kv.getOp(), firstSeq + i);
+		}
 	}
 }
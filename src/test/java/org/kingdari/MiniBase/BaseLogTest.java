@@ -1,11 +1,22 @@
 package org.kingdari.MiniBase;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.kingdari.MiniBase.Config.WAL_LEVEL;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class BaseLogTest {
 
@@ -25,15 +36,25 @@ public class BaseLogTest {
 			return expectSeq;
 		}
 
+		public void setExpectSeq(long expectSeq) {
+			this.expectSeq = expectSeq;
+		}
+
 		@Override
 		public void run() {
 			while (running || !log.getReadQueue().isEmpty()) {
 				try {
 					LogEntry entry = log.getReadQueue().take();
-					long seq = ((ReadLogWal) entry).getKv().getSequenceId();
-					Assertions.assertEquals(seq, expectSeq);
-					expectSeq++;
-					log.notifyLogEntry(seq);
+					if (entry == null) {
+						// log closed and drained.
+						break;
+					}
+					ReadLogWal wal = (ReadLogWal) entry;
+					for (KeyValue kv : wal.getKvs()) {
+						Assertions.assertEquals(expectSeq, kv.getSequenceId());
+						expectSeq++;
+					}
+					log.notifyLogEntry(wal.getSeq());
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -46,8 +67,33 @@ public class BaseLogTest {
 		}
 	}
 
+	private String rootDir;
+
+	@BeforeEach
+	public void setUp() {
+		this.rootDir = "output/BaseLog-" + System.currentTimeMillis();
+		new File(newConfig().getFullLogDir()).mkdirs();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		File logDir = new File(newConfig().getFullLogDir());
+		File[] files = logDir.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+		logDir.delete();
+		new File(rootDir).delete();
+	}
+
+	private Config newConfig() {
+		return new Config().setRoorDir(rootDir);
+	}
+
 	private void basicHelper(WAL_LEVEL walLevel) throws Exception {
-		Config conf = Config.getDefault().setWalLevel(walLevel);
+		Config conf = newConfig().setWalLevel(walLevel);
 		BaseLog log = new BaseLog(conf);
 		MockLogConsumer consumer = new MockLogConsumer(log);
 		consumer.start();
@@ -60,7 +106,10 @@ public class BaseLogTest {
 	}
 
 	private void concurrentHelper(WAL_LEVEL walLevel) throws Exception {
-		Config conf = Config.getDefault().setWalLevel(walLevel);
+		concurrentHelper(newConfig().setWalLevel(walLevel));
+	}
+
+	private void concurrentHelper(Config conf) throws Exception {
 		BaseLog log = new BaseLog(conf);
 		MockLogConsumer consumer = new MockLogConsumer(log);
 		consumer.start();
@@ -98,4 +147,520 @@ public class BaseLogTest {
 		concurrentHelper(WAL_LEVEL.SYNC);
 		concurrentHelper(WAL_LEVEL.FSYNC);
 	}
+
+	@Test
+	public void groupCommitTest() throws Exception {
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).
+				setMaxGroupCommitSize(1));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.FSYNC).
+				setMaxGroupCommitSize(16));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.FSYNC).
+				setMaxGroupCommitSize(64).
+				setMaxGroupCommitWaitMicros(200));
+	}
+
+	@Test
+	public void rollSegmentTest() throws Exception {
+		// 25 bytes per entry, about 10 entries per segment.
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).
+				setMaxLogSegmentSize(256));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.ASYNC).
+				setMaxLogSegmentSize(256));
+	}
+
+	@Test
+	public void segmentGCTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setMaxLogSegmentSize(256);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 100; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		int segmentCount = log.getSegmentCount();
+		Assertions.assertTrue(segmentCount >= 10);
+		log.markFlushed(0L);
+		Assertions.assertEquals(segmentCount, log.getSegmentCount());
+		log.markFlushed(50L);
+		Assertions.assertTrue(log.getSegmentCount() < segmentCount);
+		Assertions.assertTrue(log.getSegmentCount() > 1);
+		// the active segment is kept.
+		log.markFlushed(100L);
+		Assertions.assertEquals(1, log.getSegmentCount());
+		log.close();
+		consumer.close();
+	}
+
+	@Test
+	public void replayTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.ASYNC).setMaxLogSegmentSize(256);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 100; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		log.close();
+		consumer.close();
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(40L, pool);
+			Assertions.assertEquals(60, kvs.size());
+			for (int i = 0; i < kvs.size(); i++) {
+				KeyValue kv = kvs.get(i);
+				Assertions.assertEquals(41L + i, kv.getSequenceId());
+				Assertions.assertArrayEquals(ByteUtils.toBytes(40 + i), kv.getKey());
+			}
+			// segments fully covered by flushedSeqId are dropped.
+			Assertions.assertTrue(log2.getSegmentCount() < 10);
+
+			MockLogConsumer consumer2 = new MockLogConsumer(log2);
+			consumer2.setExpectSeq(101L);
+			consumer2.start();
+			Assertions.assertEquals(101L, log2.put(ByteUtils.toBytes(0), ByteUtils.toBytes(0)));
+			log2.close();
+			consumer2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void writeBatchTest() throws Exception {
+		// batch of 200 is larger than the log buffer.
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogBufferSize(1024);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		Assertions.assertEquals(1L, log.put(ByteUtils.toBytes(0), ByteUtils.toBytes(0)));
+		WriteBatch batch = new WriteBatch().
+				put(ByteUtils.toBytes(1), ByteUtils.toBytes(1)).
+				delete(ByteUtils.toBytes(0)).
+				put(ByteUtils.toBytes(2), ByteUtils.toBytes(2));
+		Assertions.assertEquals(4L, (long) log.writeAsync(batch).get());
+		batch.clear();
+		for (int i = 0; i < 200; i++) {
+			batch.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		Assertions.assertEquals(204L, (long) log.writeAsync(batch).get());
+		Assertions.assertEquals(205L, log.delete(ByteUtils.toBytes(0)));
+		Assertions.assertThrows(IllegalArgumentException.class, () -> log.writeAsync(new WriteBatch()));
+		log.close();
+		consumer.close();
+		Assertions.assertEquals(206L, consumer.getExpectSeq());
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(0L, pool);
+			Assertions.assertEquals(205, kvs.size());
+			for (int i = 0; i < kvs.size(); i++) {
+				Assertions.assertEquals(i + 1L, kvs.get(i).getSequenceId());
+			}
+			Assertions.assertEquals(KeyValue.Op.Delete, kvs.get(2).getOp());
+			Assertions.assertArrayEquals(ByteUtils.toBytes(199), kvs.get(203).getKey());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void tornBatchTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		log.put(ByteUtils.toBytes(0), ByteUtils.toBytes(0));
+		WriteBatch batch = new WriteBatch();
+		for (int i = 0; i < 10; i++) {
+			batch.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		log.writeAsync(batch).get();
+		log.close();
+		consumer.close();
+
+		// crash in the middle of the batch.
+		File[] files = new File(conf.getFullLogDir()).listFiles();
+		Assertions.assertEquals(1, files.length);
+		try (RandomAccessFile f = new RandomAccessFile(files[0], "rw")) {
+			f.setLength(f.length() - 10);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(0L, pool);
+			// none of the batch.
+			Assertions.assertEquals(1, kvs.size());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void mmapReadTest() throws Exception {
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogMmapRead(false));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogMmapRead(false).
+				setMaxLogSegmentSize(256));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.FSYNC).setLogMmapRead(true).
+				setMaxLogSegmentSize(256));
+		// entries larger than the preallocated segment.
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogMmapRead(true).
+				setMaxLogSegmentSize(16));
+	}
+
+	@Test
+	public void preallocatedTailTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogMmapRead(true).
+				setMaxLogSegmentSize(64 * 1024);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 100; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		log.close();
+		consumer.close();
+
+		File[] files = new File(conf.getFullLogDir()).listFiles();
+		Assertions.assertEquals(1, files.length);
+		// truncated on close, 25 bytes and a CRC per entry.
+		Assertions.assertEquals(100 * 29, files[0].length());
+		// crash before truncate leaves the preallocated zeros.
+		try (RandomAccessFile f = new RandomAccessFile(files[0], "rw")) {
+			f.setLength(64 * 1024);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			Assertions.assertEquals(100, log2.replay(0L, pool).size());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void compressionTest() throws Exception {
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.ASYNC).setLogCodec(Codec.DEFLATE));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogCodec(Codec.DEFLATE).
+				setLogMmapRead(false));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.FSYNC).setLogCodec(Codec.DEFLATE).
+				setLogMmapRead(true).setMaxLogSegmentSize(256));
+	}
+
+	@Test
+	public void compressionReplayTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogCodec(Codec.DEFLATE).
+				setLogBufferSize(4096);
+		byte[] value = new byte[1000];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = (byte) ('a' + i % 7);
+		}
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 100; i++) {
+			log.put(ByteUtils.toBytes(i), value);
+		}
+		// larger than the log buffer.
+		WriteBatch batch = new WriteBatch();
+		for (int i = 0; i < 10; i++) {
+			batch.put(ByteUtils.toBytes(i), value);
+		}
+		Assertions.assertEquals(110L, (long) log.writeAsync(batch).get());
+		// not compressible, written as is.
+		log.put(ByteUtils.toBytes(0), ByteUtils.toBytes(0));
+		long written = log.getTotalWrittenSize();
+		log.close();
+		consumer.close();
+		Assertions.assertEquals(112L, consumer.getExpectSeq());
+		Assertions.assertTrue(written < 110 * value.length / 4);
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(0L, pool);
+			Assertions.assertEquals(111, kvs.size());
+			for (int i = 0; i < 110; i++) {
+				Assertions.assertEquals(i + 1L, kvs.get(i).getSequenceId());
+				Assertions.assertArrayEquals(value, kvs.get(i).getValue());
+			}
+			Assertions.assertArrayEquals(ByteUtils.toBytes(0), kvs.get(110).getValue());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void multiStreamTest() throws Exception {
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SKIP).setLogStreams(4));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.ASYNC).setLogStreams(4));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogStreams(4).
+				setMaxLogSegmentSize(256));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.FSYNC).setLogStreams(3).
+				setLogMmapRead(false).setMaxLogSegmentSize(256));
+	}
+
+	@Test
+	public void multiStreamReplayTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogStreams(4).setMaxLogSegmentSize(256);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(log.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i)));
+		}
+		WriteBatch batch = new WriteBatch();
+		for (int i = 0; i < 10; i++) {
+			batch.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		futures.add(log.writeAsync(batch));
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+		log.close();
+		consumer.close();
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf.setLogStreams(2));
+			List<KeyValue> kvs = log2.replay(40L, pool);
+			Assertions.assertEquals(70, kvs.size());
+			for (int i = 0; i < kvs.size(); i++) {
+				Assertions.assertEquals(41L + i, kvs.get(i).getSequenceId());
+			}
+			MockLogConsumer consumer2 = new MockLogConsumer(log2);
+			consumer2.setExpectSeq(111L);
+			consumer2.start();
+			Assertions.assertEquals(111L, log2.put(ByteUtils.toBytes(0), ByteUtils.toBytes(0)));
+			log2.markFlushed(111L);
+			log2.close();
+			consumer2.close();
+			// only the active segments are left.
+			Assertions.assertEquals(2, log2.getSegmentCount());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void multiStreamBatchOrderTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogStreams(4);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		byte[] key = ByteUtils.toBytes("key");
+		long last = 0;
+		for (int i = 0; i < 40; i++) {
+			// batches are led by other keys, so mostly routed to another stream than key.
+			long seq;
+			if (i % 2 == 0) {
+				seq = log.put(key, ByteUtils.toBytes(i));
+			} else {
+				WriteBatch batch = new WriteBatch().
+						put(ByteUtils.toBytes(i), ByteUtils.toBytes(i)).
+						put(key, ByteUtils.toBytes(i));
+				seq = log.writeAsync(batch).get();
+			}
+			Assertions.assertTrue(seq > last);
+			last = seq;
+		}
+		log.close();
+		consumer.close();
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			KeyValue newest = null;
+			for (KeyValue kv : log2.replay(0L, pool)) {
+				if (ByteUtils.compare(key, kv.getKey()) == 0 &&
+						(newest == null || kv.getSequenceId() > newest.getSequenceId())) {
+					newest = kv;
+				}
+			}
+			Assertions.assertNotNull(newest);
+			Assertions.assertEquals(last, newest.getSequenceId());
+			Assertions.assertArrayEquals(ByteUtils.toBytes(39), newest.getValue());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void walLevelOverrideTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.ASYNC);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 10; i++) {
+			log.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i), WAL_LEVEL.SKIP);
+			log.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i), WAL_LEVEL.ASYNC);
+		}
+		log.deleteAsync(ByteUtils.toBytes(0), WAL_LEVEL.SYNC).get();
+		Assertions.assertEquals(0L, log.getForceCount());
+		WriteBatch batch = new WriteBatch().put(ByteUtils.toBytes(1), ByteUtils.toBytes(1));
+		Assertions.assertEquals(22L, (long) log.writeAsync(batch, WAL_LEVEL.FSYNC).get());
+		Assertions.assertEquals(1L, log.getForceCount());
+		log.close();
+		consumer.close();
+		Assertions.assertEquals(23L, consumer.getExpectSeq());
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			// skipped ones are not logged.
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(0L, pool);
+			Assertions.assertEquals(12, kvs.size());
+			for (int i = 0; i < 10; i++) {
+				Assertions.assertEquals(2L * (i + 1), kvs.get(i).getSequenceId());
+			}
+			Assertions.assertEquals(KeyValue.Op.Delete, kvs.get(10).getOp());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void settleUnappliedTest() throws Exception {
+		BaseLog log = new BaseLog(newConfig().setWalLevel(WAL_LEVEL.ASYNC));
+		CompletableFuture<Long> skipped = log.putAsync(ByteUtils.toBytes(0), ByteUtils.toBytes(0), WAL_LEVEL.SKIP);
+		CompletableFuture<Long> logged = log.putAsync(ByteUtils.toBytes(1), ByteUtils.toBytes(1), WAL_LEVEL.ASYNC);
+		log.close();
+		// taken but never applied.
+		int taken = 0;
+		while (log.getReadQueue().take() != null) {
+			taken++;
+		}
+		Assertions.assertEquals(2, taken);
+		log.settleUnapplied();
+		// a logged write is durable, it is replayed on next open.
+		Assertions.assertEquals(2L, (long) logged.get());
+		Assertions.assertTrue(skipped.isCompletedExceptionally());
+	}
+
+	@Test
+	public void walLevelOverrideReadBackTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.FSYNC).setMaxLogSegmentSize(256);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 50; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		long forced = log.getForceCount();
+		Assertions.assertTrue(forced >= 50);
+		for (int i = 0; i < 50; i++) {
+			log.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i), WAL_LEVEL.SKIP).get();
+			log.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i), WAL_LEVEL.ASYNC).get();
+		}
+		// neither rolling segments forces.
+		Assertions.assertEquals(forced, log.getForceCount());
+		log.close();
+		consumer.close();
+		Assertions.assertEquals(151L, consumer.getExpectSeq());
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			// read back entries are always logged.
+			BaseLog log2 = new BaseLog(conf);
+			Assertions.assertEquals(150, log2.replay(0L, pool).size());
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void preallocateTest() throws Exception {
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.FSYNC).setLogPreallocate(true).
+				setMaxLogSegmentSize(1024));
+		concurrentHelper(newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogPreallocate(true).
+				setLogMmapRead(false).setMaxLogSegmentSize(1024));
+	}
+
+	@Test
+	public void recycleSegmentTest() throws Exception {
+		// 40 entries of 29 bytes per segment.
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.FSYNC).setLogPreallocate(true).
+				setMaxLogSegmentSize(40 * 29).setMaxRecycledLogSegments(2);
+		File logDir = new File(conf.getFullLogDir());
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 200; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		for (File f : logDir.listFiles()) {
+			Assertions.assertEquals(40 * 29, f.length());
+		}
+		log.markFlushed(160L);
+		Assertions.assertEquals(2, logDir.listFiles(f -> f.getName().startsWith("wal.recycled.")).length);
+		// recycled files are reused, none created.
+		int files = logDir.listFiles().length;
+		for (int i = 200; i < 260; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		Assertions.assertEquals(files, logDir.listFiles().length);
+		Assertions.assertEquals(0, logDir.listFiles(f -> f.getName().startsWith("wal.recycled.")).length);
+		log.close();
+		consumer.close();
+
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			// the last reused segment still holds flushed entries after its tail.
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(0L, pool);
+			Assertions.assertEquals(100, kvs.size());
+			for (int i = 0; i < kvs.size(); i++) {
+				Assertions.assertEquals(161L + i, kvs.get(i).getSequenceId());
+				Assertions.assertArrayEquals(ByteUtils.toBytes(160 + i), kvs.get(i).getKey());
+			}
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void staleRecycledSegmentTest() throws Exception {
+		Config conf = newConfig().setWalLevel(WAL_LEVEL.SYNC).setLogPreallocate(true).
+				setMaxLogSegmentSize(40 * 29);
+		BaseLog log = new BaseLog(conf);
+		MockLogConsumer consumer = new MockLogConsumer(log);
+		consumer.start();
+		for (int i = 0; i < 100; i++) {
+			log.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		log.close();
+		consumer.close();
+
+		File logDir = new File(conf.getFullLogDir());
+		File[] files = logDir.listFiles();
+		Arrays.sort(files);
+		Assertions.assertEquals(3, files.length);
+		// reused as the next segment, then a crash before anything is written to it.
+		byte[] stale = Files.readAllBytes(files[0].toPath());
+		Files.write(new File(logDir, String.format("wal.%020d", 4)).toPath(), stale);
+		// and one whose first entry is torn.
+		stale[3] = 1;
+		Files.write(new File(logDir, String.format("wal.%020d", 5)).toPath(), stale);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			BaseLog log2 = new BaseLog(conf);
+			List<KeyValue> kvs = log2.replay(0L, pool);
+			Assertions.assertEquals(100, kvs.size());
+			for (int i = 0; i < kvs.size(); i++) {
+				Assertions.assertEquals(i + 1L, kvs.get(i).getSequenceId());
+			}
+			log2.close();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
 }
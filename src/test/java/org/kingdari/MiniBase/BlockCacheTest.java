@@ -3,6 +3,8 @@ package org.kingdari.MiniBase;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -71,4 +73,33 @@ public class BlockCacheTest {
 		}
 		Assertions.assertEquals(cache.size(), 512);
 	}
+
+	@Test
+	public void compressedTest() throws IOException {
+		String dbFile = "blockCacheCompressedTest.db";
+		new File(dbFile).delete();
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile, Codec.DEFLATE)) {
+				for (int i = 0; i < 1000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[100], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			BlockCache cache = new BlockCache(1024 * 1024, true);
+			try (DiskFile df = new DiskFile(dbFile, cache).open()) {
+				BlockMeta meta = df.getBlockMetaSet().first();
+				BlockId id = new BlockId(df, meta);
+				Assertions.assertEquals(df.createReader(meta), cache.get(id));
+				Assertions.assertEquals(df.createReader(meta), cache.get(id));
+				// kept as stored, much smaller than parsed.
+				Assertions.assertEquals(1, cache.getBlockCache().size());
+				Assertions.assertEquals(0, cache.getCache().size());
+				Assertions.assertEquals(meta.getBlockSize(), cache.getBlockCache().get(id).length);
+				Assertions.assertTrue(meta.getBlockSize() * 10 < df.createReader(meta).getMemorySizeSize());
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
 }
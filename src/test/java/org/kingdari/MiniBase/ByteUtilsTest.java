@@ -3,6 +3,9 @@ package org.kingdari.MiniBase;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assertions;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 public class ByteUtilsTest {
 	@Test
 	public void toBytesTest() {
@@ -29,6 +32,28 @@ public class ByteUtilsTest {
 		Assertions.assertEquals(ByteUtils.toLong(ByteUtils.toBytes(Long.MIN_VALUE)), Long.MIN_VALUE);
 	}
 
+	@Test
+	public void byteBufferTest() {
+		int[] ints = {123456789, -1, 0, 1, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		long[] longs = {123456789L, -1L, 0L, 1L, Long.MAX_VALUE, Long.MIN_VALUE};
+		ByteBuffer buf = ByteBuffer.allocateDirect(12);
+		for (int i = 0; i < ints.length; i++) {
+			buf.clear();
+			ByteUtils.putInt(buf, ints[i]);
+			ByteUtils.putLong(buf, longs[i]);
+			byte[] bytes = new byte[12];
+			buf.flip();
+			buf.get(bytes);
+			// same layout as toBytes.
+			Assertions.assertArrayEquals(ByteUtils.toBytes(ints[i]), Arrays.copyOfRange(bytes, 0, 4));
+			Assertions.assertArrayEquals(ByteUtils.toBytes(longs[i]), Arrays.copyOfRange(bytes, 4, 12));
+			buf.flip();
+			Assertions.assertEquals(ints[i], ByteUtils.getInt(buf, 0));
+			Assertions.assertEquals(ints[i], ByteUtils.getInt(buf));
+			Assertions.assertEquals(longs[i], ByteUtils.getLong(buf));
+		}
+	}
+
 	@Test
 	public void toHexTest() {
 		byte[] bytes = ByteUtils.toBytes(123456);
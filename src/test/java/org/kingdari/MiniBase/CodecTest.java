@@ -0,0 +1,74 @@
+package org.kingdari.MiniBase;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class CodecTest {
+
+	private void roundTrip(Codec codec, byte[] raw) throws IOException {
+		int off = 3;
+		byte[] compressed = new byte[off + codec.maxCompressedLength(raw.length)];
+		int len = codec.compress(raw, 0, raw.length, compressed, off);
+		byte[] decompressed = new byte[raw.length + off];
+		codec.decompress(compressed, off, len, decompressed, off, raw.length);
+		Assertions.assertArrayEquals(raw, Arrays.copyOfRange(decompressed, off, off + raw.length));
+		Assertions.assertSame(codec, Codec.forCode(codec.getCode()));
+	}
+
+	@Test
+	public void roundTripTest() throws IOException {
+		byte[] random = new byte[64 * 1024];
+		new Random(0).nextBytes(random);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; sb.length() < 64 * 1024; i++) {
+			sb.append("{\"id\":").append(i).append(",\"name\":\"user-").append(i).append("\"}");
+		}
+		byte[] text = sb.toString().getBytes();
+		byte[] runs = new byte[70_000];
+		for (int i = 0; i < runs.length; i++) {
+			runs[i] = (byte) (i / 300 % 3);
+		}
+		for (Codec codec : new Codec[]{Codec.NONE, Codec.DEFLATE, Codec.LZ}) {
+			roundTrip(codec, new byte[0]);
+			roundTrip(codec, new byte[]{1, 2, 3});
+			roundTrip(codec, random);
+			roundTrip(codec, text);
+			roundTrip(codec, runs);
+		}
+		byte[] dst = new byte[Codec.DEFLATE.maxCompressedLength(text.length)];
+		Assertions.assertTrue(Codec.DEFLATE.compress(text, 0, text.length, dst, 0) < text.length / 4);
+		// less than deflate.
+		dst = new byte[Codec.LZ.maxCompressedLength(text.length)];
+		Assertions.assertTrue(Codec.LZ.compress(text, 0, text.length, dst, 0) < text.length / 3);
+		Assertions.assertThrows(IOException.class, () -> Codec.forCode((byte) 100));
+	}
+
+	@Test
+	public void corruptedTest() {
+		byte[] raw = new byte[4096];
+		Arrays.fill(raw, (byte) 'a');
+		byte[] compressed = new byte[Codec.DEFLATE.maxCompressedLength(raw.length)];
+		int len = Codec.DEFLATE.compress(raw, 0, raw.length, compressed, 0);
+		// truncated, or a wrong raw length.
+		Assertions.assertThrows(IOException.class,
+				() -> Codec.DEFLATE.decompress(compressed, 0, len / 2, new byte[raw.length], 0, raw.length));
+		Assertions.assertThrows(IOException.class,
+				() -> Codec.DEFLATE.decompress(compressed, 0, len, new byte[raw.length * 2], 0, raw.length * 2));
+		Assertions.assertThrows(IOException.class,
+				() -> Codec.NONE.decompress(raw, 0, 10, new byte[20], 0, 20));
+
+		byte[] lz = new byte[Codec.LZ.maxCompressedLength(raw.length)];
+		int lzLen = Codec.LZ.compress(raw, 0, raw.length, lz, 0);
+		Assertions.assertThrows(IOException.class,
+				() -> Codec.LZ.decompress(lz, 0, lzLen - 3, new byte[raw.length], 0, raw.length));
+		Assertions.assertThrows(IOException.class,
+				() -> Codec.LZ.decompress(lz, 0, lzLen, new byte[raw.length * 2], 0, raw.length * 2));
+		// a match before the start of the output.
+		Assertions.assertThrows(IOException.class,
+				() -> Codec.LZ.decompress(new byte[]{0x10, 'a', 2, 0, 0x00}, 0, 5, new byte[10], 0, 10));
+	}
+}
@@ -5,7 +5,18 @@ import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class DiskFileTest {
 	public static final Random RANDOM = new Random();
@@ -23,6 +34,18 @@ public class DiskFileTest {
 
 		byte[] buffer = bw.serialize();
 		BlockReader br = BlockReader.parseFrom(bw.serialize(), 0, buffer.length);
+		Assertions.assertTrue(br instanceof PlainBlockReader);
+		Assertions.assertEquals(buffer.length + 4 * 100, br.getMemorySizeSize());
+		for (int j = 0; j < 100; j++) {
+			byte[] key = ByteUtils.toBytes(j);
+			Assertions.assertEquals(KeyValue.createPut(key, key, j), br.seek(KeyValue.createDelete(key, Long.MAX_VALUE)));
+			Assertions.assertArrayEquals(key, br.seek(KeyValue.createDelete(key, Long.MAX_VALUE)).getValue());
+		}
+		// a block within a larger buffer.
+		byte[] shifted = new byte[buffer.length + 10];
+		System.arraycopy(buffer, 0, shifted, 3, buffer.length);
+		Assertions.assertEquals(br, BlockReader.parseFrom(shifted, 3, buffer.length));
+		Assertions.assertThrows(IOException.class, () -> BlockReader.parseFrom(buffer, 0, buffer.length - 7));
 
 		byte[][] keys = new byte[br.getKeyValues().size()][];
 		for (int j = 0; j < keys.length; j++) {
@@ -33,6 +56,72 @@ public class DiskFileTest {
 		Assertions.assertArrayEquals(bloomFilter.generate(keys), bw.getBloomFilter());
 	}
 
+	private BlockReader encodedBlockHelper(Config.BLOCK_ENCODING encoding, int plainPercent) throws IOException {
+		BlockWriter plain = new BlockWriter();
+		BlockWriter prefix = new BlockWriter(encoding, 4);
+		List<KeyValue> kvs = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] key = ByteUtils.toBytes(String.format("tenant/table/row-%05d", i / 3));
+			// 3 versions of each key, a delete on top of every other one.
+			KeyValue kv = (i % 3 == 0 && i % 2 == 0) ?
+					KeyValue.createDelete(key, 1000 - i) : KeyValue.createPut(key, ByteUtils.toBytes(i), 1000 - i);
+			kvs.add(kv);
+			plain.append(kv);
+			prefix.append(kv);
+		}
+		byte[] buffer = prefix.serialize();
+		Assertions.assertEquals(prefix.size(), buffer.length);
+		Assertions.assertTrue(buffer.length * 100 < plain.serialize().length * plainPercent);
+		Assertions.assertArrayEquals(plain.getBloomFilter(), prefix.getBloomFilter());
+
+		BlockReader br = BlockReader.parseFrom(buffer, 0, buffer.length);
+		Assertions.assertEquals(kvs, br.getKeyValues());
+		Assertions.assertEquals(BlockReader.parseFrom(plain.serialize(), 0, plain.size()), br);
+
+		for (int i = 0; i < kvs.size(); i++) {
+			// exact, just after the key and just before it.
+			KeyValue kv = kvs.get(i);
+			Assertions.assertEquals(kv, br.seek(kv));
+			Assertions.assertEquals(i + 1 < kvs.size() ? kvs.get(i + 1) : null,
+					br.seek(KeyValue.createPut(kv.getKey(), kv.getValue(), kv.getSequenceId() - 1)));
+			Assertions.assertEquals(kvs.get(i - i % 3),
+					br.seek(KeyValue.createDelete(kv.getKey(), Long.MAX_VALUE)));
+		}
+		Assertions.assertNull(br.seek(KeyValue.createDelete(ByteUtils.toBytes("u"), Long.MAX_VALUE)));
+		Assertions.assertEquals(kvs.get(0), br.seek(KeyValue.createDelete(ByteUtils.EMPTY_BYTES, 0)));
+
+		// visible versions only, from a seek.
+		try (MStore.SeekIter<KeyValue> iter = br.iterator(new KeyValueFilter().setVersion(950))) {
+			iter.seekTo(kvs.get(10));
+			int i = 50;
+			while (iter.hasNext()) {
+				Assertions.assertEquals(kvs.get(i++), iter.next());
+			}
+			Assertions.assertEquals(kvs.size(), i);
+			Assertions.assertNull(iter.next());
+		}
+		return br;
+	}
+
+	@Test
+	public void prefixBlockTest() throws IOException {
+		BlockReader br = encodedBlockHelper(Config.BLOCK_ENCODING.PREFIX, 67);
+		Assertions.assertTrue(br instanceof PrefixBlockReader);
+		Assertions.assertEquals(25, ((PrefixBlockReader) br).getRestartCount());
+	}
+
+	@Test
+	public void columnarBlockTest() throws IOException {
+		// as large as plain.
+		BlockReader br = encodedBlockHelper(Config.BLOCK_ENCODING.COLUMNAR, 103);
+		Assertions.assertTrue(br instanceof ColumnarBlockReader);
+		Assertions.assertEquals(100, ((ColumnarBlockReader) br).getKvCount());
+		BlockWriter empty = new BlockWriter(Config.BLOCK_ENCODING.COLUMNAR, 0);
+		BlockReader emptyReader = BlockReader.parseFrom(empty.serialize(), 0, empty.size());
+		Assertions.assertNull(emptyReader.seek(KeyValue.createDelete(ByteUtils.EMPTY_BYTES, Long.MAX_VALUE)));
+		Assertions.assertFalse(emptyReader.iterator(new KeyValueFilter()).hasNext());
+	}
+
 	@Test
 	public void blockMetaTest() throws IOException {
 		KeyValue lastKv = KeyValue.createPut(
@@ -48,6 +137,14 @@ public class DiskFileTest {
 		Assertions.assertEquals(offset, meta2.getBlockOffset());
 		Assertions.assertEquals(size, meta2.getBlockSize());
 		Assertions.assertArrayEquals(bloomFilter, meta2.getBFBytes());
+		Assertions.assertEquals(Codec.NONE_CODE, meta2.getCodec());
+		Assertions.assertEquals(size, meta2.getRawSize());
+
+		meta = new BlockMeta(lastKv, offset, size, Codec.LZ_CODE, 4096, bloomFilter);
+		meta2 = BlockMeta.parseFrom(meta.toBytes(), 0);
+		Assertions.assertEquals(meta, meta2);
+		Assertions.assertEquals(Codec.LZ_CODE, meta2.getCodec());
+		Assertions.assertEquals(4096, meta2.getRawSize());
 	}
 
 	private byte[] generateRandomBytes() {
@@ -135,4 +232,488 @@ public class DiskFileTest {
 			}
 		}
 	}
+
+	@Test
+	public void getTest() throws IOException {
+		String dbFile = "diskFileGetTest.db";
+		new File(dbFile).delete();
+		try {
+			// 3 versions of each even key, blocks end between versions of a key.
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile)) {
+				for (int i = 0; i < 2000; i += 2) {
+					byte[] key = ByteUtils.toBytes(i);
+					dfw.append(KeyValue.createDelete(key, 3L * i + 3));
+					dfw.append(KeyValue.createPut(key, new byte[5000], 3L * i + 2));
+					dfw.append(KeyValue.createPut(key, ByteUtils.toBytes(i), 3L * i + 1));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			try (DiskFile df = new DiskFile(dbFile).open()) {
+				Assertions.assertTrue(df.getBlockMetaSet().size() > 1);
+				for (int i = 0; i < 2000; i++) {
+					byte[] key = ByteUtils.toBytes(i);
+					if ((i & 1) == 1) {
+						Assertions.assertNull(df.get(key, Long.MAX_VALUE));
+						continue;
+					}
+					Assertions.assertNull(df.get(key, 3L * i));
+					Assertions.assertEquals(KeyValue.createPut(key, ByteUtils.toBytes(i), 3L * i + 1),
+							df.get(key, 3L * i + 1));
+					Assertions.assertEquals(KeyValue.createPut(key, new byte[5000], 3L * i + 2),
+							df.get(key, 3L * i + 2));
+					Assertions.assertEquals(KeyValue.createDelete(key, 3L * i + 3), df.get(key, Long.MAX_VALUE));
+				}
+				Assertions.assertNull(df.get(ByteUtils.toBytes(-1), Long.MAX_VALUE));
+				Assertions.assertEquals(0, df.getRefCount());
+				Assertions.assertEquals(3L * 1998 + 3, df.getMaxSeqId());
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void compressedDiskFileTest() throws IOException {
+		String dbFile = "compressedDiskFileTest.db";
+		int rowsCount = 20000;
+		long rawFileSize = 0;
+		for (Codec codec : new Codec[]{Codec.NONE, Codec.DEFLATE, Codec.LZ}) {
+			new File(dbFile).delete();
+			try {
+				try (DiskFileWriter dfw = new DiskFileWriter(dbFile, codec)) {
+					for (int i = 0; i < rowsCount; i++) {
+						dfw.append(KeyValue.createPut(ByteUtils.toBytes(i),
+								ByteUtils.toBytes("value-" + (i % 100) + "-value"), i));
+					}
+					dfw.appendIndex();
+					dfw.appendTrailer();
+				}
+				long fileSize = new File(dbFile).length();
+				if (codec == Codec.NONE) {
+					rawFileSize = fileSize;
+				} else {
+					Assertions.assertTrue(fileSize < rawFileSize / 2, codec + ": " + fileSize);
+				}
+				for (BlockCache cache : new BlockCache[]{null, new BlockCache(1024 * 1024, true)}) {
+					try (DiskFile df = new DiskFile(dbFile, cache).open()) {
+						for (BlockMeta meta : df.getBlockMetaSet()) {
+							Assertions.assertEquals(codec.getCode(), meta.getCodec());
+						}
+						try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+							int index = 0;
+							while (iter.hasNext()) {
+								Assertions.assertEquals(KeyValue.createPut(ByteUtils.toBytes(index),
+										ByteUtils.toBytes("value-" + (index % 100) + "-value"), index), iter.next());
+								index++;
+							}
+							Assertions.assertEquals(rowsCount, index);
+						}
+						byte[] key = ByteUtils.toBytes(rowsCount / 3);
+						Assertions.assertArrayEquals(key, df.get(key, Long.MAX_VALUE).getKey());
+					}
+				}
+			} finally {
+				new File(dbFile).delete();
+			}
+		}
+	}
+
+	@Test
+	public void incompressibleBlockTest() throws IOException {
+		String dbFile = "incompressibleBlockTest.db";
+		new File(dbFile).delete();
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile, Codec.LZ)) {
+				for (int i = 0; i < 100; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), generateRandomBytes(), i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			try (DiskFile df = new DiskFile(dbFile).open()) {
+				BlockMeta meta = df.getBlockMetaSet().first();
+				// stored raw.
+				Assertions.assertEquals(Codec.NONE_CODE, meta.getCodec());
+				Assertions.assertEquals(meta.getBlockSize(), meta.getRawSize());
+				Assertions.assertEquals(100, df.createReader(meta).getKeyValues().size());
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void prefixDiskFileTest() throws IOException {
+		encodedDiskFileHelper(Config.BLOCK_ENCODING.PREFIX);
+	}
+
+	@Test
+	public void columnarDiskFileTest() throws IOException {
+		encodedDiskFileHelper(Config.BLOCK_ENCODING.COLUMNAR);
+	}
+
+	private void encodedDiskFileHelper(Config.BLOCK_ENCODING encoding) throws IOException {
+		String dbFile = "encodedDiskFileTest.db";
+		new File(dbFile).delete();
+		int rowsCount = 5000;
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile, Codec.LZ, encoding, 16)) {
+				for (int i = 0; i < rowsCount; i++) {
+					// multiple blocks.
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(String.format("prefix/%d/%05d", i / 1000, i)),
+							new byte[1000 + i % 7], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			try (DiskFile df = new DiskFile(dbFile).open()) {
+				Assertions.assertTrue(df.getBlockMetaSet().size() > 1);
+				int count = 0;
+				try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+					KeyValue prev = null;
+					while (iter.hasNext()) {
+						KeyValue kv = iter.next();
+						Assertions.assertTrue(prev == null || prev.compareTo(kv) < 0);
+						prev = kv;
+						count++;
+					}
+				}
+				Assertions.assertEquals(rowsCount, count);
+				for (int i = 0; i < rowsCount; i += 13) {
+					byte[] key = ByteUtils.toBytes(String.format("prefix/%d/%05d", i / 1000, i));
+					KeyValue kv = df.get(key, Long.MAX_VALUE);
+					Assertions.assertEquals(KeyValue.createPut(key, new byte[1000 + i % 7], i), kv);
+					Assertions.assertNull(df.get(key, i - 1));
+				}
+				try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+					iter.seekTo(KeyValue.createDelete(ByteUtils.toBytes("prefix/3"), Long.MAX_VALUE));
+					Assertions.assertArrayEquals(ByteUtils.toBytes("prefix/3/03000"), iter.next().getKey());
+				}
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void mmapTest() throws IOException {
+		String dbFile = "mmapDiskFileTest.db";
+		new File(dbFile).delete();
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile)) {
+				for (int i = 0; i < 3000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[1000 + i % 100], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			// blocks span 1MB chunks.
+			try (DiskFile df = new DiskFile(dbFile).open();
+				 DiskFile mapped = new DiskFile(dbFile, null, true, 1024 * 1024).open()) {
+				Assertions.assertTrue(df.getBlockMetaSet().size() > 1);
+				for (BlockMeta meta : df.getBlockMetaSet()) {
+					Assertions.assertArrayEquals(df.readBlock(meta), mapped.readBlock(meta));
+				}
+				for (int i = 0; i < 3000; i += 7) {
+					byte[] key = ByteUtils.toBytes(i);
+					Assertions.assertEquals(KeyValue.createPut(key, new byte[1000 + i % 100], i),
+							mapped.get(key, Long.MAX_VALUE));
+				}
+			}
+			try (DiskFile mapped = new DiskFile(dbFile, null, true).open();
+				 MStore.SeekIter<KeyValue> iter = mapped.iterator()) {
+				int count = 0;
+				while (iter.hasNext()) {
+					Assertions.assertArrayEquals(ByteUtils.toBytes(count), iter.next().getKey());
+					count++;
+				}
+				Assertions.assertEquals(3000, count);
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void closeWhileReadingTest() throws Exception {
+		String dbFile = "closeWhileReadingDiskFileTest.db";
+		new File(dbFile).delete();
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile)) {
+				for (int i = 0; i < 3000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[1000], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			DiskFile df = new DiskFile(dbFile, null, true).open();
+			MStore.SeekIter<KeyValue> iter = df.iterator();
+			Assertions.assertFalse(df.tryClose());
+			Assertions.assertThrows(IOException.class, df::close);
+			iter.close();
+
+			// readers either see the mapped file or fail, as it is unmapped.
+			AtomicReference<Throwable> error = new AtomicReference<>();
+			Thread[] readers = new Thread[2];
+			for (int t = 0; t < readers.length; t++) {
+				readers[t] = new Thread(() -> {
+					for (int i = 0; i < 20_000; i += 7) {
+						try {
+							Assertions.assertNotNull(df.get(ByteUtils.toBytes(i % 3000), Long.MAX_VALUE));
+						} catch (IOException e) {
+							// closed.
+							return;
+						} catch (Throwable e) {
+							error.set(e);
+							return;
+						}
+					}
+				});
+				readers[t].start();
+			}
+			Thread.sleep(100);
+			while (!df.tryClose()) {
+				Thread.yield();
+			}
+			for (Thread reader : readers) {
+				reader.join();
+			}
+			Assertions.assertNull(error.get());
+			Assertions.assertThrows(IOException.class, () -> df.get(ByteUtils.toBytes(0), Long.MAX_VALUE));
+			Assertions.assertThrows(IllegalStateException.class, df::iterator);
+			df.close();
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void readaheadTest() throws IOException {
+		String dbFile = "readaheadDiskFileTest.db";
+		new File(dbFile).delete();
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile)) {
+				for (int i = 0; i < 20000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[1000], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			for (BlockCache cache : new BlockCache[]{null, new BlockCache(4 * 1024 * 1024)}) {
+				try (DiskFile df = new DiskFile(dbFile, cache).setReadahead(pool, 3).open()) {
+					Assertions.assertTrue(df.getBlockMetaSet().size() > 5);
+					try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+						int count = 0;
+						while (iter.hasNext()) {
+							Assertions.assertArrayEquals(ByteUtils.toBytes(count), iter.next().getKey());
+							count++;
+						}
+						Assertions.assertEquals(20000, count);
+
+						// reads ahead again from each seek.
+						for (int from : new int[]{15000, 100, 7777}) {
+							iter.seekTo(KeyValue.createDelete(ByteUtils.toBytes(from), Long.MAX_VALUE));
+							count = from;
+							while (iter.hasNext()) {
+								Assertions.assertArrayEquals(ByteUtils.toBytes(count), iter.next().getKey());
+								count++;
+							}
+							Assertions.assertEquals(20000, count);
+						}
+					}
+					Assertions.assertEquals(0, df.getRefCount());
+				}
+			}
+		} finally {
+			pool.shutdown();
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void readaheadCloseTest() throws IOException {
+		String dbFile = "readaheadCloseDiskFileTest.db";
+		new File(dbFile).delete();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile)) {
+				for (int i = 0; i < 20000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[1000], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			for (int from : new int[]{0, 3000, 12000}) {
+				DiskFile df = new DiskFile(dbFile).setReadahead(pool, 8).open();
+				MStore.SeekIter<KeyValue> iter = df.iterator();
+				iter.seekTo(KeyValue.createDelete(ByteUtils.toBytes(from), Long.MAX_VALUE));
+				// into the second block, the following ones are queued.
+				for (int i = 0; i < 3000; i++) {
+					Assertions.assertArrayEquals(ByteUtils.toBytes(from + i), iter.next().getKey());
+					Assertions.assertTrue(iter.hasNext());
+				}
+				iter.close();
+				// nothing left queued or reading.
+				Assertions.assertTrue(pool.getQueue().isEmpty());
+				Assertions.assertTrue(df.tryClose());
+			}
+		} finally {
+			pool.shutdown();
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void interruptedReadTest() throws IOException {
+		String dbFile = "interruptedReadDiskFileTest.db";
+		new File(dbFile).delete();
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile)) {
+				for (int i = 0; i < 3000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[1000], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			try (DiskFile df = new DiskFile(dbFile).open()) {
+				byte[] key = ByteUtils.toBytes(42);
+				Thread.currentThread().interrupt();
+				try {
+					df.get(key, Long.MAX_VALUE);
+					Assertions.fail("Should catch exception");
+				} catch (InterruptedIOException e) {
+					Assertions.assertTrue(Thread.interrupted());
+				}
+				// the channel closed by the interrupt is reopened.
+				Assertions.assertEquals(KeyValue.createPut(key, new byte[1000], 42), df.get(key, Long.MAX_VALUE));
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
+
+	@Test
+	public void partitionedIndexTest() throws IOException {
+		String dbFile = "partitionedIndexDiskFileTest.db";
+		// index blocks of 2 metas, and one index as files were written before.
+		for (int indexBlockSize : new int[]{4096, 0}) {
+			new File(dbFile).delete();
+			try {
+				try (DiskFileWriter dfw = new DiskFileWriter(dbFile, Codec.NONE,
+						Config.BLOCK_ENCODING.PLAIN, 0, indexBlockSize)) {
+					for (int i = 0; i < 20000; i++) {
+						dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[1000], i));
+					}
+					dfw.appendIndex();
+					dfw.appendTrailer();
+				}
+				for (BlockCache cache : new BlockCache[]{null, new BlockCache(4 * 1024 * 1024)}) {
+					try (DiskFile df = new DiskFile(dbFile, cache).open()) {
+						if (indexBlockSize > 0) {
+							Assertions.assertTrue(df.getIndexBlockCount() > 3);
+						} else {
+							Assertions.assertEquals(1, df.getIndexBlockCount());
+						}
+						if (cache != null) {
+							Assertions.assertTrue(cache.getIndexCache().isEmpty());
+						}
+
+						for (int i = 0; i < 20000; i += 37) {
+							byte[] key = ByteUtils.toBytes(i);
+							Assertions.assertEquals(KeyValue.createPut(key, new byte[1000], i),
+									df.get(key, Long.MAX_VALUE));
+						}
+						Assertions.assertNull(df.get(ByteUtils.toBytes(20000), Long.MAX_VALUE));
+						if (cache != null && indexBlockSize > 0) {
+							Assertions.assertEquals(df.getIndexBlockCount(), cache.getIndexCache().size());
+						}
+
+						try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+							int count = 0;
+							while (iter.hasNext()) {
+								Assertions.assertArrayEquals(ByteUtils.toBytes(count), iter.next().getKey());
+								count++;
+							}
+							Assertions.assertEquals(20000, count);
+
+							iter.seekTo(KeyValue.createDelete(ByteUtils.toBytes(12345), Long.MAX_VALUE));
+							count = 12345;
+							while (iter.hasNext()) {
+								Assertions.assertArrayEquals(ByteUtils.toBytes(count), iter.next().getKey());
+								count++;
+							}
+							Assertions.assertEquals(20000, count);
+						}
+						Assertions.assertEquals(df.getBlockCount(), df.getBlockMetaSet().size());
+					}
+				}
+			} finally {
+				new File(dbFile).delete();
+			}
+		}
+	}
+
+	@Test
+	public void v1DiskFileTest() throws IOException {
+		String dbFile = "v1DiskFileTest.db";
+		new File(dbFile).delete();
+		try {
+			try (DiskFileWriter dfw = new DiskFileWriter(dbFile, Codec.NONE,
+					Config.BLOCK_ENCODING.PLAIN, 0, 0)) {
+				for (int i = 0; i < 20000; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), new byte[100], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+
+			// rewrite the index and trailer as written before blocks had a codec.
+			byte[] bytes = Files.readAllBytes(new File(dbFile).toPath());
+			int trailer = bytes.length - DiskFile.TRAILER_SIZE;
+			int blockCount = ByteUtils.toInt(ByteUtils.slice(bytes, trailer + 8, 4));
+			int indexOffset = (int) ByteUtils.toLong(ByteUtils.slice(bytes, trailer + 12, 8));
+			int indexSize = (int) ByteUtils.toLong(ByteUtils.slice(bytes, trailer + 20, 8));
+			BlockIndexReader index = BlockIndexReader.parseFrom(bytes, indexOffset, indexSize);
+			try (RandomAccessFile f = new RandomAccessFile(dbFile, "rw")) {
+				f.setLength(indexOffset);
+				f.seek(indexOffset);
+				long v1IndexSize = 0;
+				for (int i = 0; i < index.size(); i++) {
+					BlockMeta meta = index.get(i);
+					f.write(meta.getLastKv().toBytes());
+					f.write(ByteUtils.toBytes(meta.getBlockOffset()));
+					f.write(ByteUtils.toBytes(meta.getBlockSize()));
+					f.write(ByteUtils.toBytes(meta.getBFBytes().length));
+					f.write(meta.getBFBytes());
+					v1IndexSize += meta.getV1SerializeSize();
+				}
+				f.write(ByteUtils.toBytes(indexOffset + v1IndexSize + DiskFile.TRAILER_SIZE));
+				f.write(ByteUtils.toBytes(blockCount));
+				f.write(ByteUtils.toBytes((long) indexOffset));
+				f.write(ByteUtils.toBytes(v1IndexSize));
+				f.write(ByteUtils.toBytes(DiskFile.V1_DISK_FILE_MAGIC));
+			}
+
+			try (DiskFile df = new DiskFile(dbFile).open()) {
+				Assertions.assertEquals(blockCount, df.getBlockCount());
+				Assertions.assertEquals(Long.MAX_VALUE, df.getMaxSeqId());
+				for (int i = 0; i < 20000; i += 37) {
+					byte[] key = ByteUtils.toBytes(i);
+					Assertions.assertEquals(KeyValue.createPut(key, new byte[100], i), df.get(key, Long.MAX_VALUE));
+				}
+				try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+					int count = 0;
+					while (iter.hasNext()) {
+						Assertions.assertArrayEquals(ByteUtils.toBytes(count), iter.next().getKey());
+						count++;
+					}
+					Assertions.assertEquals(20000, count);
+				}
+			}
+		} finally {
+			new File(dbFile).delete();
+		}
+	}
 }
@@ -1,8 +1,11 @@
 package org.kingdari.MiniBase;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 public class DiskStoreTest {
 	@Test
@@ -11,4 +14,52 @@ public class DiskStoreTest {
 		ds.open();
 		ds.close();
 	}
+
+	private static void writeDiskFile(DiskStore ds, int keys, long firstSeqId) throws IOException {
+		String fileName = ds.getNextDiskFileName();
+		try (DiskFileWriter dfw = ds.createWriter(fileName)) {
+			for (int i = 0; i < keys; i++) {
+				dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), ByteUtils.toBytes(firstSeqId + i), firstSeqId + i));
+			}
+			dfw.appendIndex();
+			dfw.appendTrailer();
+		}
+		ds.addDiskFile(fileName);
+	}
+
+	@Test
+	public void newestFirstGetTest() throws IOException {
+		File dir = new File("newestFirstGetTest");
+		DiskStore ds = new DiskStore(dir.getPath(), 20, 16 * 1024L);
+		try {
+			dir.mkdirs();
+			ds.open();
+			// added out of version order, as by a compaction.
+			writeDiskFile(ds, 100, 1000);
+			writeDiskFile(ds, 100, 1);
+			writeDiskFile(ds, 50, 500);
+			List<DiskFile> files = ds.getDiskFilesSnapshot();
+			Assertions.assertEquals(1099, files.get(0).getMaxSeqId());
+			Assertions.assertEquals(549, files.get(1).getMaxSeqId());
+			Assertions.assertEquals(100, files.get(2).getMaxSeqId());
+
+			for (int i = 0; i < 100; i++) {
+				byte[] key = ByteUtils.toBytes(i);
+				Assertions.assertEquals(1000 + i, ds.get(key, Long.MAX_VALUE).getSequenceId());
+				Assertions.assertEquals(i < 50 ? 500 + i : 1 + i, ds.get(key, 999).getSequenceId());
+				Assertions.assertEquals(1 + i, ds.get(key, 499).getSequenceId());
+				Assertions.assertNull(ds.get(key, 0));
+			}
+			Assertions.assertNull(ds.get(ByteUtils.toBytes(100), Long.MAX_VALUE));
+		} finally {
+			ds.close();
+			File[] files = dir.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					f.delete();
+				}
+			}
+			dir.delete();
+		}
+	}
 }
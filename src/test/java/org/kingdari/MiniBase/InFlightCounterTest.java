@@ -0,0 +1,52 @@
+package org.kingdari.MiniBase;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class InFlightCounterTest {
+
+	@Test
+	public void awaitTest() throws Exception {
+		InFlightCounter counter = new InFlightCounter();
+		Assertions.assertTrue(counter.isEmpty());
+		int stripe = counter.enter();
+		int nested = counter.enter();
+		Assertions.assertEquals(stripe, nested);
+		counter.exit(nested);
+		Assertions.assertFalse(counter.isEmpty());
+
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch leave = new CountDownLatch(1);
+		Thread other = new Thread(() -> {
+			int s = counter.enter();
+			entered.countDown();
+			try {
+				leave.await();
+			} catch (InterruptedException ignored) {
+			}
+			counter.exit(s);
+		});
+		other.start();
+		Assertions.assertTrue(entered.await(5, TimeUnit.SECONDS));
+		counter.exit(stripe);
+		Assertions.assertFalse(counter.isEmpty());
+
+		AtomicBoolean drained = new AtomicBoolean();
+		Thread waiter = new Thread(() -> {
+			counter.awaitEmpty();
+			drained.set(true);
+		});
+		waiter.start();
+		Thread.sleep(100);
+		Assertions.assertFalse(drained.get());
+		leave.countDown();
+		waiter.join(5000);
+		Assertions.assertTrue(drained.get());
+		Assertions.assertTrue(counter.isEmpty());
+		other.join();
+	}
+}
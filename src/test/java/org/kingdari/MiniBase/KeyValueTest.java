@@ -3,6 +3,9 @@ package org.kingdari.MiniBase;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assertions;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 public class KeyValueTest {
 	@Test
 	public void compareTest() {
@@ -32,4 +35,51 @@ public class KeyValueTest {
 		Assertions.assertTrue(kv1.compareTo(kv4) == 0);
 		Assertions.assertTrue(kv1.compareTo(kv5) > 0);
 	}
+
+	@Test
+	public void codecTest() throws IOException {
+		KeyValue[] kvs = {
+				KeyValue.createPut(ByteUtils.toBytes(100), ByteUtils.toBytes(-200), 7L),
+				KeyValue.createDelete(ByteUtils.toBytes("key"), Long.MAX_VALUE),
+				KeyValue.createPut(ByteUtils.EMPTY_BYTES, ByteUtils.EMPTY_BYTES, 0L)};
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024);
+		for (KeyValue kv : kvs) {
+			kv.writeTo(buf);
+		}
+		buf.flip();
+		for (KeyValue kv : kvs) {
+			byte[] bytes = new byte[kv.getSerializedSize()];
+			buf.mark();
+			buf.get(bytes);
+			Assertions.assertArrayEquals(kv.toBytes(), bytes);
+			buf.reset();
+			KeyValue decoded = KeyValue.readFrom(buf);
+			Assertions.assertEquals(kv, decoded);
+			Assertions.assertArrayEquals(kv.getValue(), decoded.getValue());
+		}
+		Assertions.assertFalse(buf.hasRemaining());
+		Assertions.assertThrows(IOException.class, () -> KeyValue.readFrom(buf));
+	}
+
+	@Test
+	public void sliceTest() {
+		byte[] bytes = ByteUtils.toBytes("__keyvalue__");
+		KeyValue slice = KeyValue.wrap(bytes, 2, 3, 5, 5, KeyValue.Op.Put, 3L);
+		KeyValue kv = KeyValue.createPut(ByteUtils.toBytes("key"), ByteUtils.toBytes("value"), 3L);
+		Assertions.assertEquals(kv, slice);
+		Assertions.assertArrayEquals(kv.getKey(), slice.getKey());
+		Assertions.assertArrayEquals(kv.getValue(), slice.getValue());
+		Assertions.assertArrayEquals(kv.toBytes(), slice.toBytes());
+		ByteBuffer buf = ByteBuffer.allocate(slice.getSerializedSize());
+		slice.writeTo(buf);
+		Assertions.assertArrayEquals(kv.toBytes(), buf.array());
+
+		Assertions.assertTrue(slice.compareKey(ByteUtils.toBytes("kez")) < 0);
+		Assertions.assertTrue(slice.compareKey(ByteUtils.toBytes("ke")) > 0);
+		Assertions.assertTrue(slice.compareTo(KeyValue.createPut(ByteUtils.toBytes("key_"), bytes, 3L)) < 0);
+		Assertions.assertSame(kv, kv.detach());
+		KeyValue detached = slice.detach();
+		Assertions.assertEquals(kv, detached);
+		Assertions.assertSame(detached.getKey(), detached.getKey());
+	}
 }
@@ -0,0 +1,98 @@
+package org.kingdari.MiniBase;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class MemStoreLABTest {
+
+	@Test
+	public void copyTest() {
+		MemStoreLAB.ChunkPool pool = new MemStoreLAB.ChunkPool(256, 4);
+		MemStoreLAB lab = new MemStoreLAB(pool);
+		List<KeyValue> kvs = new ArrayList<>();
+		List<KeyValue> copies = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			byte[] bytes = ByteUtils.toBytes("key-" + i);
+			KeyValue kv = (i & 1) == 0 ? KeyValue.createPut(bytes, ByteUtils.toBytes(i), i) :
+					KeyValue.createDelete(bytes, i);
+			kvs.add(kv);
+			copies.add(lab.copy(kv));
+		}
+		for (int i = 0; i < kvs.size(); i++) {
+			KeyValue kv = kvs.get(i);
+			KeyValue copy = copies.get(i);
+			Assertions.assertNotSame(kv, copy);
+			Assertions.assertEquals(kv, copy);
+			Assertions.assertEquals(0, copy.compareKey(kv.getKey()));
+			Assertions.assertArrayEquals(kv.getKey(), copy.getKey());
+			Assertions.assertArrayEquals(kv.getValue(), copy.getValue());
+			Assertions.assertArrayEquals(kv.toBytes(), copy.toBytes());
+			Assertions.assertEquals(kv.getSerializedSize(), copy.getSerializedSize());
+			KeyValue detached = copy.detach();
+			Assertions.assertEquals(kv, detached);
+			Assertions.assertSame(detached, detached.detach());
+		}
+		Assertions.assertTrue(lab.getChunkCount() > 1);
+
+		// larger than a quarter chunk.
+		KeyValue large = KeyValue.createPut(ByteUtils.toBytes(1), new byte[128], 1L);
+		Assertions.assertSame(large, lab.copy(large));
+	}
+
+	@Test
+	public void reuseTest() {
+		MemStoreLAB.ChunkPool pool = new MemStoreLAB.ChunkPool(1024, 4);
+		MemStoreLAB lab = new MemStoreLAB(pool);
+		for (int i = 0; i < 50; i++) {
+			lab.copy(KeyValue.createPut(ByteUtils.toBytes(i), new byte[100], i));
+		}
+		int chunks = lab.getChunkCount();
+		Assertions.assertEquals(chunks, pool.getCreatedCount());
+		Assertions.assertEquals(0, pool.getPooledCount());
+
+		// a reader keeps the chunks.
+		lab.retain();
+		lab.release();
+		Assertions.assertEquals(0, pool.getPooledCount());
+		lab.release();
+		Assertions.assertEquals(Math.min(4, chunks), pool.getPooledCount());
+
+		MemStoreLAB next = new MemStoreLAB(pool);
+		for (int i = 0; i < 10; i++) {
+			next.copy(KeyValue.createPut(ByteUtils.toBytes(i), new byte[100], i));
+		}
+		Assertions.assertEquals(chunks, pool.getCreatedCount());
+	}
+
+	@Test
+	public void concurrentCopyTest() throws Exception {
+		MemStoreLAB.ChunkPool pool = new MemStoreLAB.ChunkPool(4096, 16);
+		MemStoreLAB lab = new MemStoreLAB(pool);
+		ConcurrentLinkedQueue<KeyValue[]> pairs = new ConcurrentLinkedQueue<>();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					KeyValue kv = KeyValue.createPut(ByteUtils.toBytes(id * 10000 + i),
+							ByteUtils.toBytes("value-" + i), i);
+					pairs.add(new KeyValue[]{kv, lab.copy(kv)});
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assertions.assertEquals(8000, pairs.size());
+		for (KeyValue[] pair : pairs) {
+			Assertions.assertEquals(pair[0], pair[1]);
+			Assertions.assertArrayEquals(pair[0].getValue(), pair[1].getValue());
+		}
+		Assertions.assertTrue(lab.getChunkCount() <= pool.getCreatedCount());
+	}
+}
@@ -4,16 +4,29 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assertions;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MemStoreTest {
 	private static class SleepAndFlusher implements Store.Flusher {
 		private volatile boolean sleepNow = true;
 
 		@Override
-		public void flush(Store.Iter<KeyValue> iter) throws IOException {
+		public void flush(Store.Iter<KeyValue> iter, long maxSeqId) throws IOException {
 			while(sleepNow) {
 				try {
 					Thread.sleep(100L);
@@ -29,9 +42,11 @@ public class MemStoreTest {
 
 	@Test
 	public void blockingPutTest() throws Exception {
-		ExecutorService pool = Executors.newFixedThreadPool(1);
+		ExecutorService pool = Executors.newFixedThreadPool(2);
 		try {
-			Config conf = new Config().setMaxMemStoreSize(26).setFlushMaxRetryTimes(5);
+			// writes stop with 2 memStores waiting to be flushed.
+			Config conf = new Config().setMaxMemStoreSize(26).setFlushMaxRetryTimes(5).
+					setMemStoreSlowdownMultiplier(1).setMemStoreStopMultiplier(3);
 			SleepAndFlusher flusher = new SleepAndFlusher();
 			MemStore memStore = new MemStore(conf, flusher, pool);
 			memStore.add(KeyValue.createPut(
@@ -43,29 +58,40 @@ public class MemStoreTest {
 					ByteUtils.toBytes(1), ByteUtils.toBytes(2), 2L));
 			Assertions.assertEquals(memStore.getDataSize(), 0);
 
-			// Flushing... (Block by SleepFlusher)
+			// Flushing... (Block by SleepFlusher), queued behind it.
 			memStore.add(KeyValue.createPut(
 					ByteUtils.toBytes(1), ByteUtils.toBytes(3), 3L));
 			memStore.add(KeyValue.createPut(
 					ByteUtils.toBytes(1), ByteUtils.toBytes(4), 4L));
-			try {
-				memStore.add(KeyValue.createPut(
-						ByteUtils.toBytes(1), ByteUtils.toBytes(5), 5L));
-				Assertions.fail("Should catch exception");
-			} catch (IOException e) {
-				Assertions.assertTrue(e.getMessage().contains("MemStore is full"));
-				Assertions.assertTrue(memStore.isFlushing());
-				Assertions.assertEquals(memStore.getDataSize(), 50);
-			}
+			Assertions.assertTrue(memStore.isFlushing());
+			Assertions.assertEquals(2, memStore.getFlushQueueSize());
+			Assertions.assertEquals(100, memStore.getWriteController().getPendingFlushSize());
+			Assertions.assertTrue(memStore.getWriteController().isWriteStopped());
+
+			CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+				try {
+					memStore.add(KeyValue.createPut(
+							ByteUtils.toBytes(1), ByteUtils.toBytes(5), 5L));
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			});
+			Thread.sleep(200);
+			Assertions.assertFalse(blocked.isDone());
+			Assertions.assertEquals(memStore.getDataSize(), 0);
+
 			flusher.stopSleeping();
+			blocked.get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(memStore.getDataSize(), 25);
+			Assertions.assertEquals(1, memStore.getWriteController().getStallCount());
+			Assertions.assertTrue(memStore.getWriteController().getStallNanos() >=
+					TimeUnit.MILLISECONDS.toNanos(200));
 			Thread.sleep(200); // wait flusher exit
 			Assertions.assertFalse(memStore.isFlushing());
-			Assertions.assertEquals(memStore.getDataSize(), 50);
-			memStore.add(KeyValue.createPut(
-					ByteUtils.toBytes(1), ByteUtils.toBytes(5), 5L));
-			Assertions.assertEquals(memStore.getDataSize(), 25);
+			Assertions.assertEquals(0, memStore.getFlushQueueSize());
+			Assertions.assertEquals(0, memStore.getWriteController().getPendingFlushSize());
 
-			ConcurrentSkipListMap<KeyValue, KeyValue> map = memStore.getMemStoreMaps()[0];
+			ConcurrentSkipListMap<KeyValue, KeyValue> map = memStore.getActiveMap();
 			Assertions.assertTrue(map.containsKey(
 					KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(5), 5L)));
 		} finally {
@@ -73,6 +99,96 @@ public class MemStoreTest {
 		}
 	}
 
+	@Test
+	public void failedFlushStopTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Config conf = new Config().setMaxMemStoreSize(26).setFlushMaxRetryTimes(1).
+					setMemStoreSlowdownMultiplier(1).setMemStoreStopMultiplier(2);
+			AtomicLong flushes = new AtomicLong();
+			AtomicBoolean failing = new AtomicBoolean(true);
+			MemStore memStore = new MemStore(conf, (iter, maxSeqId) -> {
+				flushes.incrementAndGet();
+				if (failing.get()) {
+					throw new IOException("Mock flush failure");
+				}
+			}, pool);
+			memStore.add(KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(1), 1L));
+			memStore.add(KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(2), 2L));
+			memStore.add(KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(3), 3L));
+			memStore.add(KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(4), 4L));
+			Assertions.assertTrue(memStore.getWriteController().isWriteStopped());
+
+			// the write waits while its flush is retried, instead of failing.
+			CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+				try {
+					memStore.add(KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(5), 5L));
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			});
+			long before = flushes.get();
+			Thread.sleep(500);
+			Assertions.assertFalse(blocked.isDone());
+			Assertions.assertTrue(flushes.get() > before + 1, "flushes " + flushes.get());
+
+			failing.set(false);
+			blocked.get(5, TimeUnit.SECONDS);
+			Assertions.assertEquals(5, memStore.get(ByteUtils.toBytes(1), Long.MAX_VALUE).getSequenceId());
+
+			// stopped again, the write gives up once the controller is closed.
+			failing.set(true);
+			for (long i = 6; !memStore.getWriteController().isWriteStopped(); i++) {
+				memStore.add(KeyValue.createPut(ByteUtils.toBytes(1), ByteUtils.toBytes(i), i));
+			}
+			CompletableFuture<Void> closed = CompletableFuture.runAsync(() -> {
+				try {
+					memStore.add(KeyValue.createPut(ByteUtils.toBytes(2), ByteUtils.toBytes(2), 100L));
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			});
+			Thread.sleep(200);
+			Assertions.assertFalse(closed.isDone());
+			memStore.getWriteController().close();
+			try {
+				closed.get(5, TimeUnit.SECONDS);
+				Assertions.fail("Should catch exception");
+			} catch (ExecutionException e) {
+				Assertions.assertTrue(e.getCause() instanceof IOException);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void queuedFlushScanTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		try {
+			Config conf = new Config().setMaxMemStoreSize(1024).setMemStoreStopMultiplier(100);
+			SleepAndFlusher flusher = new SleepAndFlusher();
+			MemStore memStore = new MemStore(conf, flusher, pool);
+			for (int i = 0; i < 500; i++) {
+				memStore.add(KeyValue.createPut(ByteUtils.toBytes(i), ByteUtils.toBytes(i), i));
+			}
+			Assertions.assertTrue(memStore.getFlushQueueSize() > 2);
+			Assertions.assertTrue(memStore.getWriteController().isWriteDelayed());
+
+			// all queued snapshots are read.
+			MStore.SeekIter<KeyValue> iter = memStore.createIterator();
+			for (int i = 0; i < 500; i++) {
+				Assertions.assertTrue(iter.hasNext());
+				Assertions.assertEquals(KeyValue.createPut(ByteUtils.toBytes(i), ByteUtils.toBytes(i), i), iter.next());
+			}
+			Assertions.assertFalse(iter.hasNext());
+			iter.close();
+			flusher.stopSleeping();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
 	@Test
 	public void putDeleteTest() throws IOException {
 		ExecutorService pool = Executors.newFixedThreadPool(1);
@@ -162,4 +278,217 @@ public class MemStoreTest {
 			pool.shutdownNow();
 		}
 	}
+
+	@Test
+	public void chunkReuseTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(1);
+		try {
+			Config conf = new Config().setMaxMemStoreSize(4 * 1024).setMemStoreChunkSize(1024);
+			SleepAndFlusher flusher = new SleepAndFlusher();
+			MemStore memStore = new MemStore(conf, flusher, pool);
+			MemStoreLAB.ChunkPool chunkPool = memStore.getChunkPool();
+			int i = 0;
+			while (!memStore.isFlushing()) {
+				byte[] bytes = ByteUtils.toBytes(i);
+				memStore.add(KeyValue.createPut(bytes, new byte[64], i++));
+			}
+			int created = chunkPool.getCreatedCount();
+			Assertions.assertTrue(created > 1);
+
+			// the iterator keeps the chunks of the flushed map.
+			MStore.SeekIter<KeyValue> iter = memStore.createIterator();
+			flusher.stopSleeping();
+			while (memStore.isFlushing()) {
+				Thread.sleep(10);
+			}
+			Assertions.assertEquals(0, chunkPool.getPooledCount());
+			int index = 0;
+			while (iter.hasNext()) {
+				KeyValue kv = iter.next();
+				Assertions.assertEquals(KeyValue.createPut(ByteUtils.toBytes(index), new byte[64], index), kv);
+				index++;
+			}
+			Assertions.assertEquals(i, index);
+			iter.close();
+			Assertions.assertTrue(chunkPool.getPooledCount() > 0);
+
+			int pooled = chunkPool.getPooledCount();
+			for (int j = 0; j < pooled * 1024 / 100 - 1; j++) {
+				byte[] bytes = ByteUtils.toBytes(i);
+				memStore.add(KeyValue.createPut(bytes, new byte[64], i++));
+			}
+			Assertions.assertEquals(created, chunkPool.getCreatedCount());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentSwapTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			for (Config.MEMSTORE_COMPACTION compaction : Config.MEMSTORE_COMPACTION.values()) {
+				Config conf = new Config().setMaxMemStoreSize(16 * 1024).setMemStoreChunkSize(4 * 1024).
+						setMemStoreCompaction(compaction).setMemStoreStopMultiplier(1000);
+				Set<KeyValue> flushed = Collections.newSetFromMap(new ConcurrentHashMap<>());
+				MemStore memStore = new MemStore(conf, (iter, maxSeqId) -> {
+					while (iter.hasNext()) {
+						flushed.add(iter.next().detach());
+					}
+				}, pool);
+				int threads = 8;
+				int count = 5000;
+				AtomicLong seqId = new AtomicLong();
+				List<Thread> writers = new ArrayList<>();
+				for (int t = 0; t < threads; t++) {
+					int id = t;
+					writers.add(new Thread(() -> {
+						try {
+							for (int i = 0; i < count; i++) {
+								byte[] key = ByteUtils.toBytes(id * count + i);
+								memStore.add(KeyValue.createPut(key, key, seqId.incrementAndGet()));
+							}
+						} catch (IOException e) {
+							throw new RuntimeException(e);
+						}
+					}));
+				}
+				writers.forEach(Thread::start);
+				for (Thread writer : writers) {
+					writer.join();
+				}
+				while (memStore.getFlushQueueSize() > 0) {
+					Thread.sleep(10);
+				}
+				// every kv is either flushed or still in memory, no map took writes after its swap.
+				Set<KeyValue> all = new HashSet<>(flushed);
+				try (MStore.SeekIter<KeyValue> iter = memStore.createIterator()) {
+					while (iter.hasNext()) {
+						all.add(iter.next().detach());
+					}
+				}
+				Assertions.assertFalse(flushed.isEmpty());
+				Assertions.assertEquals(threads * count, all.size());
+				for (int i = 0; i < threads * count; i += 97) {
+					byte[] key = ByteUtils.toBytes(i);
+					KeyValue kv = memStore.get(key, Long.MAX_VALUE);
+					Assertions.assertTrue(kv == null || Arrays.equals(key, kv.getValue()));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private static void waitPipelineCompacted(MemStore memStore) throws InterruptedException {
+		for (int i = 0; i < 500 && !memStore.isPipelineCompacted(); i++) {
+			Thread.sleep(10);
+		}
+		Assertions.assertTrue(memStore.isPipelineCompacted());
+	}
+
+	@Test
+	public void basicCompactionTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Config conf = new Config().setMaxMemStoreSize(64 * 1024).setMaxMemStorePipelineSize(4).
+					setMemStoreCompaction(Config.MEMSTORE_COMPACTION.BASIC);
+			SleepAndFlusher flusher = new SleepAndFlusher();
+			MemStore memStore = new MemStore(conf, flusher, pool);
+			// 85 bytes each, the active map moves into the pipeline every 16KB.
+			for (int i = 599; i >= 0; i--) {
+				memStore.add(KeyValue.createPut(ByteUtils.toBytes(i), new byte[64], i));
+			}
+			waitPipelineCompacted(memStore);
+			// 3 in-memory flushes merged into one array.
+			Assertions.assertEquals(1, memStore.getPipelineSize());
+			Assertions.assertFalse(memStore.isFlushing());
+			Assertions.assertEquals(600 * 85, memStore.getDataSize());
+
+			MStore.SeekIter<KeyValue> iter = memStore.createIterator();
+			for (int i = 0; i < 600; i++) {
+				Assertions.assertTrue(iter.hasNext());
+				Assertions.assertEquals(KeyValue.createPut(ByteUtils.toBytes(i), new byte[64], i), iter.next());
+			}
+			Assertions.assertFalse(iter.hasNext());
+			iter.seekTo(KeyValue.createDelete(ByteUtils.toBytes(300), Long.MAX_VALUE));
+			Assertions.assertEquals(KeyValue.createPut(ByteUtils.toBytes(300), new byte[64], 300), iter.next());
+			iter.close();
+
+			// pipeline goes to disk with the active map.
+			for (int i = 600; i < 800; i++) {
+				memStore.add(KeyValue.createPut(ByteUtils.toBytes(i), new byte[64], i));
+			}
+			Assertions.assertTrue(memStore.isFlushing());
+			Assertions.assertEquals(0, memStore.getPipelineSize());
+			iter = memStore.createIterator();
+			int count = 0;
+			while (iter.hasNext()) {
+				iter.next();
+				count++;
+			}
+			Assertions.assertEquals(800, count);
+			iter.close();
+			flusher.stopSleeping();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void eagerCompactionTest() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Config conf = new Config().setMaxMemStoreSize(64 * 1024).setMaxMemStorePipelineSize(4).
+					setMemStoreCompaction(Config.MEMSTORE_COMPACTION.EAGER);
+			SleepAndFlusher flusher = new SleepAndFlusher();
+			MemStore memStore = new MemStore(conf, flusher, pool);
+			MStore.SeekIter<KeyValue> before = null;
+			for (int i = 1; i <= 2000; i++) {
+				memStore.add(KeyValue.createPut(ByteUtils.toBytes(i % 100), ByteUtils.toBytes(i), i));
+				if (i == 100) {
+					before = memStore.createIterator(new KeyValueFilter().setVersion(100L));
+				}
+			}
+			waitPipelineCompacted(memStore);
+			Assertions.assertFalse(memStore.isFlushing());
+			Assertions.assertEquals(1, memStore.getPipelineSize());
+			// 25 bytes each, one version per key in the pipeline, some more in the active map.
+			Assertions.assertTrue(memStore.getDataSize() < 1000 * 25, "size " + memStore.getDataSize());
+
+			MStore.SeekIter<KeyValue> iter = memStore.createIterator();
+			int lastKey = -1;
+			int count = 0;
+			while (iter.hasNext()) {
+				KeyValue kv = iter.next();
+				int key = ByteUtils.toInt(kv.getKey());
+				if (key != lastKey) {
+					// newest version first.
+					int latest = 1900 + key + (key == 0 ? 100 : 0);
+					Assertions.assertEquals(latest, ByteUtils.toInt(kv.getValue()));
+					lastKey = key;
+				}
+				count++;
+			}
+			Assertions.assertEquals(99, lastKey);
+			Assertions.assertTrue(count < 1000);
+			iter.close();
+
+			// reads older than the compaction may miss versions.
+			Assertions.assertTrue(memStore.getMinReadVersion() > 100);
+
+			// an iterator opened earlier keeps the versions it reads.
+			count = 0;
+			while (before.hasNext()) {
+				KeyValue kv = before.next();
+				Assertions.assertTrue(kv.getSequenceId() <= 100);
+				count++;
+			}
+			Assertions.assertEquals(100, count);
+			before.close();
+			flusher.stopSleeping();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
 }
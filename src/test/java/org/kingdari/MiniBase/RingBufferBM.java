@@ -0,0 +1,111 @@
+package org.kingdari.MiniBase;
+
+import org.kingdari.MiniBase.Config.WAIT_STRATEGY;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handoff throughput of the log queue: N writer threads put, one consumer drains,
+ * as WriteQueueConsumer does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RingBufferBM {
+	@Param(value = {"LinkedBlockingQueue", "BUSY_SPIN", "YIELD", "PARK"})
+	private String queueType;
+
+	private static final Object ENTRY = new Object();
+
+	private LinkedBlockingQueue<Object> linkedQueue;
+	private RingBuffer<Object> ringBuffer;
+	private Thread consumer;
+	private volatile boolean running;
+
+	@Setup
+	public void startConsumer() {
+		running = true;
+		if (queueType.equals("LinkedBlockingQueue")) {
+			linkedQueue = new LinkedBlockingQueue<>();
+			consumer = new Thread(() -> {
+				List<Object> batch = new ArrayList<>();
+				while (running) {
+					try {
+						batch.add(linkedQueue.take());
+						linkedQueue.drainTo(batch, 1023);
+						batch.clear();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+		} else {
+			ringBuffer = new RingBuffer<>(64 * 1024, WAIT_STRATEGY.valueOf(queueType));
+			consumer = new Thread(() -> {
+				List<Object> batch = new ArrayList<>();
+				while (running) {
+					try {
+						batch.add(ringBuffer.take());
+						ringBuffer.drainTo(batch, 1023);
+						batch.clear();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+		}
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	@TearDown
+	public void stopConsumer() throws InterruptedException {
+		running = false;
+		consumer.interrupt();
+		consumer.join();
+	}
+
+	@Benchmark
+	public void measurePut() throws InterruptedException {
+		if (linkedQueue != null) {
+			linkedQueue.put(ENTRY);
+		} else {
+			ringBuffer.put(ENTRY);
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : new int[]{1, 2, 4, 8, 16, 32, 64}) {
+			Options opt = new OptionsBuilder()
+					.include(RingBufferBM.class.getSimpleName())
+					.threads(threads)
+					.result("result-ring-" + threads + ".json")
+					.resultFormat(ResultFormatType.JSON)
+					.build();
+			new Runner(opt).run();
+		}
+	}
+}
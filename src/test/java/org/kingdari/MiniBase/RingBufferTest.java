@@ -0,0 +1,138 @@
+package org.kingdari.MiniBase;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.kingdari.MiniBase.Config.WAIT_STRATEGY;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RingBufferTest {
+
+	@Test
+	public void basicTest() throws Exception {
+		RingBuffer<Integer> ring = new RingBuffer<>(4, WAIT_STRATEGY.PARK);
+		Assertions.assertTrue(ring.isEmpty());
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 4; i++) {
+				ring.put(i);
+			}
+			Assertions.assertEquals(4, ring.size());
+			for (int i = 0; i < 4; i++) {
+				Assertions.assertEquals(i, (int) ring.take());
+			}
+			Assertions.assertTrue(ring.isEmpty());
+		}
+		Assertions.assertNull(ring.poll(10, TimeUnit.MILLISECONDS));
+
+		List<Integer> list = new ArrayList<>();
+		ring.put(1);
+		ring.put(2);
+		ring.put(3);
+		Assertions.assertEquals(2, ring.drainTo(list, 2));
+		Assertions.assertEquals(1, ring.drainTo(list, 2));
+		Assertions.assertEquals(0, ring.drainTo(list, 2));
+		Assertions.assertEquals(3, list.size());
+		Assertions.assertEquals(3, (int) list.get(2));
+	}
+
+	@Test
+	public void illegalCapacityTest() {
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> new RingBuffer<Integer>(3, WAIT_STRATEGY.PARK));
+	}
+
+	@Test
+	public void backpressureTest() throws Exception {
+		RingBuffer<Integer> ring = new RingBuffer<>(2, WAIT_STRATEGY.PARK);
+		ring.put(0);
+		ring.put(1);
+		AtomicInteger putCount = new AtomicInteger();
+		Thread producer = new Thread(() -> {
+			ring.put(2);
+			putCount.incrementAndGet();
+		});
+		producer.start();
+		Thread.sleep(100);
+		// full, producer is waiting.
+		Assertions.assertEquals(0, putCount.get());
+		Assertions.assertEquals(0, (int) ring.take());
+		producer.join();
+		Assertions.assertEquals(1, putCount.get());
+		Assertions.assertEquals(1, (int) ring.take());
+		Assertions.assertEquals(2, (int) ring.take());
+	}
+
+	private void concurrentHelper(WAIT_STRATEGY waitStrategy) throws Exception {
+		RingBuffer<int[]> ring = new RingBuffer<>(16, waitStrategy);
+		int ths = 4, n = 10000;
+		Thread[] threads = new Thread[ths];
+		for (int i = 0; i < ths; i++) {
+			final int fi = i;
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < n; j++) {
+					ring.put(new int[]{fi, j});
+				}
+			}, "Put thread-" + i);
+			threads[i].start();
+		}
+		int[] expected = new int[ths];
+		for (int i = 0; i < ths * n; i++) {
+			int[] e = ring.take();
+			// FIFO per producer.
+			Assertions.assertEquals(expected[e[0]]++, e[1]);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assertions.assertTrue(ring.isEmpty());
+	}
+
+	@Test
+	public void concurrentTest() throws Exception {
+		concurrentHelper(WAIT_STRATEGY.BUSY_SPIN);
+		concurrentHelper(WAIT_STRATEGY.YIELD);
+		concurrentHelper(WAIT_STRATEGY.PARK);
+	}
+
+	@Test
+	public void closeTest() throws Exception {
+		for (WAIT_STRATEGY waitStrategy : WAIT_STRATEGY.values()) {
+			RingBuffer<Integer> ring = new RingBuffer<>(2, waitStrategy);
+			ring.put(0);
+			ring.put(1);
+			AtomicInteger result = new AtomicInteger(-1);
+			Thread producer = new Thread(() -> result.set(ring.put(2) ? 1 : 0));
+			producer.start();
+			Thread.sleep(50);
+			// full, producer is waiting.
+			Assertions.assertEquals(-1, result.get());
+			ring.close();
+			producer.join(5000);
+			Assertions.assertEquals(0, result.get(), waitStrategy.name());
+			Assertions.assertFalse(ring.put(3));
+
+			// published entries are still taken.
+			Assertions.assertEquals(0, (int) ring.take());
+			Assertions.assertEquals(1, (int) ring.poll(1, TimeUnit.SECONDS));
+			Assertions.assertNull(ring.take());
+
+			// wakes up a waiting consumer.
+			RingBuffer<Integer> empty = new RingBuffer<>(2, waitStrategy);
+			Thread consumer = new Thread(() -> {
+				try {
+					result.set(empty.take() == null ? 2 : 3);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			consumer.start();
+			Thread.sleep(50);
+			empty.close();
+			consumer.join(5000);
+			Assertions.assertEquals(2, result.get(), waitStrategy.name());
+		}
+	}
+}
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.Assertions;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
@@ -23,7 +24,16 @@ import org.openjdk.jmh.runner.options.OptionsBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @State(Scope.Benchmark)
 @BenchmarkMode(Mode.SampleTime)
@@ -80,6 +90,1168 @@ public class StoreBM {
 		assert false;
 	}
 
+	/**
+	 * A store in a new root dir, configured by the benchmark, deleted on tear down.
+	 */
+	public abstract static class StoreState {
+		protected final AtomicLong keyGen = new AtomicLong();
+		protected MStore db;
+		protected Config conf;
+		private String rootDir;
+
+		protected abstract Config configure(Config conf);
+
+		/**
+		 * Called once the store is open.
+		 */
+		protected void opened() throws Exception {
+		}
+
+		/**
+		 * Called once the store is closed, before its files are deleted.
+		 */
+		protected void closed() {
+		}
+
+		@Setup
+		public void initDB() throws Exception {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			conf = configure(new Config().setRoorDir(rootDir));
+			db = MStore.create(conf);
+			db.open();
+			opened();
+		}
+
+		@TearDown
+		public void closeDB() throws IOException {
+			db.close();
+			closed();
+			deleteDir(new File(rootDir));
+		}
+	}
+
+	/**
+	 * FSYNC put throughput: groupCommitSize = 1 forces once per entry.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(16)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class GroupCommitBM extends StoreState {
+		@Param(value = {"1", "64", "1024"})
+		private int groupCommitSize;
+		@Param(value = {"0", "200"})
+		private long groupCommitWaitMicros;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.FSYNC).
+					setMaxGroupCommitSize(groupCommitSize).
+					setMaxGroupCommitWaitMicros(groupCommitWaitMicros);
+		}
+
+		@Benchmark
+		public void measureFsyncPut() throws IOException {
+			long i = keyGen.incrementAndGet();
+			db.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+	}
+
+	/**
+	 * Put throughput with a few threads, each keeping up to inFlight async puts outstanding.
+	 * inFlight = 1 is the blocking put.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class AsyncPutBM extends StoreState {
+		@Param(value = {"1", "64", "1024"})
+		private int inFlight;
+		@Param(value = {"SYNC", "FSYNC"})
+		private String walLevel;
+
+		// outstanding puts of one thread, left ones are failed by db.close().
+		@State(Scope.Thread)
+		public static class Window {
+			private final ArrayDeque<CompletableFuture<Long>> futures = new ArrayDeque<>();
+		}
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.valueOf(walLevel));
+		}
+
+		@Benchmark
+		public void measureAsyncPut(Window window) {
+			if (window.futures.size() >= inFlight) {
+				window.futures.poll().join();
+			}
+			long i = keyGen.incrementAndGet();
+			window.futures.add(db.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i)));
+		}
+	}
+
+	/**
+	 * MemStore apply stage alone: SKIP WAL, 4 threads with async puts in flight.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class ParallelApplyBM extends StoreState {
+		@Param(value = {"1", "2", "4", "8"})
+		private int applyThreads;
+
+		@State(Scope.Thread)
+		public static class Window {
+			private final ArrayDeque<CompletableFuture<Long>> futures = new ArrayDeque<>();
+		}
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(256 * 1024 * 1024).
+					setLogApplyThreads(applyThreads).
+					setWalLevel(Config.WAL_LEVEL.SKIP);
+		}
+
+		@Benchmark
+		public void measureApply(Window window) {
+			if (window.futures.size() >= 1024) {
+				window.futures.poll().join();
+			}
+			long i = keyGen.incrementAndGet();
+			window.futures.add(db.putAsync(ByteUtils.toBytes(i * 0x9E3779B97F4A7C15L), ByteUtils.toBytes(i)));
+		}
+	}
+
+	/**
+	 * Bulk ingest: each op writes batchSize keys, batchSize = 1 is a single put.
+	 * Keys/s = score * batchSize.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class WriteBatchBM extends StoreState {
+		@Param(value = {"1", "16", "256"})
+		private int batchSize;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.SYNC);
+		}
+
+		@Benchmark
+		public void measureWriteBatch() throws IOException {
+			WriteBatch batch = new WriteBatch();
+			long start = keyGen.getAndAdd(batchSize);
+			for (long i = start; i < start + batchSize; i++) {
+				batch.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+			}
+			db.write(batch);
+		}
+	}
+
+	/**
+	 * Encode/decode of one log entry. Run with -prof gc: encode allocates nothing,
+	 * decode only the kv itself.
+	 */
+	@State(Scope.Thread)
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public static class LogCodecBM {
+		@Param(value = {"16", "1024"})
+		private int valueSize;
+
+		private WriteLogWal wal;
+		private ByteBuffer buffer;
+
+		@Setup
+		public void init() {
+			wal = WriteLogWal.createPutWal(ByteUtils.toBytes(123456789L), new byte[valueSize], Config.WAL_LEVEL.ASYNC);
+			wal.setSeq(1L);
+			buffer = ByteBuffer.allocateDirect(64 * 1024);
+		}
+
+		@Benchmark
+		public ByteBuffer measureEncode() {
+			if (buffer.remaining() < wal.getSerializedSize()) {
+				buffer.clear();
+			}
+			wal.writeTo(buffer);
+			return buffer;
+		}
+
+		@Benchmark
+		public ReadLogWal measureDecode() throws IOException {
+			buffer.clear();
+			wal.writeTo(buffer);
+			buffer.flip();
+			return ReadLogWal.readFrom(buffer);
+		}
+	}
+
+	/**
+	 * SYNC WAL pipeline alone: writer -> disk -> ReadQueueProducer -> a consumer that only
+	 * completes the futures. Compares reading synced entries back through mmap and read().
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 5, time = 3)
+	@Threads(4)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class LogTailBM {
+		@Param(value = {"true", "false"})
+		private boolean logMmapRead;
+		@Param(value = {"16", "1024"})
+		private int valueSize;
+
+		private BaseLog log;
+		private Thread consumer;
+		private volatile boolean running;
+		private String rootDir;
+		private byte[] value;
+
+		@State(Scope.Thread)
+		public static class Window {
+			private final ArrayDeque<CompletableFuture<Long>> futures = new ArrayDeque<>();
+		}
+
+		@Setup
+		public void initLog() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			Config conf = new Config().
+					setRoorDir(rootDir).
+					setWalLevel(Config.WAL_LEVEL.SYNC).
+					setLogMmapRead(logMmapRead);
+			new File(conf.getFullLogDir()).mkdirs();
+			value = new byte[valueSize];
+			log = new BaseLog(conf);
+			running = true;
+			consumer = new Thread(() -> {
+				while (running) {
+					try {
+						LogEntry entry = log.getReadQueue().take();
+						if (entry == null) {
+							return;
+						}
+						log.notifyLogEntry(((ReadLogWal) entry).getSeq());
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+			consumer.start();
+		}
+
+		@TearDown
+		public void closeLog() throws Exception {
+			running = false;
+			consumer.interrupt();
+			consumer.join();
+			log.close();
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public void measureLogPut(Window window) {
+			if (window.futures.size() >= 256) {
+				window.futures.poll().join();
+			}
+			window.futures.add(log.putAsync(ByteUtils.toBytes(System.nanoTime()), value));
+		}
+	}
+
+	/**
+	 * FSYNC put throughput against the number of WAL streams, each forcing its own segments.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(16)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class LogStreamsBM extends StoreState {
+		@Param(value = {"1", "2", "4"})
+		private int logStreams;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.FSYNC).
+					setLogStreams(logStreams);
+		}
+
+		@Benchmark
+		public void measureFsyncPut() throws IOException {
+			long i = keyGen.incrementAndGet();
+			db.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+	}
+
+	/**
+	 * FSYNC put latency of a single writer, so each put forces the log. Appending to a growing
+	 * segment forces its size too, a preallocated one only its data.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(1)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class LogPreallocateBM extends StoreState {
+		@Param(value = {"false", "true"})
+		private boolean logPreallocate;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.FSYNC).
+					setLogMmapRead(false).
+					setLogPreallocate(logPreallocate);
+		}
+
+		@Benchmark
+		public void measureFsyncPut() throws IOException {
+			long i = keyGen.incrementAndGet();
+			db.put(ByteUtils.toBytes(i), new byte[100]);
+		}
+	}
+
+	/**
+	 * Overwrite-heavy put throughput with each in-memory compaction mode. The number of
+	 * flushes to disk is printed on tear down.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 1, time = 5)
+	@Measurement(iterations = 3, time = 10)
+	@Threads(4)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class MemStoreCompactionBM extends StoreState {
+		@Param(value = {"NONE", "BASIC", "EAGER"})
+		private Config.MEMSTORE_COMPACTION compaction;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(32 * 1024 * 1024).
+					setMaxDiskFiles(Integer.MAX_VALUE).
+					setWalLevel(Config.WAL_LEVEL.ASYNC).
+					setMemStoreCompaction(compaction);
+		}
+
+		@Override
+		protected void closed() {
+			File[] files = new File(conf.getFullDataDir()).listFiles(f -> f.getName().startsWith("data."));
+			System.out.println("\nflushes: " + (files == null ? 0 : files.length));
+		}
+
+		@Benchmark
+		public void measureOverwrite() throws IOException {
+			// 100k keys, each overwritten many times.
+			int key = ThreadLocalRandom.current().nextInt(100_000);
+			db.put(ByteUtils.toBytes(key), new byte[100]);
+		}
+	}
+
+	/**
+	 * Full scan of a store whose data is all in memStore: an active map, or a pipeline of
+	 * flattened segments.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 2, time = 2)
+	@Measurement(iterations = 3, time = 5)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public static class MemStoreScanBM extends StoreState {
+		@Param(value = {"NONE", "BASIC"})
+		private Config.MEMSTORE_COMPACTION compaction;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.ASYNC).
+					setMemStoreCompaction(compaction);
+		}
+
+		@Override
+		protected void opened() throws Exception {
+			// ~50MB, kept in memory.
+			for (int i = 0; i < 400_000; i++) {
+				db.putAsync(ByteUtils.toBytes(i), new byte[100]);
+			}
+			db.put(ByteUtils.toBytes(-1), new byte[100]);
+			Thread.sleep(1000);
+		}
+
+		@Benchmark
+		public long measureScan() throws IOException {
+			long count = 0;
+			try (Store.Iter<KeyValue> iter = db.scan()) {
+				while (iter.hasNext()) {
+					iter.next();
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Put latency under sustained ingest into small memStores. Writes stop at 2 memStores
+	 * waiting to be flushed, and slow down from 1 or 0.5 of them, or not at all with 2.
+	 * Delay and stall times are printed on tear down.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 1, time = 5)
+	@Measurement(iterations = 3, time = 10)
+	@Threads(4)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class WriteStallBM extends StoreState {
+		@Param(value = {"2", "1", "0.5"})
+		private double slowdownMultiplier;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(4 * 1024 * 1024).
+					setMaxDiskFiles(Integer.MAX_VALUE).
+					setWalLevel(Config.WAL_LEVEL.ASYNC).
+					setMemStoreSlowdownMultiplier(slowdownMultiplier).
+					setMemStoreStopMultiplier(2);
+		}
+
+		@Override
+		protected void closed() {
+			WriteController controller = db.getWriteController();
+			System.out.println("\n" + controller.getDelayedWriteCount() + " delayed writes, " +
+					TimeUnit.NANOSECONDS.toMillis(controller.getDelayNanos()) + " ms; " +
+					controller.getStallCount() + " stalls, " +
+					TimeUnit.NANOSECONDS.toMillis(controller.getStallNanos()) + " ms");
+		}
+
+		@Benchmark
+		public void measurePut() throws IOException {
+			long i = keyGen.incrementAndGet();
+			db.put(ByteUtils.toBytes(i), new byte[100]);
+		}
+	}
+
+	/**
+	 * Get latency against the number of disk files, each holding a version of every key.
+	 * scan looks the key up the former way, through a range scan merging all files.
+	 * All blocks fit in the block cache.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 2, time = 5)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class PointGetBM {
+		private static final int KEYS = 50_000;
+
+		@Param(value = {"1", "4", "16"})
+		private int diskFiles;
+
+		@Param(value = {"get", "scan"})
+		private String path;
+
+		private Store db;
+		private String rootDir;
+
+		@Setup
+		public void initDB() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			Config conf = new Config().
+					setRoorDir(rootDir).
+					setMaxBlockCacheSize(1024 * 1024 * 1024).
+					setMaxDiskFiles(Integer.MAX_VALUE);
+			new File(conf.getFullDataDir()).mkdirs();
+			DiskStore diskStore = new DiskStore(conf.getFullDataDir(),
+					conf.getMaxDiskFiles(), conf.getMaxBlockCacheSize());
+			diskStore.open();
+			DiskStore.DefaultFlusher flusher = new DiskStore.DefaultFlusher(diskStore);
+			for (int f = 0; f < diskFiles; f++) {
+				KeyValue[] kvs = new KeyValue[KEYS];
+				for (int k = 0; k < KEYS; k++) {
+					kvs[k] = KeyValue.createPut(ByteUtils.toBytes(k), new byte[100], (long) f * KEYS + k + 1);
+				}
+				flusher.flush(new MemStore.ArrayIter(kvs, KeyValueFilter.createEmptyFilter()),
+						(long) (f + 1) * KEYS);
+			}
+			diskStore.close();
+			this.db = MStore.create(conf).open();
+		}
+
+		@TearDown
+		public void closeDB() throws IOException {
+			db.close();
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public KeyValue measureGet() throws IOException {
+			byte[] key = ByteUtils.toBytes(ThreadLocalRandom.current().nextInt(KEYS));
+			if ("get".equals(path)) {
+				return db.get(new KeyValueFilter().setKey(key));
+			}
+			try (Store.Iter<KeyValue> iter = db.scan(new KeyValueFilter().setRange(key, ByteUtils.EMPTY_BYTES))) {
+				return iter.hasNext() ? iter.next() : null;
+			}
+		}
+	}
+
+	/**
+	 * Random get latency over ~100MB of compressible data with a 32MB block cache, for each
+	 * data block codec (0 none, 1 deflate, 2 LZ), caching parsed or compressed blocks.
+	 * Data file size is printed on set up.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 2, time = 5)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class BlockCodecBM {
+		private static final int KEYS = 500_000;
+
+		@Param(value = {"0", "1", "2"})
+		private byte codec;
+
+		@Param(value = {"false", "true"})
+		private boolean cacheCompressed;
+
+		private Store db;
+		private String rootDir;
+
+		@Setup
+		public void initDB() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			Config conf = new Config().
+					setRoorDir(rootDir).
+					setMaxBlockCacheSize(32 * 1024 * 1024).
+					setDataBlockCodec(Codec.forCode(codec)).
+					setBlockCacheCompressed(cacheCompressed);
+			new File(conf.getFullDataDir()).mkdirs();
+			DiskStore diskStore = new DiskStore(conf);
+			diskStore.open();
+			KeyValue[] kvs = new KeyValue[KEYS];
+			for (int k = 0; k < KEYS; k++) {
+				StringBuilder sb = new StringBuilder();
+				while (sb.length() < 200) {
+					sb.append("{\"user\":").append(k % 1000).append(",\"region\":\"r-").append(k % 7).append("\"}");
+				}
+				kvs[k] = KeyValue.createPut(ByteUtils.toBytes(k), ByteUtils.toBytes(sb.toString()), k + 1);
+			}
+			new DiskStore.DefaultFlusher(diskStore).flush(
+					new MemStore.ArrayIter(kvs, KeyValueFilter.createEmptyFilter()), KEYS);
+			diskStore.close();
+			File[] files = new File(conf.getFullDataDir()).listFiles(f -> f.getName().startsWith("data."));
+			long size = 0;
+			for (File f : files) {
+				size += f.length();
+			}
+			System.out.println("\ndata files: " + (size >> 20) + " MB");
+			this.db = MStore.create(conf).open();
+		}
+
+		@TearDown
+		public void closeDB() throws IOException {
+			db.close();
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public KeyValue measureGet() throws IOException {
+			byte[] key = ByteUtils.toBytes(ThreadLocalRandom.current().nextInt(KEYS));
+			return db.get(new KeyValueFilter().setKey(key));
+		}
+	}
+
+	/**
+	 * Seek and key only scan of a disk file in each block layout, with all blocks cached.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 2, time = 2)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(1)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class BlockLayoutBM {
+		private static final int KEYS = 50_000;
+
+		@Param(value = {"PLAIN", "PREFIX", "COLUMNAR"})
+		private Config.BLOCK_ENCODING encoding;
+
+		@Param(value = {"64", "4096"})
+		private int valueSize;
+
+		private String fileName;
+		private DiskFile df;
+
+		private static byte[] key(int i) {
+			return ByteUtils.toBytes(String.format("tenant-1/table-1/row-%08d", i));
+		}
+
+		@Setup
+		public void initFile() throws IOException {
+			new File("output").mkdirs();
+			fileName = "output/BlockLayoutBM-" + System.currentTimeMillis();
+			try (DiskFileWriter dfw = new DiskFileWriter(fileName, Codec.NONE, encoding, 16)) {
+				for (int i = 0; i < KEYS; i++) {
+					dfw.append(KeyValue.createPut(key(i), new byte[valueSize], i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+			df = new DiskFile(fileName, new BlockCache(1024 * 1024 * 1024)).open();
+		}
+
+		@TearDown
+		public void close() throws IOException {
+			df.close();
+			new File(fileName).delete();
+		}
+
+		@Benchmark
+		public KeyValue measureSeek() throws IOException {
+			byte[] key = key(ThreadLocalRandom.current().nextInt(KEYS));
+			try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+				iter.seekTo(KeyValue.createDelete(key, Long.MAX_VALUE));
+				return iter.next();
+			}
+		}
+
+		@Benchmark
+		@OutputTimeUnit(TimeUnit.MILLISECONDS)
+		public long measureKeyScan() throws IOException {
+			long keyBytes = 0;
+			try (MStore.SeekIter<KeyValue> iter = df.iterator()) {
+				while (iter.hasNext()) {
+					keyBytes += iter.next().getKeyLength();
+				}
+			}
+			return keyBytes;
+		}
+	}
+
+	/**
+	 * Cost of a block cache miss: parse a 2MB PLAIN block, then seek a key in it. Run with
+	 * -prof gc for allocation per op. Heap retained by a parsed block is printed on set up.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 2, time = 2)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(1)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class BlockParseBM {
+		private byte[] block;
+		private int kvCount;
+
+		@Setup
+		public void initBlock() throws IOException {
+			BlockWriter writer = new BlockWriter();
+			while (writer.size() < DiskFile.BLOCK_SIZE_UP_LIMIT - 1024) {
+				writer.append(KeyValue.createPut(ByteUtils.toBytes(String.format("row-%08d", kvCount)),
+						new byte[100], kvCount));
+				kvCount++;
+			}
+			block = writer.serialize();
+
+			BlockReader[] readers = new BlockReader[20];
+			Runtime runtime = Runtime.getRuntime();
+			System.gc();
+			long before = runtime.totalMemory() - runtime.freeMemory();
+			for (int i = 0; i < readers.length; i++) {
+				readers[i] = BlockReader.parseFrom(block, 0, block.length);
+			}
+			System.gc();
+			long retained = (runtime.totalMemory() - runtime.freeMemory() - before) / readers.length;
+			System.out.println("\nblock " + block.length + " bytes, " + kvCount + " kvs, parsed retains " +
+					retained + " bytes, counted in cache as " + readers[0].getMemorySizeSize());
+		}
+
+		@Benchmark
+		public KeyValue measureParseAndSeek() throws IOException {
+			byte[] key = ByteUtils.toBytes(String.format("row-%08d", ThreadLocalRandom.current().nextInt(kvCount)));
+			return BlockReader.parseFrom(block, 0, block.length).seek(KeyValue.createDelete(key, Long.MAX_VALUE));
+		}
+	}
+
+	/**
+	 * Random get latency from 4 disk files of ~18MB each with a 16MB block cache, so most gets
+	 * read a block. Blocks come from a locked seek and read or from a mapping of the file,
+	 * both from the page cache.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 2, time = 5)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class MmapGetBM {
+		private static final int KEYS = 250_000;
+
+		@Param(value = {"false", "true"})
+		private boolean mmap;
+
+		private Store db;
+		private String rootDir;
+
+		@Setup
+		public void initDB() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			Config conf = new Config().
+					setRoorDir(rootDir).
+					setMaxBlockCacheSize(16 * 1024 * 1024).
+					setMaxDiskFiles(Integer.MAX_VALUE).
+					setDiskFileMmapRead(mmap);
+			new File(conf.getFullDataDir()).mkdirs();
+			DiskStore diskStore = new DiskStore(conf);
+			diskStore.open();
+			DiskStore.DefaultFlusher flusher = new DiskStore.DefaultFlusher(diskStore);
+			for (int f = 0; f < 4; f++) {
+				KeyValue[] kvs = new KeyValue[KEYS / 4];
+				for (int k = 0; k < kvs.length; k++) {
+					int key = k * 4 + f;
+					kvs[k] = KeyValue.createPut(ByteUtils.toBytes(key), new byte[256], key + 1);
+				}
+				flusher.flush(new MemStore.ArrayIter(kvs, KeyValueFilter.createEmptyFilter()), (long) KEYS);
+			}
+			diskStore.close();
+			this.db = MStore.create(conf).open();
+		}
+
+		@TearDown
+		public void closeDB() throws IOException {
+			db.close();
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public KeyValue measureGet() throws IOException {
+			byte[] key = ByteUtils.toBytes(ThreadLocalRandom.current().nextInt(KEYS));
+			return db.get(new KeyValueFilter().setKey(key));
+		}
+	}
+
+	/**
+	 * Full scan of one ~100MB disk file with a 16MB block cache, reading one block at a time
+	 * or reading the next blocks ahead while the current one is consumed.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 1, time = 5)
+	@Measurement(iterations = 3, time = 5)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public static class ReadaheadScanBM {
+		private static final int KEYS = 100_000;
+
+		@Param(value = {"0", "4"})
+		private int readaheadBlocks;
+
+		private Store db;
+		private String rootDir;
+
+		@Setup
+		public void initDB() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			Config conf = new Config().
+					setRoorDir(rootDir).
+					setMaxBlockCacheSize(16 * 1024 * 1024).
+					setReadaheadBlocks(readaheadBlocks);
+			new File(conf.getFullDataDir()).mkdirs();
+			DiskStore diskStore = new DiskStore(conf);
+			diskStore.open();
+			KeyValue[] kvs = new KeyValue[KEYS];
+			for (int k = 0; k < KEYS; k++) {
+				kvs[k] = KeyValue.createPut(ByteUtils.toBytes(k), new byte[1000], k + 1);
+			}
+			new DiskStore.DefaultFlusher(diskStore).flush(
+					new MemStore.ArrayIter(kvs, KeyValueFilter.createEmptyFilter()), (long) KEYS);
+			diskStore.close();
+			this.db = MStore.create(conf).open();
+		}
+
+		@TearDown
+		public void closeDB() throws IOException {
+			db.close();
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public int measureScan() throws IOException {
+			int count = 0;
+			try (Store.Iter<KeyValue> iter = db.scan()) {
+				while (iter.hasNext()) {
+					iter.next();
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Open and close of a disk file of 2M small kvs, whose index is mostly bloom filters,
+	 * parsed on open or kept in index blocks read on use.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.AverageTime)
+	@Warmup(iterations = 2, time = 3)
+	@Measurement(iterations = 3, time = 3)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class IndexOpenBM {
+		private static final int KEYS = 2_000_000;
+
+		@Param(value = {"0", "65536"})
+		private int indexBlockSize;
+
+		private String fileName;
+
+		@Setup
+		public void initFile() throws IOException {
+			new File("output").mkdirs();
+			fileName = "output/IndexOpenBM-" + System.currentTimeMillis();
+			try (DiskFileWriter dfw = new DiskFileWriter(fileName, Codec.NONE,
+					Config.BLOCK_ENCODING.PLAIN, 0, indexBlockSize)) {
+				for (int i = 0; i < KEYS; i++) {
+					dfw.append(KeyValue.createPut(ByteUtils.toBytes(i), ByteUtils.toBytes(i), i));
+				}
+				dfw.appendIndex();
+				dfw.appendTrailer();
+			}
+		}
+
+		@TearDown
+		public void deleteFile() {
+			new File(fileName).delete();
+		}
+
+		@Benchmark
+		public int measureOpen() throws IOException {
+			try (DiskFile df = new DiskFile(fileName).open()) {
+				return df.getIndexBlockCount();
+			}
+		}
+	}
+
+	/**
+	 * Put throughput with and without MSLAB, with memStores flushed to disk. GC count and time
+	 * are printed on tear down, run with -prof gc for allocation rate.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 2, time = 5)
+	@Measurement(iterations = 3, time = 10)
+	@Threads(4)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class MemStoreLABBM extends StoreState {
+		@Param(value = {"0", "2097152"})
+		private int memStoreChunkSize;
+
+		private long gcCount;
+		private long gcTime;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(128 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.ASYNC).
+					setMemStoreChunkSize(memStoreChunkSize);
+		}
+
+		@Override
+		protected void opened() {
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				gcCount -= gc.getCollectionCount();
+				gcTime -= gc.getCollectionTime();
+			}
+		}
+
+		@Override
+		protected void closed() {
+			StringBuilder sb = new StringBuilder("\n");
+			for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+				gcCount += gc.getCollectionCount();
+				gcTime += gc.getCollectionTime();
+				sb.append(gc.getName()).append(": ").append(gc.getCollectionCount()).append(" gcs, ").
+						append(gc.getCollectionTime()).append(" ms; ");
+			}
+			System.out.println(sb.append("total ").append(gcCount).append(" gcs, ").append(gcTime).
+					append(" ms for ").append(keyGen.get()).append(" puts"));
+		}
+
+		@Benchmark
+		public void measurePut() throws IOException {
+			long i = keyGen.incrementAndGet();
+			db.put(ByteUtils.toBytes(i), new byte[100]);
+		}
+	}
+
+	/**
+	 * Put latency in an FSYNC store, with each put overriding the WAL level.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class WalLevelOverrideBM extends StoreState {
+		@Param(value = {"SKIP", "ASYNC", "FSYNC"})
+		private Config.WAL_LEVEL walLevel;
+
+		@Override
+		protected Config configure(Config conf) {
+			return conf.setMaxMemStoreSize(64 * 1024 * 1024).
+					setWalLevel(Config.WAL_LEVEL.FSYNC);
+		}
+
+		@Benchmark
+		public void measurePut() throws IOException {
+			long i = keyGen.incrementAndGet();
+			db.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i), walLevel);
+		}
+	}
+
+	/**
+	 * FSYNC put latency of ~4KB json-like values with and without WAL compression.
+	 * WAL bytes per put is printed on tear down.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SampleTime)
+	@Warmup(iterations = 2, time = 1)
+	@Measurement(iterations = 3, time = 5)
+	@Threads(4)
+	@Fork(1)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public static class LogCompressionBM {
+		@Param(value = {"0", "1"})
+		private byte codec;
+
+		private final AtomicLong keyGen = new AtomicLong();
+		private BaseLog log;
+		private Thread consumer;
+		private volatile boolean running;
+		private String rootDir;
+		private byte[] value;
+
+		@Setup
+		public void initLog() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			Config conf = new Config().
+					setRoorDir(rootDir).
+					setWalLevel(Config.WAL_LEVEL.FSYNC).
+					setLogCodec(Codec.forCode(codec));
+			new File(conf.getFullLogDir()).mkdirs();
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; sb.length() < 4096; i++) {
+				sb.append("{\"id\":").append(i * 7919).append(",\"name\":\"user-").append(i).
+						append("\",\"active\":").append(i % 3 == 0).append("},");
+			}
+			value = sb.toString().getBytes();
+			log = new BaseLog(conf);
+			running = true;
+			consumer = new Thread(() -> {
+				while (running) {
+					try {
+						LogEntry entry = log.getReadQueue().take();
+						if (entry == null) {
+							return;
+						}
+						log.notifyLogEntry(((ReadLogWal) entry).getSeq());
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			});
+			consumer.start();
+		}
+
+		@TearDown
+		public void closeLog() throws Exception {
+			System.out.println("\nWAL bytes per put: " + log.getTotalWrittenSize() / Math.max(1L, keyGen.get()) +
+					", value size: " + value.length);
+			running = false;
+			consumer.interrupt();
+			consumer.join();
+			log.close();
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public long measurePut() {
+			return log.put(ByteUtils.toBytes(keyGen.incrementAndGet()), value);
+		}
+	}
+
+	/**
+	 * Time of MStore.open() against the size of the log left to replay.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 5)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public static class RecoveryBM {
+		@Param(value = {"16", "64", "128"})
+		private int walSizeMB;
+
+		private Config conf;
+		private Store db;
+		private String rootDir;
+
+		@Setup(Level.Trial)
+		public void writeLog() throws IOException {
+			rootDir = "output/MiniBase-" + System.currentTimeMillis();
+			conf = new Config().
+					setRoorDir(rootDir).
+					setMaxMemStoreSize(1024L * 1024 * 1024). // nothing is flushed
+					setWalLevel(Config.WAL_LEVEL.ASYNC);
+			Store writer = MStore.create(conf).open();
+			byte[] value = new byte[1000];
+			long count = walSizeMB * 1024L * 1024 / (value.length + 25);
+			for (long i = 0; i < count; i++) {
+				writer.put(ByteUtils.toBytes(i), value);
+			}
+			writer.close();
+		}
+
+		@TearDown(Level.Invocation)
+		public void closeDB() throws IOException {
+			db.close();
+		}
+
+		@TearDown(Level.Trial)
+		public void clean() {
+			deleteDir(new File(rootDir));
+		}
+
+		@Benchmark
+		public Store measureRecovery() throws IOException {
+			db = MStore.create(conf).open();
+			return db;
+		}
+	}
+
+	/**
+	 * MemStore add throughput from 1 to 64 writer threads, with memStores flushed by
+	 * iterating them. Writers only touch their own counter stripe and the active map,
+	 * so throughput should scale with cores until the skip list itself contends.
+	 */
+	@State(Scope.Benchmark)
+	@BenchmarkMode(Mode.Throughput)
+	@Warmup(iterations = 1, time = 5)
+	@Measurement(iterations = 3, time = 5)
+	@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public static class MemStoreWriteBM {
+		private final AtomicLong seqId = new AtomicLong();
+		private ExecutorService pool;
+		private MemStore memStore;
+
+		@Setup
+		public void initMemStore() {
+			pool = Executors.newFixedThreadPool(2);
+			Config conf = new Config().
+					setMaxMemStoreSize(16 * 1024 * 1024).
+					setMemStoreStopMultiplier(64);
+			memStore = new MemStore(conf, (iter, maxSeqId) -> {
+				while (iter.hasNext()) {
+					iter.next();
+				}
+			}, pool);
+		}
+
+		@TearDown
+		public void close() throws IOException {
+			memStore.close();
+			pool.shutdownNow();
+		}
+
+		private void add() throws IOException {
+			long i = seqId.incrementAndGet();
+			memStore.add(KeyValue.createPut(ByteUtils.toBytes(ThreadLocalRandom.current().nextLong()),
+					new byte[100], i));
+		}
+
+		@Benchmark
+		@Threads(1)
+		public void measureAdd1() throws IOException {
+			add();
+		}
+
+		@Benchmark
+		@Threads(4)
+		public void measureAdd4() throws IOException {
+			add();
+		}
+
+		@Benchmark
+		@Threads(16)
+		public void measureAdd16() throws IOException {
+			add();
+		}
+
+		@Benchmark
+		@Threads(64)
+		public void measureAdd64() throws IOException {
+			add();
+		}
+	}
+
+	static void deleteDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isDirectory()) {
+					deleteDir(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		dir.delete();
+	}
+
 	public static void main(String[] args) throws RunnerException {
 		Options opt = new OptionsBuilder()
 				.include(StoreBM.class.getSimpleName())
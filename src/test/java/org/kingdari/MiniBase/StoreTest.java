@@ -9,8 +9,14 @@ import org.kingdari.MiniBase.MStore.SeekIter;
 
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class StoreTest {
 
@@ -200,6 +206,467 @@ public class StoreTest {
 		db.close();
 	}
 
+	@Test
+	public void pointGetTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(4 * 1024).
+				setMaxDiskFiles(Integer.MAX_VALUE).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		// versions of each key spread over memStore and many disk files.
+		int keys = 200;
+		long[] deletedAt = new long[keys];
+		for (int round = 0; round < 10; round++) {
+			for (int k = 0; k < keys; k++) {
+				byte[] key = ByteUtils.toBytes(k);
+				if (k % 7 == round) {
+					deletedAt[k] = Store.join(db.deleteAsync(key));
+				} else {
+					db.put(key, ByteUtils.toBytes(round * keys + k));
+				}
+			}
+		}
+		for (int reopen = 0; reopen < 2; reopen++) {
+			for (int k = 0; k < keys; k++) {
+				byte[] key = ByteUtils.toBytes(k);
+				KeyValue kv = db.get(new KeyValueFilter().setKey(key));
+				Assertions.assertArrayEquals(ByteUtils.toBytes(9 * keys + k), kv.getValue());
+				Assertions.assertNull(db.get(new KeyValueFilter().setKey(key).setVersion(deletedAt[k])));
+				// just before the delete, the put of the round before.
+				kv = db.get(new KeyValueFilter().setKey(key).setVersion(deletedAt[k] - 1));
+				if (k % 7 == 0) {
+					Assertions.assertNull(kv);
+				} else {
+					Assertions.assertArrayEquals(ByteUtils.toBytes((k % 7 - 1) * keys + k), kv.getValue());
+				}
+			}
+			Assertions.assertNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes(keys))));
+			db.close();
+			db = MStore.create(conf).open();
+		}
+		db.close();
+	}
+
+	@Test
+	public void blockEncodingTest() throws Exception {
+		for (Config.BLOCK_ENCODING encoding : Config.BLOCK_ENCODING.values()) {
+			blockEncodingHelper(encoding, rootDir + "/" + encoding);
+		}
+	}
+
+	private void blockEncodingHelper(Config.BLOCK_ENCODING encoding, String dir) throws Exception {
+		Config conf = new Config().
+				setRoorDir(dir).
+				setMaxMemStoreSize(16 * 1024).
+				setMaxDiskFiles(4).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		int keys = 2000;
+		for (int k = 0; k < keys; k++) {
+			db.put(ByteUtils.toBytes("user/" + k), ByteUtils.toBytes(k));
+		}
+		db.close();
+
+		// PLAIN files written before are read, compacted with files of the new encoding.
+		conf.setBlockEncoding(encoding).setBlockRestartInterval(8).setDataBlockCodec(Codec.LZ);
+		db = MStore.create(conf).open();
+		for (int k = 0; k < keys; k += 2) {
+			db.put(ByteUtils.toBytes("user/" + k), ByteUtils.toBytes(-k));
+		}
+		for (int reopen = 0; reopen < 2; reopen++) {
+			for (int k = 0; k < keys; k++) {
+				KeyValue kv = db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("user/" + k)));
+				Assertions.assertArrayEquals(ByteUtils.toBytes(k % 2 == 0 ? -k : k), kv.getValue());
+			}
+			try (Store.Iter<KeyValue> iter = db.scan()) {
+				int count = 0;
+				while (iter.hasNext()) {
+					iter.next();
+					count++;
+				}
+				Assertions.assertEquals(keys, count);
+			}
+			db.close();
+			db = MStore.create(conf).open();
+		}
+		db.close();
+	}
+
+	@Test
+	public void eagerOldVersionTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(16 * 1024).
+				setMaxMemStorePipelineSize(4).
+				setMemStoreCompaction(Config.MEMSTORE_COMPACTION.EAGER).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		long[] seqIds = new long[3000];
+		for (int i = 0; i < 3000; i++) {
+			seqIds[i] = db.putAsync(ByteUtils.toBytes(i % 100), ByteUtils.toBytes(i)).get();
+		}
+		// an overwritten version is read or refused, never an older one from disk.
+		for (int i = 0; i < 3000; i += 7) {
+			KeyValueFilter filter = new KeyValueFilter().setKey(ByteUtils.toBytes(i % 100)).setVersion(seqIds[i]);
+			try {
+				Assertions.assertArrayEquals(ByteUtils.toBytes(i), db.get(filter).getValue());
+			} catch (IOException e) {
+				Assertions.assertTrue(e.getMessage().startsWith("Version "), e.getMessage());
+			}
+		}
+		db.close();
+
+		Store reopened = MStore.create(conf).open();
+		// flushed files may lack versions dropped before the restart.
+		KeyValueFilter filter = new KeyValueFilter().setKey(ByteUtils.toBytes(0)).setVersion(seqIds[0]);
+		Assertions.assertThrows(IOException.class, () -> reopened.get(filter));
+		for (int i = 0; i < 100; i++) {
+			KeyValue kv = reopened.get(new KeyValueFilter().setKey(ByteUtils.toBytes(i)));
+			Assertions.assertArrayEquals(ByteUtils.toBytes(2900 + i), kv.getValue());
+		}
+		reopened.close();
+	}
+
+	@Test
+	public void recoveryTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(1024). // some data flushed, some only in log
+				setMaxLogSegmentSize(512).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		for (int i = 0; i < 500; i++) {
+			db.put(ByteUtils.toBytes(i), ByteUtils.toBytes(i));
+		}
+		db.delete(ByteUtils.toBytes(0));
+		db.close();
+
+		db = MStore.create(conf).open();
+		byte[] key = ByteUtils.toBytes(1);
+		Assertions.assertNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes(0))));
+		for (int i = 1; i < 500; i++) {
+			KeyValue kv = db.get(new KeyValueFilter().setKey(ByteUtils.toBytes(i)));
+			Assertions.assertNotNull(kv);
+			Assertions.assertArrayEquals(ByteUtils.toBytes(i), kv.getValue());
+		}
+		// new versions continue after the recovered ones.
+		db.put(key, ByteUtils.toBytes("new"));
+		KeyValue kv = db.get(new KeyValueFilter().setKey(key));
+		Assertions.assertArrayEquals(ByteUtils.toBytes("new"), kv.getValue());
+		Assertions.assertTrue(kv.getSequenceId() > 501L);
+		db.close();
+	}
+
+	@Test
+	public void asyncPutTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(64 * 1024).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		int n = 10000;
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		// thousands of writes in flight from one thread.
+		for (int i = 0; i < n; i++) {
+			futures.add(db.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i)));
+		}
+		futures.add(db.deleteAsync(ByteUtils.toBytes(0)));
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+		Set<Long> seqIds = new HashSet<>();
+		for (CompletableFuture<Long> future : futures) {
+			Assertions.assertTrue(seqIds.add(future.get()));
+		}
+		// issued in order by one thread, so sequence ids are ordered too.
+		Assertions.assertTrue(futures.get(n).get() > futures.get(0).get());
+
+		Assertions.assertNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes(0))));
+		for (int i = 1; i < n; i++) {
+			KeyValue kv = db.get(new KeyValueFilter().setKey(ByteUtils.toBytes(i)));
+			Assertions.assertNotNull(kv);
+			Assertions.assertArrayEquals(ByteUtils.toBytes(i), kv.getValue());
+		}
+		db.close();
+	}
+
+	@Test
+	public void writeBatchTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(16 * 1024).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		int keys = 100, rounds = 200;
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> error = new AtomicReference<>();
+		// every batch sets all keys to the round, a reader never sees a mix.
+		Thread reader = new Thread(() -> {
+			try {
+				while (!done.get()) {
+					Set<Integer> values = new HashSet<>();
+					int count = 0;
+					try (Store.Iter<KeyValue> iter = db.scan()) {
+						while (iter.hasNext()) {
+							values.add(ByteUtils.toInt(iter.next().getValue()));
+							count++;
+						}
+					}
+					if (values.size() > 1 || (count != 0 && count != keys)) {
+						error.set("Partial batch: " + values + ", count: " + count);
+						return;
+					}
+				}
+			} catch (IOException e) {
+				error.set(e.toString());
+			}
+		});
+		reader.start();
+		for (int r = 0; r < rounds; r++) {
+			WriteBatch batch = new WriteBatch();
+			for (int i = 0; i < keys; i++) {
+				batch.put(ByteUtils.toBytes(i), ByteUtils.toBytes(r));
+			}
+			db.write(batch);
+		}
+		done.set(true);
+		reader.join();
+		Assertions.assertNull(error.get());
+		for (int i = 0; i < keys; i++) {
+			KeyValue kv = db.get(new KeyValueFilter().setKey(ByteUtils.toBytes(i)));
+			Assertions.assertEquals(rounds - 1, ByteUtils.toInt(kv.getValue()));
+		}
+		db.close();
+	}
+
+	@Test
+	public void parallelApplyTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(64 * 1024).
+				setLogApplyThreads(8).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		int n = 20000;
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> error = new AtomicReference<>();
+		// keys are put in order, a reader always sees a prefix of them.
+		Thread reader = new Thread(() -> {
+			try {
+				while (!done.get()) {
+					int expect = 0;
+					try (Store.Iter<KeyValue> iter = db.scan()) {
+						while (iter.hasNext()) {
+							int key = ByteUtils.toInt(iter.next().getKey());
+							if (key != expect++) {
+								error.set("Hole before key " + key);
+								return;
+							}
+						}
+					}
+				}
+			} catch (IOException e) {
+				error.set(e.toString());
+			}
+		});
+		reader.start();
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			futures.add(db.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i)));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+		done.set(true);
+		reader.join();
+		Assertions.assertNull(error.get());
+		for (int i = 0; i < n; i++) {
+			Assertions.assertEquals(i + 1L, (long) futures.get(i).get());
+		}
+		int count = 0;
+		try (Store.Iter<KeyValue> iter = db.scan()) {
+			while (iter.hasNext()) {
+				Assertions.assertEquals(count++, ByteUtils.toInt(iter.next().getKey()));
+			}
+		}
+		Assertions.assertEquals(n, count);
+		db.close();
+	}
+
+	@Test
+	public void multiLogStreamTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setMaxMemStoreSize(64 * 1024).
+				setMaxLogSegmentSize(4096).
+				setLogStreams(4).
+				setWalLevel(Config.WAL_LEVEL.SYNC);
+		Store db = MStore.create(conf).open();
+		int n = 5000;
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> error = new AtomicReference<>();
+		// streams log keys out of put order, but a reader always sees a prefix of the versions.
+		Thread reader = new Thread(() -> {
+			try {
+				while (!done.get()) {
+					long count = 0, maxSeq = 0;
+					try (Store.Iter<KeyValue> iter = db.scan()) {
+						while (iter.hasNext()) {
+							maxSeq = Math.max(maxSeq, iter.next().getSequenceId());
+							count++;
+						}
+					}
+					if (count != maxSeq) {
+						error.set(count + " keys visible up to version " + maxSeq);
+						return;
+					}
+				}
+			} catch (IOException e) {
+				error.set(e.toString());
+			}
+		});
+		reader.start();
+		List<CompletableFuture<Long>> futures = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			futures.add(db.putAsync(ByteUtils.toBytes(i), ByteUtils.toBytes(i)));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+		done.set(true);
+		reader.join();
+		Assertions.assertNull(error.get());
+		Set<Long> seqs = new HashSet<>();
+		for (CompletableFuture<Long> future : futures) {
+			seqs.add(future.get());
+		}
+		Assertions.assertEquals(n, seqs.size());
+		db.close();
+
+		// recover with fewer streams.
+		Store db2 = MStore.create(conf.setLogStreams(2)).open();
+		for (int i = 0; i < n; i++) {
+			KeyValue kv = db2.get(new KeyValueFilter().setKey(ByteUtils.toBytes(i)));
+			Assertions.assertNotNull(kv);
+			Assertions.assertArrayEquals(ByteUtils.toBytes(i), kv.getValue());
+		}
+		Assertions.assertEquals(n + 1L, (long) db2.putAsync(ByteUtils.toBytes(0), ByteUtils.toBytes("new")).get());
+		db2.close();
+	}
+
+	@Test
+	public void inMemoryCompactionTest() throws Exception {
+		for (Config.MEMSTORE_COMPACTION compaction : Config.MEMSTORE_COMPACTION.values()) {
+			String dir = rootDir + "/" + compaction;
+			Config conf = new Config().
+					setRoorDir(dir).
+					setMaxMemStoreSize(64 * 1024).
+					setMemStoreCompaction(compaction).
+					setWalLevel(Config.WAL_LEVEL.ASYNC);
+			Store db = MStore.create(conf).open();
+			int keys = 500;
+			List<CompletableFuture<Long>> futures = new ArrayList<>();
+			for (int i = 0; i < 20 * keys; i++) {
+				futures.add(db.putAsync(ByteUtils.toBytes(i % keys), ByteUtils.toBytes(i)));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+			for (int round = 0; round < 2; round++) {
+				try (Store.Iter<KeyValue> iter = db.scan()) {
+					for (int k = 0; k < keys; k++) {
+						Assertions.assertTrue(iter.hasNext());
+						KeyValue kv = iter.next();
+						Assertions.assertEquals(k, ByteUtils.toInt(kv.getKey()));
+						Assertions.assertEquals(19 * keys + k, ByteUtils.toInt(kv.getValue()));
+					}
+					Assertions.assertFalse(iter.hasNext());
+				}
+				db.close();
+				db = MStore.create(conf).open();
+			}
+			db.close();
+		}
+	}
+
+	@Test
+	public void walLevelOverrideTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setWalLevel(Config.WAL_LEVEL.ASYNC);
+		Store db = MStore.create(conf).open();
+		db.put(ByteUtils.toBytes("telemetry"), ByteUtils.toBytes(1), Config.WAL_LEVEL.SKIP);
+		db.put(ByteUtils.toBytes("order"), ByteUtils.toBytes(1), Config.WAL_LEVEL.FSYNC);
+		db.write(new WriteBatch().
+				put(ByteUtils.toBytes("a"), ByteUtils.toBytes(1)).
+				put(ByteUtils.toBytes("b"), ByteUtils.toBytes(1)), Config.WAL_LEVEL.FSYNC);
+		db.delete(ByteUtils.toBytes("a"), Config.WAL_LEVEL.SYNC);
+		Assertions.assertNotNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("telemetry"))));
+		db.close();
+
+		// the unlogged put is lost with the memStore.
+		db = MStore.create(conf).open();
+		Assertions.assertNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("telemetry"))));
+		Assertions.assertNotNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("order"))));
+		Assertions.assertNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("a"))));
+		Assertions.assertNotNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("b"))));
+		db.close();
+
+		// read back from the log, a SKIP write is logged as SYNC and survives.
+		conf.setWalLevel(Config.WAL_LEVEL.SYNC);
+		db = MStore.create(conf).open();
+		db.put(ByteUtils.toBytes("metric"), ByteUtils.toBytes(1), Config.WAL_LEVEL.SKIP);
+		db.close();
+		db = MStore.create(conf).open();
+		Assertions.assertNotNull(db.get(new KeyValueFilter().setKey(ByteUtils.toBytes("metric"))));
+		db.close();
+	}
+
+	@Test
+	public void closeWhileWritingTest() throws Exception {
+		Config conf = new Config().
+				setRoorDir(rootDir).
+				setWalLevel(Config.WAL_LEVEL.ASYNC).
+				setLogRingBufferSize(8);
+		Store db = MStore.create(conf).open();
+		AtomicBoolean stop = new AtomicBoolean(false);
+		List<List<CompletableFuture<Long>>> futures = new ArrayList<>();
+		Thread[] writers = new Thread[8];
+		for (int i = 0; i < writers.length; i++) {
+			List<CompletableFuture<Long>> written = new ArrayList<>();
+			futures.add(written);
+			final int fi = i;
+			writers[i] = new Thread(() -> {
+				for (int j = 0; j < 200_000 && !stop.get(); j++) {
+					CompletableFuture<Long> future = db.putAsync(ByteUtils.toBytes(fi * 10_000_000 + j), ByteUtils.toBytes(j));
+					written.add(future);
+					if (future.isCompletedExceptionally()) {
+						// rejected, the store is closed.
+						break;
+					}
+				}
+			});
+			writers[i].start();
+		}
+		Thread.sleep(200);
+		Assertions.assertTimeoutPreemptively(Duration.ofSeconds(20), db::close);
+		stop.set(true);
+		for (Thread writer : writers) {
+			writer.join();
+		}
+
+		// every write is done, the ones which succeeded are kept.
+		List<byte[]> keys = new ArrayList<>();
+		for (int i = 0; i < writers.length; i++) {
+			for (int j = 0; j < futures.get(i).size(); j++) {
+				CompletableFuture<Long> future = futures.get(i).get(j);
+				Assertions.assertTrue(future.isDone());
+				if (!future.isCompletedExceptionally()) {
+					keys.add(ByteUtils.toBytes(i * 10_000_000 + j));
+				}
+			}
+		}
+		Assertions.assertTrue(db.putAsync(ByteUtils.toBytes(-1), ByteUtils.toBytes(-1)).isCompletedExceptionally());
+		Store reopened = MStore.create(conf).open();
+		for (byte[] key : keys) {
+			Assertions.assertNotNull(reopened.get(new KeyValueFilter().setKey(key)));
+		}
+		reopened.close();
+	}
+
 	@Test
 	public void scanIterTest() throws IOException {
 		List<KeyValue> list = new ArrayList<>();
@@ -0,0 +1,99 @@
+package org.kingdari.MiniBase;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+public class WriteControllerTest {
+
+	@Test
+	public void slowdownTest() throws Exception {
+		WriteController controller = new WriteController(100, 200, 1000);
+		controller.throttle(1000);
+		Assertions.assertFalse(controller.isWriteDelayed());
+		Assertions.assertEquals(0, controller.getDelayedWriteCount());
+
+		// half way to the stop size, 500 bytes per second.
+		controller.addPendingFlush(150);
+		Assertions.assertTrue(controller.isWriteDelayed());
+		Assertions.assertFalse(controller.isWriteStopped());
+		long start = System.nanoTime();
+		for (int i = 0; i < 3; i++) {
+			controller.throttle(50);
+		}
+		long elapsed = System.nanoTime() - start;
+		Assertions.assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(200), "elapsed " + elapsed);
+		Assertions.assertEquals(3, controller.getDelayedWriteCount());
+		Assertions.assertTrue(controller.getDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+
+		controller.removePendingFlush(150);
+		start = System.nanoTime();
+		controller.throttle(1000);
+		Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+		Assertions.assertEquals(3, controller.getDelayedWriteCount());
+		Assertions.assertEquals(0, controller.getStallCount());
+	}
+
+	@Test
+	public void stopTest() throws Exception {
+		WriteController controller = new WriteController(100, 200, 1024 * 1024);
+		controller.addPendingFlush(250);
+		Assertions.assertTrue(controller.isWriteStopped());
+		CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> {
+			try {
+				controller.throttle(10);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+		// stalled from here on.
+		while (controller.getStallCount() == 0) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(200);
+		Assertions.assertFalse(blocked.isDone());
+
+		// still stopped.
+		controller.removePendingFlush(10);
+		Thread.sleep(50);
+		Assertions.assertFalse(blocked.isDone());
+
+		controller.removePendingFlush(240);
+		blocked.get(5, TimeUnit.SECONDS);
+		Assertions.assertEquals(1, controller.getStallCount());
+		Assertions.assertTrue(controller.getStallNanos() >= TimeUnit.MILLISECONDS.toNanos(250));
+	}
+
+	@Test
+	public void flushFailedTest() throws Exception {
+		WriteController controller = new WriteController(100, 200, 1024 * 1024);
+		controller.addPendingFlush(200);
+		CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> {
+			try {
+				return controller.throttle(10);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+		Thread.sleep(100);
+		Assertions.assertFalse(blocked.isDone());
+		// returns to retry the flush, as often as it fails.
+		controller.setFlushFailed(true);
+		Assertions.assertFalse(blocked.get(5, TimeUnit.SECONDS));
+		Assertions.assertFalse(controller.throttle(10));
+
+		// gives up once closed.
+		controller.close();
+		Assertions.assertThrows(IOException.class, () -> controller.throttle(10));
+
+		// the retried flush succeeded.
+		controller.setFlushFailed(false);
+		controller.removePendingFlush(200);
+		Assertions.assertTrue(controller.throttle(10));
+		Assertions.assertEquals(3, controller.getStallCount());
+	}
+}